@@ -1,7 +1,13 @@
 package com.itec4020.websearch;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import com.sun.net.httpserver.HttpServer;
 
@@ -22,32 +28,80 @@ import com.sun.net.httpserver.HttpServer;
 @SuppressWarnings("restriction")
 public class App {
 	
-	// Port for WebServer
-	final int PORT = 8080;
+	// Port for WebServer and the number of connections allowed to wait to be accepted
+	// Set with -Dwebsearch.http.port and -Dwebsearch.http.backlog
+	final int PORT = Integer.getInteger("websearch.http.port", 8080);
+	final int BACKLOG = Integer.getInteger("websearch.http.backlog", 256);
 	
-	ElasticSearchHandler searchHandler;
+	// Threads handling requests, the number of requests allowed to wait for a thread
+	// and how long they may wait before being turned away with a 503
+	// Set with -Dwebsearch.http.threads, -Dwebsearch.http.queue and -Dwebsearch.http.queue.ms
+	final int HTTP_THREADS = Integer.getInteger("websearch.http.threads", 32);
+	final int HTTP_QUEUE = Integer.getInteger("websearch.http.queue", 256);
+	final long HTTP_QUEUE_MS = Long.getLong("websearch.http.queue.ms", 2000);
+	
+	// Keep-alive settings for idle connections, passed on to the JDK HttpServer
+	// Set with -Dwebsearch.http.keepalive.seconds and -Dwebsearch.http.keepalive.connections
+	final int KEEPALIVE_SECONDS = Integer.getInteger("websearch.http.keepalive.seconds", 30);
+	final int KEEPALIVE_CONNECTIONS = Integer.getInteger("websearch.http.keepalive.connections", 200);
+	
+	// Search engine to use, elastic or embedded.  Set with -Dwebsearch.backend
+	final String BACKEND = System.getProperty("websearch.backend", "elastic");
+	
+	// Topic queries written to the results file, and replayed to warm up
+	final String TOPICS_PATH = "results/topics.txt";
+	
+	SearchBackend searchHandler;
+	
+	// Whether the application is ready, reported at /health
+	Health health;
+	
+	RequestExecutor requestExecutor;
 
 	public static void main(String[] args) {
 		System.out.println("Starting up");
 
-		new App();
+		new App().run();
 	}
 	
 	public App() {
-		searchHandler = new ElasticSearchHandler();
-		
+		searchHandler = createBackend();
+		health = new Health(searchHandler.getProgress());
+	}
+	
+	/**
+	 * Starts the web server, then indexes the collection in the background and
+	 * writes the results for the topic queries once it is indexed.  When an
+	 * earlier run left an index that can be searched it is served straight
+	 * away, otherwise searches wait on the ingest.  Either way the topic queries
+	 * are replayed to warm up before /health reports ready.
+	 */
+	public void run() {
 		try {
-			// Decompresses all documents into .txt files
-			searchHandler.decompress();
-
-			// Breaks down each .txt file into a separate document and indexes them
-			searchHandler.index();
-			
 			// Start up the Web Server to handle requests
-			HttpServer server = HttpServer.create(new InetSocketAddress(8080), 10);
-		    server.createContext("/", new WebServerHandler(searchHandler));
-		    server.setExecutor(null);
+			HttpServer server = createServer();
 		    server.start();
+		    System.out.println("Web server started on port " + PORT);
+		    
+		    boolean usable = searchHandler.hasUsableIndex();
+		    if (usable) {
+		    	System.out.println("Serving searches from the existing index while indexing runs");
+		    }
+		    
+		    Thread ingest = new Thread(new Runnable() {
+		    	public void run() {
+		    		ingest();
+		    	}
+		    }, "ingest");
+		    ingest.start();
+		    
+		    if (usable) {
+		    	warmUp();
+		    }
+		    ingest.join();
+		    if (!usable) {
+		    	warmUp();
+		    }
 		    
 		    // Create the results file for the 20 topic queries
 		    outputTopicResults();
@@ -56,12 +110,124 @@ public class App {
 		}
 	}
 	
+	/**
+	 * Decompresses and indexes the collection, skipping whatever is already
+	 * indexed.
+	 */
+	public void ingest() {
+		health.ingestStarted();
+		try {
+			// Breaks down each file into a separate document and indexes them, the
+			// files are decompressed to disk first when -Dwebsearch.extract is set
+			searchHandler.index();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			health.ingestFinished();
+		}
+	}
+	
+	/**
+	 * Replays the topic queries the same way the web server searches, so the
+	 * search cache, the connections to the backend and the JIT are warmed up,
+	 * then marks the application ready.  A missing topics file only skips the
+	 * warm-up.
+	 */
+	public void warmUp() {
+		health.setWarming();
+		long start = System.currentTimeMillis();
+		int succeeded = 0;
+		
+		try {
+			List<Topic> topics = Topic.readTopics(new File(TOPICS_PATH));
+			
+			// Send every search before waiting on any of them
+			List<CompletableFuture<String>> searches = new ArrayList<CompletableFuture<String>>();
+			for (Topic topic : topics) {
+				searches.add(searchHandler.searchAsync(topic.title, topic.description, 0,
+						ElasticSearchHandler.DEFAULT_SEARCH_SIZE));
+			}
+			
+			for (CompletableFuture<String> search : searches) {
+				try {
+					search.get();
+					succeeded++;
+				} catch (ExecutionException e) {
+					// Counted in the search metrics
+				}
+			}
+			
+			System.out.println("Warmed up with " + succeeded + " of " + topics.size() + " topic searches in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			System.out.println("Unable to read the topics to warm up with: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		health.setReady(succeeded, System.currentTimeMillis() - start);
+		System.out.println("Ready to serve searches");
+	}
+	
+	/**
+	 * @return The backend that indexes and searches the collection
+	 */
+	public SearchBackend getSearchHandler() {
+		return searchHandler;
+	}
+	
+	/**
+	 * Creates the search backend chosen with -Dwebsearch.backend
+	 * 
+	 * @return The backend that indexes and searches the collection
+	 */
+	public SearchBackend createBackend() {
+		if (BACKEND.equalsIgnoreCase("embedded")) {
+			return new EmbeddedSearchBackend();
+		}
+		
+		if (!BACKEND.equalsIgnoreCase("elastic")) {
+			System.out.println("Unknown search backend " + BACKEND + ", using elastic");
+		}
+		return new ElasticSearchHandler();
+	}
+	
+	/**
+	 * Creates the web server along with the pool of threads it's requests run on.
+	 * 
+	 * @return The server, ready to be started
+	 * @throws IOException
+	 */
+	public HttpServer createServer() throws IOException {
+		// The JDK reads these once when the first server is created
+		setDefaultProperty("sun.net.httpserver.idleInterval", String.valueOf(KEEPALIVE_SECONDS));
+		setDefaultProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(KEEPALIVE_CONNECTIONS));
+		
+		requestExecutor = new RequestExecutor(HTTP_THREADS, HTTP_QUEUE, HTTP_QUEUE_MS);
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress(PORT), BACKLOG);
+		server.createContext("/", new WebServerHandler(searchHandler, health, requestExecutor));
+		server.setExecutor(requestExecutor);
+		
+		return server;
+	}
+	
+	/**
+	 * Sets a system property unless it was already given on the command line.
+	 */
+	private static void setDefaultProperty(String key, String value) {
+		if (System.getProperty(key) == null) {
+			System.setProperty(key, value);
+		}
+	}
+	
 	/**
 	 * This function will be used to generate the .txt file for the assignment submission.
 	 * It will execute the 20 topic queries as they come up in the topics file.
 	 */
 	public void outputTopicResults() {
-		Map<String, String> topicMap = searchHandler.queryTopics("results/topics.txt");
+		Map<String, String> topicMap = searchHandler.queryTopics(TOPICS_PATH);
 		ResultsGenerator.generateOutputFile(topicMap);
+		System.out.println(searchHandler.getSearchCache().getStats());
 	}
 }
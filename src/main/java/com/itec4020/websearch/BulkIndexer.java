@@ -0,0 +1,403 @@
+package com.itec4020.websearch;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Groups documents into _bulk requests for ElasticSearch.  A batch is sent once
+ * it reaches either the document or the byte limit, and only a fixed number of
+ * batches may be waiting on the server at the same time.  Adding a document
+ * blocks while that many batches are in flight, which slows the ingest down to
+ * the speed the server can keep up with.
+ *
+ * When the server rejects documents (HTTP 429) the rejected documents are sent
+ * again after a growing delay and the batch size is halved.  Every batch that
+ * goes through cleanly grows the batch size again, up to the maximum.
+ */
+public class BulkIndexer {
+
+	// Limits for a single batch, set with -Dwebsearch.bulk.docs and -Dwebsearch.bulk.bytes
+	final int MAX_BATCH_DOCS = Integer.getInteger("websearch.bulk.docs", 1000);
+	final int MIN_BATCH_DOCS = Math.min(MAX_BATCH_DOCS, 10);
+	final int MAX_BATCH_BYTES = Integer.getInteger("websearch.bulk.bytes", 5 * 1024 * 1024);
+
+	// Number of batches allowed to be waiting on the server, set with -Dwebsearch.bulk.concurrent
+	final int MAX_CONCURRENT = Integer.getInteger("websearch.bulk.concurrent", 4);
+
+	// Retry settings for rejected documents, the delay doubles with each attempt
+	final int MAX_RETRIES = Integer.getInteger("websearch.bulk.retries", 8);
+	final long INITIAL_BACKOFF_MS = 100;
+	final long MAX_BACKOFF_MS = 10000;
+
+	// The HTTP status ElasticSearch uses when it's queues are full
+	static final int STATUS_REJECTED = 429;
+
+	// Client and endpoint the batches are sent to
+	final RestClient rest;
+	final String path;
+
+	// Documents waiting to be sent in the next batch
+	private List<Item> batch = new ArrayList<Item>();
+	private int batchBytes = 0;
+
+	// Current document limit for a batch, adjusted as rejections come in
+	private int batchLimit;
+
+	// Permits for batches in flight
+	private final Semaphore inFlight;
+
+	// Used to send rejected documents again after a delay
+	private final ScheduledExecutorService retryScheduler;
+
+	// Number of documents added but not yet acknowledged or failed
+	private long pending = 0;
+
+	// Stats related variables for analysis
+	final AtomicLong acknowledged = new AtomicLong();
+	final AtomicLong failed = new AtomicLong();
+	final AtomicLong rejected = new AtomicLong();
+	final AtomicLong batches = new AtomicLong();
+	final long startTime = System.currentTimeMillis();
+
+	// Metrics served at /metrics, shared by every indexer
+	static final Metrics.Histogram REQUEST_TIME_METRIC = Metrics.histogram("websearch_bulk_request_seconds",
+			"Time taken by _bulk requests");
+	static final Metrics.Counter ACKNOWLEDGED_METRIC = Metrics.counter("websearch_bulk_documents_total",
+			"Documents sent in _bulk requests by how they were answered", "result", "acknowledged");
+	static final Metrics.Counter REJECTED_METRIC = Metrics.counter("websearch_bulk_documents_total",
+			"Documents sent in _bulk requests by how they were answered", "result", "rejected");
+	static final Metrics.Counter FAILED_METRIC = Metrics.counter("websearch_bulk_documents_total",
+			"Documents sent in _bulk requests by how they were answered", "result", "failed");
+
+	/**
+	 * @param rest The client used to send requests
+	 * @param path The index and type to send documents to (e.g. /files/documents)
+	 */
+	public BulkIndexer(RestClient rest, String path) {
+		this.rest = rest;
+		this.path = path + "/_bulk";
+		this.batchLimit = MAX_BATCH_DOCS;
+		this.inFlight = new Semaphore(Math.max(1, MAX_CONCURRENT));
+		this.retryScheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	/**
+	 * Adds a document to the next batch, sending the batch if it is full.  May
+	 * block while the maximum number of batches are in flight.
+	 *
+	 * @param id The ID for the document
+	 * @param json The document source
+	 */
+	public void add(String id, String json) {
+		add(id, json, null);
+	}
+	
+	/**
+	 * Adds a document to the next batch, sending the batch if it is full.  May
+	 * block while the maximum number of batches are in flight.
+	 *
+	 * @param id The ID for the document
+	 * @param json The document source
+	 * @param onAcknowledged Run once the server has indexed the document, may be null
+	 */
+	public void add(String id, String json, Runnable onAcknowledged) {
+		Item item = new Item(id, json.getBytes(StandardCharsets.UTF_8), onAcknowledged);
+		List<Item> full = null;
+
+		synchronized (this) {
+			pending++;
+			batch.add(item);
+			batchBytes += item.size();
+
+			if (batch.size() >= batchLimit || batchBytes >= MAX_BATCH_BYTES) {
+				full = takeBatch();
+			}
+		}
+
+		if (full != null) {
+			send(full, 0);
+		}
+	}
+
+	/**
+	 * Sends any documents waiting in the current batch.
+	 */
+	public void flush() {
+		List<Item> remaining;
+
+		synchronized (this) {
+			remaining = takeBatch();
+		}
+
+		if (!remaining.isEmpty()) {
+			send(remaining, 0);
+		}
+	}
+
+	/**
+	 * Sends any waiting documents and blocks until every document added has been
+	 * acknowledged by the server or has failed for good.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		flush();
+
+		synchronized (this) {
+			while (pending > 0) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Waits for all documents and stops the retry thread.
+	 */
+	public void close() throws InterruptedException {
+		try {
+			awaitCompletion();
+		} finally {
+			retryScheduler.shutdown();
+		}
+	}
+
+	/**
+	 * @return The number of documents acknowledged for each second since this
+	 * indexer was created
+	 */
+	public double getDocsPerSecond() {
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		return acknowledged.get() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @return A one line summary of the work done by this indexer
+	 */
+	public String getStats() {
+		return String.format("%d documents acknowledged in %d batches (%.1f docs/sec), %d rejections retried, %d failed",
+				acknowledged.get(), batches.get(), getDocsPerSecond(), rejected.get(), failed.get());
+	}
+
+	/**
+	 * Removes the current batch so that it can be sent, must hold the lock.
+	 */
+	private List<Item> takeBatch() {
+		List<Item> taken = batch;
+		batch = new ArrayList<Item>();
+		batchBytes = 0;
+		return taken;
+	}
+
+	/**
+	 * Sends a batch once one of the in flight permits is free.
+	 *
+	 * @param items The documents to send
+	 * @param attempt The number of times these documents were already sent
+	 */
+	private void send(final List<Item> items, final int attempt) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			complete(items.size(), false);
+			return;
+		}
+
+		// Build the newline delimited body with an action line per document
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (Item item : items) {
+			item.status = 0;
+			body.write(item.action, 0, item.action.length);
+			body.write(item.source, 0, item.source.length);
+			body.write('\n');
+		}
+
+		Request request = new Request("POST", path);
+		// Only return what's needed to find the documents that weren't indexed
+		request.addParameter("filter_path", "errors,items.*.status,items.*.error.type");
+		request.setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.create("application/x-ndjson")));
+
+		batches.incrementAndGet();
+		final long start = System.nanoTime();
+
+		rest.performRequestAsync(request, new ResponseListener() {
+			public void onSuccess(Response response) {
+				inFlight.release();
+				REQUEST_TIME_METRIC.observeSince(start);
+
+				List<Item> retry = new ArrayList<Item>();
+				int failures = 0;
+				try {
+					failures = checkItems(items, EntityUtils.toString(response.getEntity()), retry);
+				} catch (Exception e) {
+					// Nothing is known about which documents made it in, so none of them
+					// are acknowledged and the whole batch is sent again
+					System.out.println("Unable to read bulk response, sending the batch again: " + e);
+					retryOrFail(items, attempt);
+					return;
+				}
+
+				// Let the owners know which documents made it in
+				for (Item item : items) {
+					if (item.status < 300 && item.onAcknowledged != null) {
+						item.onAcknowledged.run();
+					}
+				}
+
+				complete(items.size() - retry.size() - failures, true);
+				complete(failures, false);
+				retryOrFail(retry, attempt);
+			}
+
+			public void onFailure(Exception exception) {
+				inFlight.release();
+				REQUEST_TIME_METRIC.observeSince(start);
+
+				// A rejection or lost connection is worth retrying, anything else isn't
+				if (exception instanceof ResponseException
+						&& ((ResponseException) exception).getResponse().getStatusLine().getStatusCode() != STATUS_REJECTED) {
+					System.out.println("Bulk request failed: " + exception);
+					complete(items.size(), false);
+				} else {
+					retryOrFail(items, attempt);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Goes through the bulk response, collecting the documents that were
+	 * rejected and should be tried again.
+	 *
+	 * @param items The documents that were sent, in the order they were sent
+	 * @param json The bulk response
+	 * @param retry Filled with the documents that were rejected
+	 * @return The number of documents that failed for any other reason
+	 */
+	private int checkItems(List<Item> items, String json, List<Item> retry) throws Exception {
+		JSONObject result = (JSONObject) new JSONParser().parse(json);
+
+		if (!Boolean.TRUE.equals(result.get("errors"))) {
+			return 0;
+		}
+
+		JSONArray results = (JSONArray) result.get("items");
+		if (results == null || results.size() != items.size()) {
+			throw new IllegalStateException("Expected " + items.size() + " items in the bulk response but found "
+					+ (results == null ? 0 : results.size()));
+		}
+		int failures = 0;
+
+		for (int i = 0; i < results.size(); i++) {
+			// Each item is keyed by it's action, e.g. { "index": { "status": 201 } }
+			JSONObject action = (JSONObject) ((JSONObject) results.get(i)).values().iterator().next();
+			int status = ((Number) action.get("status")).intValue();
+			items.get(i).status = status;
+
+			if (status == STATUS_REJECTED) {
+				retry.add(items.get(i));
+			} else if (status >= 300) {
+				System.out.println("Document " + items.get(i).id + " failed: " + action.get("error"));
+				failures++;
+			}
+		}
+
+		return failures;
+	}
+
+	/**
+	 * Schedules the documents to be sent again, or fails them if they have been
+	 * tried too many times.  Any rejection also shrinks the batch size, while a
+	 * batch without rejections grows it.
+	 */
+	private void retryOrFail(final List<Item> items, final int attempt) {
+		if (items.isEmpty()) {
+			synchronized (this) {
+				batchLimit = Math.min(MAX_BATCH_DOCS, batchLimit + Math.max(1, MAX_BATCH_DOCS / 10));
+			}
+			return;
+		}
+
+		rejected.addAndGet(items.size());
+		REJECTED_METRIC.add(items.size());
+		synchronized (this) {
+			batchLimit = Math.max(MIN_BATCH_DOCS, batchLimit / 2);
+		}
+
+		if (attempt >= MAX_RETRIES) {
+			System.out.println(items.size() + " documents failed after " + attempt + " retries");
+			complete(items.size(), false);
+			return;
+		}
+
+		long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << attempt);
+		retryScheduler.schedule(new Runnable() {
+			public void run() {
+				send(items, attempt + 1);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Marks documents as finished and wakes up anyone waiting on completion.
+	 *
+	 * @param count The number of documents that finished
+	 * @param success Whether the documents were acknowledged or failed
+	 */
+	private void complete(int count, boolean success) {
+		if (count == 0) {
+			return;
+		}
+
+		(success ? acknowledged : failed).addAndGet(count);
+		(success ? ACKNOWLEDGED_METRIC : FAILED_METRIC).add(count);
+
+		synchronized (this) {
+			pending -= count;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * A single document waiting to be indexed.
+	 */
+	static class Item {
+		final String id;
+		final byte[] action;
+		final byte[] source;
+		final Runnable onAcknowledged;
+
+		// The status for this document in the last bulk response, 0 if unknown
+		int status;
+
+		Item(String id, byte[] source, Runnable onAcknowledged) {
+			this.id = id;
+			this.action = ("{\"index\":{\"_id\":\"" + id + "\"}}\n").getBytes(StandardCharsets.UTF_8);
+			this.source = source;
+			this.onAcknowledged = onAcknowledged;
+		}
+
+		int size() {
+			return action.length + source.length + 1;
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package com.itec4020.websearch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds documents whose content is the same as, or nearly the same as, a
+ * document seen earlier in the ingest, such as the mirrored pages in the
+ * collection.
+ *
+ * Each document gets a 64 bit SimHash of the overlapping three word shingles
+ * of it's content.  Documents that differ in a few words get fingerprints that
+ * differ in a few bits, so two documents are near-duplicates when their
+ * fingerprints are within MAX_DISTANCE bits of each other.
+ *
+ * The fingerprints are kept in primitive arrays.  Each fingerprint is split
+ * into BLOCKS blocks of 16 bits, and for each block a table keyed by the value
+ * of the block chains together the fingerprints sharing it.  Fingerprints
+ * within MAX_DISTANCE bits of each other must have at least one block the same
+ * when MAX_DISTANCE is less than BLOCKS, so only the fingerprints sharing a
+ * block with the new one are compared.
+ *
+ * Enabled with -Dwebsearch.dedup=skip or -Dwebsearch.dedup=collapse
+ */
+public class Deduplicator {
+
+	// Duplicates are indexed as before
+	static final String MODE_OFF = "off";
+
+	// Duplicates are dropped, they are neither indexed nor stored
+	static final String MODE_SKIP = "skip";
+
+	// The HTML of duplicates is stored for serving but they aren't indexed, and
+	// they are recorded against the document they duplicate
+	static final String MODE_COLLAPSE = "collapse";
+
+	// Number of blocks fingerprints are split into for the lookup tables
+	static final int BLOCKS = 4;
+	static final int BLOCK_BITS = 64 / BLOCKS;
+
+	// Fingerprints this many bits apart or less are near-duplicates, must be
+	// less than BLOCKS.  Set with -Dwebsearch.dedup.distance
+	static final int MAX_DISTANCE = Math.min(BLOCKS - 1,
+			Math.max(0, Integer.getInteger("websearch.dedup.distance", 3)));
+
+	// Documents with fewer shingles than this aren't checked, their fingerprints
+	// are too easily matched by chance
+	static final int MIN_SHINGLES = 16;
+
+	// Number of words in each shingle
+	static final int SHINGLE_WORDS = 3;
+
+	// 64 bit FNV-1a, used to hash each word
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// Each bit of a byte moved into the lowest bit of it's own byte, so that the
+	// bits of eight shingle hashes can be counted with one add per byte of the
+	// hash.  A byte counts up to 255 before it has to be added to the votes
+	private static final long[] SPREAD = new long[256];
+	static {
+		for (int b = 0; b < 256; b++) {
+			for (int k = 0; k < 8; k++) {
+				SPREAD[b] |= (long) ((b >>> k) & 1) << (k * 8);
+			}
+		}
+	}
+
+	// Metrics served at /metrics
+	static final Metrics.Counter DUPLICATES_METRIC = Metrics.counter("websearch_ingest_duplicates_total",
+			"Documents found to be near-duplicates of an earlier document");
+	static final Metrics.Histogram TIME_METRIC = Metrics.histogram("websearch_ingest_dedup_seconds",
+			"Time taken to fingerprint each document and look it up");
+
+	// The fingerprint and docno of each document added, by the order they were added
+	private long[] fingerprints = new long[1024];
+	private String[] docnos = new String[1024];
+	private int size = 0;
+
+	// For each block, the last document added with each value of the block,
+	// plus one so that zero marks an empty slot
+	private final int[] heads = new int[BLOCKS << BLOCK_BITS];
+
+	// For each document and block, the document added before it with the same
+	// value of the block, plus one
+	private int[] next = new int[1024 * BLOCKS];
+
+	// Where the duplicates are recorded in collapse mode, null otherwise
+	private Writer duplicatesOut;
+
+	// Stats related variables for analysis
+	final AtomicLong checked = new AtomicLong();
+	final AtomicLong duplicates = new AtomicLong();
+	final AtomicLong unchecked = new AtomicLong();
+	final AtomicLong nanos = new AtomicLong();
+
+	/**
+	 * Creates an empty fingerprint index.
+	 */
+	public Deduplicator() {
+	}
+
+	/**
+	 * Creates an empty fingerprint index that records each duplicate and the
+	 * document it duplicates on a line of the file, docno then the canonical
+	 * docno separated by a tab.
+	 *
+	 * @param file The file to record the duplicates in
+	 * @param append Add to the duplicates already recorded instead of starting over
+	 * @throws IOException
+	 */
+	public Deduplicator(File file, boolean append) throws IOException {
+		file.getParentFile().mkdirs();
+		duplicatesOut = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Checks the document against the documents added before it, adding it if it
+	 * isn't a near-duplicate of any of them.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @param content The text of the document
+	 * @return The docno of the document this one duplicates, or null if it
+	 * should be indexed
+	 */
+	public String check(String docno, String content) {
+		long start = System.nanoTime();
+		try {
+			long fingerprint = fingerprint(content);
+			if (fingerprint == 0) {
+				unchecked.incrementAndGet();
+				return null;
+			}
+
+			checked.incrementAndGet();
+			String canonical = findOrAdd(docno, fingerprint);
+			if (canonical != null) {
+				duplicates.incrementAndGet();
+				DUPLICATES_METRIC.increment();
+				record(docno, canonical);
+			}
+			return canonical;
+		} finally {
+			long time = System.nanoTime() - start;
+			nanos.addAndGet(time);
+			TIME_METRIC.observeNanos(time);
+		}
+	}
+
+	/**
+	 * Looks for a fingerprint within MAX_DISTANCE bits, adding this one if there
+	 * isn't one.
+	 *
+	 * @return The docno of the document with the matching fingerprint, or null
+	 */
+	synchronized String findOrAdd(String docno, long fingerprint) {
+		for (int block = 0; block < BLOCKS; block++) {
+			int slot = getSlot(fingerprint, block);
+			for (int i = heads[slot]; i != 0; i = next[(i - 1) * BLOCKS + block]) {
+				if (Long.bitCount(fingerprints[i - 1] ^ fingerprint) <= MAX_DISTANCE) {
+					return docnos[i - 1];
+				}
+			}
+		}
+
+		if (size == fingerprints.length) {
+			fingerprints = Arrays.copyOf(fingerprints, size * 2);
+			docnos = Arrays.copyOf(docnos, size * 2);
+			next = Arrays.copyOf(next, size * 2 * BLOCKS);
+		}
+
+		fingerprints[size] = fingerprint;
+		docnos[size] = docno;
+		for (int block = 0; block < BLOCKS; block++) {
+			int slot = getSlot(fingerprint, block);
+			next[size * BLOCKS + block] = heads[slot];
+			heads[slot] = size + 1;
+		}
+		size++;
+
+		return null;
+	}
+
+	private static int getSlot(long fingerprint, int block) {
+		int value = (int) (fingerprint >>> (block * BLOCK_BITS)) & ((1 << BLOCK_BITS) - 1);
+		return (block << BLOCK_BITS) | value;
+	}
+
+	/**
+	 * Writes a duplicate to the duplicates file, when there is one.
+	 */
+	private synchronized void record(String docno, String canonical) {
+		if (duplicatesOut == null) {
+			return;
+		}
+
+		try {
+			duplicatesOut.write(docno);
+			duplicatesOut.write('\t');
+			duplicatesOut.write(canonical);
+			duplicatesOut.write('\n');
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the duplicates recorded so far to disk.
+	 */
+	public synchronized void flush() {
+		if (duplicatesOut != null) {
+			try {
+				duplicatesOut.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the duplicates recorded to disk and closes the duplicates file.
+	 */
+	public synchronized void close() {
+		if (duplicatesOut != null) {
+			try {
+				duplicatesOut.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			duplicatesOut = null;
+		}
+	}
+
+	/**
+	 * @return The number of fingerprints held
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Computes the SimHash of the text.  Each shingle of SHINGLE_WORDS words
+	 * votes for the bits set in it's hash, and the fingerprint has the bits set
+	 * by more than half of the shingles.  Words are split the same way the
+	 * InvertedIndex splits them, so case and punctuation are ignored.
+	 *
+	 * @param text The text of the document
+	 * @return The fingerprint, or 0 if the text has fewer than MIN_SHINGLES shingles
+	 */
+	static long fingerprint(String text) {
+		int[] votes = new int[64];
+		long[] lanes = new long[8];
+		long[] words = new long[SHINGLE_WORDS];
+		int wordCount = 0;
+		int shingles = 0;
+
+		long word = FNV_OFFSET;
+		boolean inWord = false;
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+				inWord = true;
+			} else if (inWord) {
+				words[wordCount++ % SHINGLE_WORDS] = word;
+				word = FNV_OFFSET;
+				inWord = false;
+
+				if (wordCount >= SHINGLE_WORDS) {
+					// Combine the words in order, oldest first
+					long hash = 0;
+					for (int j = 0; j < SHINGLE_WORDS; j++) {
+						hash = hash * 31 + words[(wordCount + j) % SHINGLE_WORDS];
+					}
+					hash = mix(hash);
+
+					for (int j = 0; j < 8; j++) {
+						lanes[j] += SPREAD[(int) (hash >>> (j * 8)) & 0xFF];
+					}
+					if (++shingles % 255 == 0) {
+						addVotes(lanes, votes);
+					}
+				}
+			}
+		}
+
+		if (shingles < MIN_SHINGLES) {
+			return 0;
+		}
+		addVotes(lanes, votes);
+
+		long fingerprint = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			if (votes[bit] * 2 > shingles) {
+				fingerprint |= 1L << bit;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Adds the counts held in the lanes to the votes for each bit and empties the
+	 * lanes.
+	 */
+	private static void addVotes(long[] lanes, int[] votes) {
+		for (int j = 0; j < 8; j++) {
+			for (int k = 0; k < 8; k++) {
+				votes[j * 8 + k] += (int) (lanes[j] >>> (k * 8)) & 0xFF;
+			}
+			lanes[j] = 0;
+		}
+	}
+
+	/**
+	 * Spreads the bits of the shingle hash, the finalizer of MurmurHash3.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return A one line summary of the documents checked
+	 */
+	public String getStats() {
+		long total = checked.get() + unchecked.get();
+		return String.format(
+				"Dedup: %d of %d documents were near-duplicates (%.1f%%), %d too short to check, %.1f us per document",
+				duplicates.get(), total, total == 0 ? 0.0 : duplicates.get() * 100.0 / total, unchecked.get(),
+				total == 0 ? 0.0 : nanos.get() / 1e3 / total);
+	}
+}
@@ -0,0 +1,415 @@
+package com.itec4020.websearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An append-only store for the documents served by the web server.  Instead of
+ * a file per document the documents are appended to a few large segment files
+ * and an index file records where each one is.  Segments are memory-mapped for
+ * reading, so serving a document doesn't open any files.  The segment being
+ * written to is only mapped again once REMAP_BYTES have been added to it,
+ * documents written since it was last mapped are read from the file instead.
+ *
+ * Layout of the store directory:
+ * - segment-{n}.dat: the documents one after another, optionally deflated
+ * - index.dat: one record per document written, {docno, segment, offset,
+ *   length, flags}.  When a document is written twice the last record wins.
+ */
+public class DocumentStore {
+
+	// Flags stored with each record
+	static final byte FLAG_DEFLATED = 1;
+
+	// Segments are started over once they reach this size, must stay under 2GB
+	// to be memory-mapped.  Set with -Dwebsearch.store.segment.bytes
+	final long MAX_SEGMENT_BYTES = Long.getLong("websearch.store.segment.bytes", 256L * 1024 * 1024);
+
+	// How much the segment being written to grows before it is mapped again
+	final long REMAP_BYTES = 16L * 1024 * 1024;
+
+	// Deflate each document as it is written, set with -Dwebsearch.store.compress
+	final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("websearch.store.compress", "true"));
+
+	// The directory holding the segments and index
+	final File directory;
+
+	// Where each document is, keyed by docno
+	private final Map<String, Location> locations = new HashMap<String, Location>();
+
+	// Read-only maps of each segment, remapped when a segment has grown
+	private final List<MappedByteBuffer> maps = new ArrayList<MappedByteBuffer>();
+
+	// The segment documents are appended to, and the stream index records are written to
+	private int segment = 0;
+	private FileChannel segmentChannel;
+	private DataOutputStream indexOut;
+
+	// Used to deflate documents, only used while holding the lock
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+	private final byte[] deflateBuffer = new byte[64 * 1024];
+
+	public DocumentStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens the store, reading in the index of any documents already written.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void open() throws IOException {
+		directory.mkdirs();
+		locations.clear();
+		maps.clear();
+
+		// Find the last segment, every segment before it is complete
+		segment = 0;
+		while (getSegmentFile(segment + 1).exists()) {
+			segment++;
+		}
+
+		loadIndex();
+
+		segmentChannel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+		segmentChannel.position(segmentChannel.size());
+		indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(), true)));
+	}
+
+	/**
+	 * Reads the index file, ignoring any records for data that never made it into
+	 * a segment (e.g. if the application was stopped while writing).
+	 */
+	private void loadIndex() throws IOException {
+		File indexFile = getIndexFile();
+		if (!indexFile.exists()) {
+			return;
+		}
+
+		long[] segmentSizes = new long[segment + 1];
+		for (int i = 0; i <= segment; i++) {
+			segmentSizes[i] = getSegmentFile(i).length();
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			while (true) {
+				String docno = in.readUTF();
+				Location location = new Location(in.readInt(), in.readInt(), in.readInt(), in.readByte());
+
+				if (location.segment <= segment
+						&& (long) location.offset + location.length <= segmentSizes[location.segment]) {
+					locations.put(docno, location);
+				}
+			}
+		} catch (EOFException e) {
+			// Reached the end of the index, a partial last record is ignored
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Appends a document to the store.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @param data The document
+	 * @return The number of bytes written to disk
+	 * @throws IOException
+	 */
+	public synchronized int write(String docno, byte[] data) throws IOException {
+		byte flags = 0;
+
+		if (COMPRESS) {
+			data = deflate(data);
+			flags |= FLAG_DEFLATED;
+		}
+
+		// Start a new segment if this document would make the current one too big
+		if (segmentChannel.size() > 0 && segmentChannel.size() + data.length > MAX_SEGMENT_BYTES) {
+			segmentChannel.close();
+			segment++;
+			segmentChannel = new RandomAccessFile(getSegmentFile(segment), "rw").getChannel();
+		}
+
+		Location location = new Location(segment, (int) segmentChannel.size(), data.length, flags);
+
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		while (buffer.hasRemaining()) {
+			segmentChannel.write(buffer);
+		}
+
+		indexOut.writeUTF(docno);
+		indexOut.writeInt(location.segment);
+		indexOut.writeInt(location.offset);
+		indexOut.writeInt(location.length);
+		indexOut.writeByte(location.flags);
+
+		locations.put(docno, location);
+
+		return data.length;
+	}
+
+	/**
+	 * Reads a document from the store.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @return The document, or null if it isn't in the store
+	 * @throws IOException
+	 */
+	public byte[] read(String docno) throws IOException {
+		Record record = getRecord(docno);
+		if (record == null) {
+			return null;
+		}
+
+		byte[] data = new byte[record.data.remaining()];
+		record.data.get(data);
+
+		if (record.isDeflated()) {
+			data = inflate(data);
+		}
+
+		return data;
+	}
+
+	/**
+	 * Finds a document in the store without copying or inflating it, so that it
+	 * can be sent straight from the mapped segment.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @return The record for the document, or null if it isn't in the store
+	 * @throws IOException
+	 */
+	public Record getRecord(String docno) throws IOException {
+		Location location;
+		MappedByteBuffer map;
+
+		synchronized (this) {
+			location = locations.get(docno);
+			if (location == null) {
+				return null;
+			}
+
+			map = getMap(location);
+
+			// Documents written since the segment was last mapped are read from the file
+			if (map == null) {
+				ByteBuffer data = ByteBuffer.allocate(location.length);
+				while (data.hasRemaining()) {
+					if (segmentChannel.read(data, location.offset + data.position()) < 0) {
+						throw new EOFException("Truncated document in store");
+					}
+				}
+				data.flip();
+				return new Record(data, location.flags);
+			}
+		}
+
+		// Each reader gets it's own view of the map so reads don't interfere
+		ByteBuffer data = map.duplicate();
+		data.position(location.offset);
+		data.limit(location.offset + location.length);
+
+		return new Record(data.slice(), location.flags);
+	}
+
+	/**
+	 * @return The number of documents in the store
+	 */
+	public synchronized int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Writes the buffered index records to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (indexOut != null) {
+			indexOut.flush();
+		}
+	}
+
+	/**
+	 * Removes every document, used when the collection is indexed from scratch.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void clear() throws IOException {
+		close();
+
+		for (int i = 0; i <= segment; i++) {
+			getSegmentFile(i).delete();
+		}
+		getIndexFile().delete();
+
+		open();
+	}
+
+	/**
+	 * Flushes and closes the files being written to.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (indexOut != null) {
+			indexOut.close();
+			indexOut = null;
+		}
+
+		if (segmentChannel != null) {
+			segmentChannel.close();
+			segmentChannel = null;
+		}
+	}
+
+	/**
+	 * Returns a map that covers the given location, mapping the segment again if
+	 * it has grown since it was last mapped.  A segment that is no longer
+	 * written to is mapped whole once, the segment being written to only once
+	 * it has grown by REMAP_BYTES.  Must hold the lock.
+	 *
+	 * @return The map, or null if the location is in the segment being written
+	 * to past the end of it's map
+	 */
+	private MappedByteBuffer getMap(Location location) throws IOException {
+		while (maps.size() <= location.segment) {
+			maps.add(null);
+		}
+
+		MappedByteBuffer map = maps.get(location.segment);
+		if (map == null || map.capacity() < location.offset + location.length) {
+			if (map != null && location.segment == segment && segmentChannel != null
+					&& segmentChannel.size() - map.capacity() < REMAP_BYTES) {
+				return null;
+			}
+
+
+			RandomAccessFile file = new RandomAccessFile(getSegmentFile(location.segment), "r");
+			try {
+				map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			} finally {
+				file.close();
+			}
+			maps.set(location.segment, map);
+		}
+
+		return map;
+	}
+
+	/**
+	 * Deflates the data, must hold the lock.
+	 */
+	private byte[] deflate(byte[] data) {
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		deflated.reset();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(deflateBuffer);
+			deflated.write(deflateBuffer, 0, n);
+		}
+
+		return deflated.toByteArray();
+	}
+
+	/**
+	 * Inflates data written by deflate().
+	 */
+	static byte[] inflate(byte[] data) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+		byte[] buffer = new byte[16 * 1024];
+
+		try {
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buffer);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated document in store");
+				}
+				out.write(buffer, 0, n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+
+		return out.toByteArray();
+	}
+
+	private File getSegmentFile(int n) {
+		return new File(directory, String.format("segment-%05d.dat", n));
+	}
+
+	private File getIndexFile() {
+		return new File(directory, "index.dat");
+	}
+
+	/**
+	 * Where a document is stored.
+	 */
+	static class Location {
+		final int segment;
+		final int offset;
+		final int length;
+		final byte flags;
+
+		Location(int segment, int offset, int length, byte flags) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.flags = flags;
+		}
+	}
+
+	/**
+	 * A document as it is stored, backed by the mapped segment.
+	 */
+	public static class Record {
+		// The stored bytes, deflated if isDeflated() is true
+		final ByteBuffer data;
+		final byte flags;
+
+		Record(ByteBuffer data, byte flags) {
+			this.data = data;
+			this.flags = flags;
+		}
+
+		public ByteBuffer getData() {
+			return data;
+		}
+
+		/**
+		 * @return True if the data is in the zlib format used by the HTTP deflate encoding
+		 */
+		public boolean isDeflated() {
+			return (flags & FLAG_DEFLATED) != 0;
+		}
+	}
+}
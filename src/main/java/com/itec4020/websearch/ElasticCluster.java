@@ -0,0 +1,444 @@
+package com.itec4020.websearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * The connection to the ElasticSearch cluster.  Builds the REST client from
+ * the configured hosts and pool sizes, and keeps it's list of nodes up to
+ * date while the application runs:
+ * - sniffing: every SNIFF_MS the cluster is asked for it's nodes, so nodes
+ *   added to the cluster are used without a restart and the configured hosts
+ *   only need to name one of them
+ * - health checks: every HEALTH_MS each known node is pinged, nodes that don't
+ *   answer are taken out of the client until they answer again
+ *
+ * Searches can be hedged.  A search is sent to one node, and if it hasn't
+ * answered within HEDGE_MS, or it fails, the search is sent to a second node
+ * as well and whichever answers first is used.  This keeps one slow node from
+ * dragging up the tail latency.
+ */
+public class ElasticCluster {
+
+	// Nodes connected to at start, more are found by sniffing
+	// Set with -Dwebsearch.elastic.hosts
+	final String HOSTS = System.getProperty("websearch.elastic.hosts", "http://localhost:9200,http://localhost:9201");
+
+	// Size of the connection pool, for each node and in total
+	// Set with -Dwebsearch.elastic.connections.per.route and -Dwebsearch.elastic.connections
+	final int CONNECTIONS_PER_ROUTE = Integer.getInteger("websearch.elastic.connections.per.route",
+			RestClientBuilder.DEFAULT_MAX_CONN_PER_ROUTE);
+	final int CONNECTIONS = Integer.getInteger("websearch.elastic.connections", RestClientBuilder.DEFAULT_MAX_CONN_TOTAL);
+
+	// Number of threads handling the client's connections
+	// Set with -Dwebsearch.elastic.io.threads
+	final int IO_THREADS = Integer.getInteger("websearch.elastic.io.threads", Runtime.getRuntime().availableProcessors());
+
+	// How often the cluster is asked for it's nodes, 0 turns sniffing off
+	// Set with -Dwebsearch.elastic.sniff.ms
+	final long SNIFF_MS = Long.getLong("websearch.elastic.sniff.ms", 60000);
+
+	// How often each node is pinged, and how long it has to answer
+	// Set with -Dwebsearch.elastic.health.ms
+	final long HEALTH_MS = Long.getLong("websearch.elastic.health.ms", 5000);
+	final int HEALTH_TIMEOUT_MS = 1000;
+
+	// How long a search waits on the first node before it is also sent to a
+	// second one, 0 turns hedging off.  Set with -Dwebsearch.search.hedge.ms
+	final long HEDGE_MS = Long.getLong("websearch.search.hedge.ms", 100);
+
+	// The node a request made on this thread is sent to, null to let the client choose
+	private static final ThreadLocal<Node> TARGET = new ThreadLocal<Node>();
+
+	// Metrics served at /metrics
+	static final Metrics.Counter HEDGE_SENT_METRIC = Metrics.counter("websearch_search_hedges_total",
+			"Searches sent to a second node", "result", "sent");
+	static final Metrics.Counter HEDGE_WON_METRIC = Metrics.counter("websearch_search_hedges_total",
+			"Searches sent to a second node", "result", "won");
+	static final Metrics.Counter NODE_DOWN_METRIC = Metrics.counter("websearch_elastic_node_changes_total",
+			"Nodes taken out of or put back into the client", "change", "down");
+	static final Metrics.Counter NODE_UP_METRIC = Metrics.counter("websearch_elastic_node_changes_total",
+			"Nodes taken out of or put back into the client", "change", "up");
+
+	final RestClient rest;
+
+	// Every node known of, the configured hosts until the first sniff
+	private final Set<HttpHost> known = new LinkedHashSet<HttpHost>();
+
+	// Picks the first node for each hedged search
+	private final AtomicInteger nextNode = new AtomicInteger();
+
+	// Runs the sniffing and health checks, which block on their requests
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "elastic-cluster");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	// Sends the hedged searches, kept apart from the scheduler so that a hedge
+	// isn't held up behind a sniff or a health check to a slow node
+	private final ScheduledExecutorService hedger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "elastic-hedge");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	public ElasticCluster() {
+		for (String host : HOSTS.split(",")) {
+			if (!host.trim().isEmpty()) {
+				known.add(HttpHost.create(host.trim()));
+			}
+		}
+
+		rest = RestClient.builder(known.toArray(new HttpHost[known.size()]))
+				.setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
+					public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder builder) {
+						return builder.setMaxConnPerRoute(CONNECTIONS_PER_ROUTE).setMaxConnTotal(CONNECTIONS)
+								.setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(IO_THREADS).build());
+					}
+				}).setNodeSelector(new NodeSelector() {
+					public void select(Iterable<Node> nodes) {
+						selectTarget(nodes);
+					}
+				}).build();
+
+		Metrics.gauge("websearch_elastic_nodes", "Nodes the client sends requests to", new LongSupplier() {
+			public long getAsLong() {
+				return rest.getNodes().size();
+			}
+		});
+	}
+
+	/**
+	 * Starts the sniffing and health checks.
+	 */
+	public void start() {
+		if (SNIFF_MS > 0) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					sniff();
+				}
+			}, 0, SNIFF_MS, TimeUnit.MILLISECONDS);
+		}
+
+		if (HEALTH_MS > 0) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkNodes();
+				}
+			}, HEALTH_MS, HEALTH_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return The client requests are sent with
+	 */
+	public RestClient getClient() {
+		return rest;
+	}
+
+	/**
+	 * Asks the cluster for the HTTP address of each of it's nodes, which become
+	 * the nodes known of.  The nodes are used once they pass a health check.
+	 */
+	void sniff() {
+		try {
+			Request request = new Request("GET", "/_nodes/http");
+			request.addParameter("filter_path", "nodes.*.http.publish_address");
+			Response response = rest.performRequest(request);
+
+			// The cluster's own addresses replace the configured ones, which may name
+			// the same nodes differently
+			Set<HttpHost> found = parseNodes(response.getEntity().getContent());
+			if (found.isEmpty()) {
+				return;
+			}
+			synchronized (known) {
+				for (HttpHost host : found) {
+					if (!known.contains(host)) {
+						System.out.println("Found ElasticSearch node " + host);
+					}
+				}
+				known.clear();
+				known.addAll(found);
+			}
+
+			checkNodes();
+		} catch (IOException | ParseException | RuntimeException e) {
+			System.out.println("Unable to sniff the ElasticSearch nodes: " + e);
+		}
+	}
+
+	/**
+	 * Reads the nodes from a _nodes/http response,
+	 * { "nodes": { "id": { "http": { "publish_address": "127.0.0.1:9200" } } } }
+	 */
+	static Set<HttpHost> parseNodes(InputStream in) throws IOException, ParseException {
+		Set<HttpHost> hosts = new LinkedHashSet<HttpHost>();
+
+		Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+		try {
+			JSONObject json = (JSONObject) new JSONParser().parse(reader);
+			JSONObject nodes = (JSONObject) json.get("nodes");
+			if (nodes == null) {
+				return hosts;
+			}
+
+			for (Object node : nodes.values()) {
+				JSONObject http = (JSONObject) ((JSONObject) node).get("http");
+				if (http == null || http.get("publish_address") == null) {
+					continue;
+				}
+
+				// The address may come as hostname/ip:port
+				String address = http.get("publish_address").toString();
+				address = address.substring(address.lastIndexOf('/') + 1);
+				hosts.add(HttpHost.create("http://" + address));
+			}
+		} finally {
+			reader.close();
+		}
+
+		return hosts;
+	}
+
+	/**
+	 * Pings every known node and gives the client the ones that answered.  If
+	 * none of them answer the client keeps every node, so that requests fail
+	 * with the real error rather than for a lack of nodes.
+	 */
+	synchronized void checkNodes() {
+		List<HttpHost> hosts;
+		synchronized (known) {
+			hosts = new ArrayList<HttpHost>(known);
+		}
+
+		List<Node> live = new ArrayList<Node>();
+		for (HttpHost host : hosts) {
+			if (ping(host)) {
+				live.add(new Node(host));
+			}
+		}
+
+		if (live.isEmpty()) {
+			for (HttpHost host : hosts) {
+				live.add(new Node(host));
+			}
+		}
+
+		List<HttpHost> current = getHosts(rest.getNodes());
+		List<HttpHost> next = getHosts(live);
+		if (current.equals(next)) {
+			return;
+		}
+
+		for (HttpHost host : current) {
+			if (!next.contains(host)) {
+				System.out.println("ElasticSearch node " + host + " is down, no longer sending requests to it");
+				NODE_DOWN_METRIC.increment();
+			}
+		}
+		for (HttpHost host : next) {
+			if (!current.contains(host)) {
+				System.out.println("ElasticSearch node " + host + " is up, sending requests to it");
+				NODE_UP_METRIC.increment();
+			}
+		}
+
+		rest.setNodes(live);
+	}
+
+	/**
+	 * @return True if the node answered a GET / in time
+	 */
+	private boolean ping(HttpHost host) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(host.toURI() + "/").openConnection();
+			connection.setConnectTimeout(HEALTH_TIMEOUT_MS);
+			connection.setReadTimeout(HEALTH_TIMEOUT_MS);
+			try {
+				int status = connection.getResponseCode();
+				InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+				if (in != null) {
+					in.close();
+				}
+				return status < 500;
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static List<HttpHost> getHosts(List<Node> nodes) {
+		List<HttpHost> hosts = new ArrayList<HttpHost>();
+		for (Node node : nodes) {
+			hosts.add(node.getHost());
+		}
+		return hosts;
+	}
+
+	/**
+	 * Sends a search, hedging it with a second node when there is more than one.
+	 * The second node is sent the search once the first has taken HEDGE_MS, or
+	 * straight away if the first fails.  The future completes with the first
+	 * response, and only fails once every node it was sent to has failed.
+	 *
+	 * @param request The search to send
+	 * @return Completes with the response
+	 */
+	public CompletableFuture<Response> sendHedged(final Request request) {
+		final CompletableFuture<Response> result = new CompletableFuture<Response>();
+
+		List<Node> nodes = rest.getNodes();
+		int first = Math.floorMod(nextNode.getAndIncrement(), nodes.size());
+		final Node primary = nodes.get(first);
+		final Node secondary = nodes.size() > 1 ? nodes.get((first + 1) % nodes.size()) : null;
+
+		// Number of nodes still working on the search, and whether the second one has been used
+		final AtomicInteger pending = new AtomicInteger(1);
+		final AtomicBoolean hedged = new AtomicBoolean(secondary == null);
+
+		final Runnable hedge = new Runnable() {
+			public void run() {
+				if (!result.isDone() && hedged.compareAndSet(false, true)) {
+					HEDGE_SENT_METRIC.increment();
+					pending.incrementAndGet();
+					send(request, secondary, new Listener(result, pending, true, null));
+				}
+			}
+		};
+
+		send(request, primary, new Listener(result, pending, false, hedge));
+
+		if (secondary != null && HEDGE_MS > 0) {
+			hedger.schedule(hedge, HEDGE_MS, TimeUnit.MILLISECONDS);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sends a request to the given node.
+	 */
+	private void send(Request request, Node node, ResponseListener listener) {
+		TARGET.set(node);
+		try {
+			rest.performRequestAsync(request, listener);
+		} finally {
+			TARGET.remove();
+		}
+	}
+
+	/**
+	 * Narrows the nodes down to the one a request is being sent to, if it is one
+	 * of them.  Otherwise the client chooses as usual.
+	 */
+	private static void selectTarget(Iterable<Node> nodes) {
+		Node target = TARGET.get();
+		if (target == null) {
+			return;
+		}
+
+		boolean found = false;
+		for (Node node : nodes) {
+			found |= node.getHost().equals(target.getHost());
+		}
+		if (!found) {
+			return;
+		}
+
+		for (Iterator<Node> i = nodes.iterator(); i.hasNext();) {
+			if (!i.next().getHost().equals(target.getHost())) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Completes a hedged search with the first response.
+	 */
+	private static class Listener implements ResponseListener {
+		final CompletableFuture<Response> result;
+		final AtomicInteger pending;
+		final boolean isHedge;
+
+		// Sends the search to the second node if this one fails, null for the second node
+		final Runnable failover;
+
+		Listener(CompletableFuture<Response> result, AtomicInteger pending, boolean isHedge, Runnable failover) {
+			this.result = result;
+			this.pending = pending;
+			this.isHedge = isHedge;
+			this.failover = failover;
+		}
+
+		public void onSuccess(Response response) {
+			if (result.complete(response) && isHedge) {
+				HEDGE_WON_METRIC.increment();
+			}
+		}
+
+		public void onFailure(Exception e) {
+			// Errors in the search itself would fail on any node
+			boolean retry = !(e instanceof ResponseException)
+					|| ((ResponseException) e).getResponse().getStatusLine().getStatusCode() >= 500;
+			if (retry && failover != null) {
+				failover.run();
+			}
+
+			if (pending.decrementAndGet() == 0) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops the sniffing and health checks and closes the client.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+		hedger.shutdownNow();
+		rest.close();
+	}
+}
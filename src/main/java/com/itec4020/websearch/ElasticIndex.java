@@ -0,0 +1,258 @@
+package com.itec4020.websearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Manages the index the documents are kept in on ElasticSearch.  The index is
+ * created with an explicit mapping rather than leaving the field types to
+ * dynamic mapping:
+ * - title, content and keywords are analyzed text
+ * - docno and olddocno are keywords, matched exactly
+ * - url is a keyword that is returned but never searched
+ * - content is searched but left out of _source, the results never show it and
+ *   the snippets are built from the document store
+ *
+ * While documents are being bulk loaded the index isn't refreshed and has no
+ * replicas, so each document is only written once.  Once the load is done the
+ * index is refreshed, force merged down to MERGE_SEGMENTS segments if any
+ * documents were loaded and given back it's refresh interval and replicas.
+ *
+ * As content isn't in _source the index can't be rebuilt from itself, it has
+ * to be ingested again from the collection.  That is also how an index made
+ * with a different mapping, such as the dynamic mapping of an older version,
+ * is brought up to date.
+ */
+public class ElasticIndex {
+
+	// Settings the index is given once bulk loading is done
+	// Set with -Dwebsearch.elastic.replicas and -Dwebsearch.elastic.refresh
+	final int REPLICAS = Integer.getInteger("websearch.elastic.replicas", 1);
+	final String REFRESH_INTERVAL = System.getProperty("websearch.elastic.refresh", "1s");
+
+	// Segments the index is merged down to after bulk loading, 0 skips the merge
+	// Set with -Dwebsearch.elastic.merge.segments
+	final int MERGE_SEGMENTS = Integer.getInteger("websearch.elastic.merge.segments", 1);
+
+	// Client and index the requests are sent to
+	final RestClient rest;
+	final String path;
+	final String type;
+
+	/**
+	 * @param rest The client used to send requests
+	 * @param path The index (e.g. /files)
+	 * @param type The mapping type documents are indexed as (e.g. documents)
+	 */
+	public ElasticIndex(RestClient rest, String path, String type) {
+		this.rest = rest;
+		this.path = path;
+		this.type = type;
+	}
+
+	/**
+	 * Gets the index ready for a bulk load, creating it with the mapping if it
+	 * doesn't exist yet, and turning off refreshes and replicas.
+	 *
+	 * @param exists Whether the index already exists
+	 */
+	public void startBulkLoad(boolean exists) {
+		try {
+			if (exists) {
+				Request request = new Request("PUT", path + "/_settings");
+				request.setJsonEntity(buildSettings("-1", 0));
+				rest.performRequest(request);
+			} else {
+				Request request = new Request("PUT", path);
+				request.setJsonEntity(buildIndex());
+				rest.performRequest(request);
+				System.out.println("Created index " + path);
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to prepare " + path + " for bulk loading: " + e);
+		}
+	}
+
+	/**
+	 * Checks the mapping of the index on the server against the mapping it is
+	 * created with.
+	 *
+	 * @return True if the mappings match
+	 * @throws IOException If the mapping couldn't be fetched
+	 */
+	public boolean hasMapping() throws IOException {
+		Response resp = rest.performRequest(new Request("GET", path + "/_mapping"));
+		return matchesMapping(EntityUtils.toString(resp.getEntity()));
+	}
+
+	/**
+	 * Compares the response of a GET _mapping, { "files": { "mappings": {
+	 * "documents": { ... } } } }, with the mapping built by buildIndex.  Every
+	 * field has to have the same type, and _source has to leave out the same
+	 * fields.
+	 *
+	 * @param response The response of the GET _mapping
+	 * @return True if the mappings match
+	 * @throws IOException If the response can't be read
+	 */
+	boolean matchesMapping(String response) throws IOException {
+		JSONObject expected;
+		JSONObject actual = null;
+		try {
+			JSONParser parser = new JSONParser();
+			expected = (JSONObject) ((JSONObject) ((JSONObject) parser.parse(buildIndex())).get("mappings")).get(type);
+
+			// The response is keyed by the name of the index
+			for (Object value : ((JSONObject) parser.parse(response)).values()) {
+				JSONObject mappings = (JSONObject) ((JSONObject) value).get("mappings");
+				actual = mappings == null ? null : (JSONObject) mappings.get(type);
+			}
+		} catch (ParseException | ClassCastException e) {
+			throw new IOException("Unable to read the mapping of " + path, e);
+		}
+
+		if (actual == null || actual.get("properties") == null) {
+			return false;
+		}
+
+		JSONObject expectedSource = (JSONObject) expected.get("_source");
+		JSONObject actualSource = (JSONObject) actual.get("_source");
+		if (actualSource == null || !expectedSource.get("excludes").equals(actualSource.get("excludes"))) {
+			return false;
+		}
+
+		JSONObject expectedProperties = (JSONObject) expected.get("properties");
+		JSONObject actualProperties = (JSONObject) actual.get("properties");
+		for (Object name : expectedProperties.keySet()) {
+			JSONObject field = (JSONObject) actualProperties.get(name);
+			if (field == null || !((JSONObject) expectedProperties.get(name)).get("type").equals(field.get("type"))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Deletes the index so it can be built again from the collection.
+	 *
+	 * @throws IOException If the index couldn't be deleted
+	 */
+	public void delete() throws IOException {
+		try {
+			rest.performRequest(new Request("DELETE", path));
+			System.out.println("Deleted index " + path);
+		} catch (ResponseException e) {
+			// Already gone
+			if (e.getResponse().getStatusLine().getStatusCode() != 404) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Makes the loaded documents searchable, merges the index down and gives it
+	 * back it's refresh interval and replicas.  Replicas are added last so they
+	 * copy the merged segments.
+	 *
+	 * @param merge Whether to force merge the index, only worth the wait when
+	 * documents were loaded
+	 */
+	public void finishBulkLoad(boolean merge) {
+		long start = System.currentTimeMillis();
+
+		try {
+			rest.performRequest(new Request("POST", path + "/_refresh"));
+		} catch (IOException e) {
+			System.out.println("Unable to refresh " + path + ": " + e);
+		}
+
+		if (merge && MERGE_SEGMENTS > 0) {
+			Request request = new Request("POST", path + "/_forcemerge");
+			request.addParameter("max_num_segments", String.valueOf(MERGE_SEGMENTS));
+			try {
+				rest.performRequest(request);
+			} catch (IOException e) {
+				// The merge goes on in the cluster after the client gives up waiting
+				System.out.println("Force merge of " + path + " did not finish in time, it carries on in the cluster: " + e);
+			}
+		}
+
+		try {
+			Request request = new Request("PUT", path + "/_settings");
+			request.setJsonEntity(buildSettings(REFRESH_INTERVAL, REPLICAS));
+			rest.performRequest(request);
+		} catch (IOException e) {
+			System.out.println("Unable to restore the settings of " + path + ": " + e);
+		}
+
+		System.out.println("Finishing the bulk load of " + path + " took " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Builds the body creating the index, with the bulk loading settings and the
+	 * mapping.
+	 *
+	 * @return The JSON body
+	 * @throws IOException
+	 */
+	public String buildIndex() throws IOException {
+		XContentBuilder builder = jsonBuilder()
+				.startObject()
+				.startObject("settings")
+				.field("refresh_interval", "-1")
+				.field("number_of_replicas", 0)
+				.endObject() // end settings
+				.startObject("mappings")
+				.startObject(type)
+				.startObject("_source")
+				.array("excludes", "content")
+				.endObject() // end _source
+				.startObject("properties")
+				.startObject("title").field("type", "text").endObject()
+				.startObject("content").field("type", "text").endObject()
+				.startObject("keywords").field("type", "text").endObject()
+				.startObject("docno").field("type", "keyword").endObject()
+				.startObject("olddocno").field("type", "keyword").endObject()
+				.startObject("url").field("type", "keyword").field("index", false).field("doc_values", false).endObject()
+				.endObject() // end properties
+				.endObject() // end type
+				.endObject() // end mappings
+				.endObject(); // close open bracket
+
+		String body = Strings.toString(builder);
+		builder.close();
+
+		return body;
+	}
+
+	/**
+	 * Builds the body updating the refresh interval and replicas.
+	 */
+	private static String buildSettings(String refreshInterval, int replicas) throws IOException {
+		XContentBuilder builder = jsonBuilder()
+				.startObject()
+				.startObject("index")
+				.field("refresh_interval", refreshInterval)
+				.field("number_of_replicas", replicas)
+				.endObject()
+				.endObject();
+
+		String body = Strings.toString(builder);
+		builder.close();
+
+		return body;
+	}
+}
@@ -2,316 +2,752 @@ package com.itec4020.websearch;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
-import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
-public class ElasticSearchHandler {
+public class ElasticSearchHandler implements SearchBackend {
 	
 	// REST Client to handle requests to ElasticSearch server
 	RestClient rest;
 
+	// Keeps the client's nodes up to date and hedges searches, null when the client isn't open
+	ElasticCluster cluster;
+
 	// Location for ElasticSearch index
-	final String ELASTIC_PATH = "/files/documents";
+	final String INDEX_PATH = "/files";
+	final String DOCUMENT_TYPE = "documents";
+	final String ELASTIC_PATH = INDEX_PATH + "/" + DOCUMENT_TYPE;
+	
+	// Path the stored HTML of each document is served from (e.g. /pages/WT01-B01-7.html)
+	static final String HTML_PATH_PUBLIC = "/pages/";
+	
+	// Number of workers for the stages of the ingest pipeline that only the
+	// ElasticSearch backend runs, set with -Dwebsearch.ingest.{stage}.threads
+	final int SERIALIZE_THREADS = Integer.getInteger("websearch.ingest.serialize.threads", 2);
+	final int SEND_THREADS = Integer.getInteger("websearch.ingest.send.threads", 2);
+	
+	// Number of times the cluster is asked whether the index exists before the
+	// ingest gives up, waiting a little longer after each attempt
+	// Set with -Dwebsearch.elastic.connect.attempts
+	final int CONNECT_ATTEMPTS = Integer.getInteger("websearch.elastic.connect.attempts", 5);
+	final long CONNECT_RETRY_MS = 2000;
+	
+	// Records how much of each file has been indexed so restarts can skip it
+	final String MANIFEST_PATH = "//ingest-manifest.json";
+	
+	// Sends the documents to ElasticSearch while index() is running
+	BulkIndexer bulk;
 	
-	// Path used to read in compressed files
-	final String COMPRESSED_DATA_PATH = "//data//";
+	// Progress of each file, loaded when index() starts
+	IngestManifest manifest;
 	
-	// Path used to output decompressed files
-	final String DECOMPRESS_PATH = "//extracted//";
+	// Reads the collection and keeps the document store and suggestions
+	final IngestPipeline pipeline = new IngestPipeline();
+	
+	// Number of hits returned by a search when no size is given
+	static final int DEFAULT_SEARCH_SIZE = 10;
+	
+	// Fields of each hit returned to the search page, and to the topic run
+	static final String[] SEARCH_SOURCE = { "title", "docno", "url" };
+	static final String[] TOPIC_SOURCE = { "docno" };
+	
+	// How long a search may take before it is given up on
+	// Set with -Dwebsearch.search.timeout.ms
+	final long SEARCH_TIMEOUT_MS = Long.getLong("websearch.search.timeout.ms", 5000);
+	
+	// Fails searches that have run past SEARCH_TIMEOUT_MS
+	final ScheduledExecutorService searchTimeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "search-timeouts");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
-	// Paths for the HTML to be stored for easy access
-	// Located in {PROJECT_DIR}/{HTML_PATH_INTERNAL_PREFIX}/{HTML_PATH_PUBLIC}
-	final String HTML_PATH_INTERNAL = "//public//pages//";
-	final String HTML_PATH_PUBLIC = "/pages/";
+	// Number of topic queries sent in one _msearch request, and the number of
+	// those requests allowed in flight at the same time
+	// Set with -Dwebsearch.topics.batch and -Dwebsearch.topics.parallelism
+	final int TOPIC_BATCH_SIZE = Integer.getInteger("websearch.topics.batch", 50);
+	final int TOPIC_PARALLELISM = Integer.getInteger("websearch.topics.parallelism", 4);
 	
-	// Stats related variables for analysis
-	// Total number of documents indexed thus far
-	int numOfDocuments = 0;
+	// Content type of _msearch requests
+	static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+	
+	// Recent search responses, dropped whenever the index is rebuilt
+	final SearchCache searchCache = new SearchCache();
+	
+	// Metrics served at /metrics, shared with the other backends
+	static final Metrics.Histogram SEARCH_TIME_METRIC = Metrics.histogram("websearch_search_seconds",
+			"Time taken by searches, including those answered by the cache");
+	static final Metrics.Histogram BACKEND_TIME_METRIC = Metrics.histogram("websearch_search_backend_seconds",
+			"Time taken by searches sent to the search backend");
+	static final Metrics.Counter TIMEOUT_METRIC = Metrics.counter("websearch_search_failures_total",
+			"Searches sent to the search backend that failed", "reason", "timeout");
+	static final Metrics.Counter ERROR_METRIC = Metrics.counter("websearch_search_failures_total",
+			"Searches sent to the search backend that failed", "reason", "error");
 	
 	public ElasticSearchHandler() {
 		open();
 	}
 	
 	/**
-	 * Open the REST client connection when booting up
+	 * Open the REST client connection and the document store when booting up
 	 */
 	public void open() {
-		// Initialize the REST client to communicate with the ElasticSearch server
-		rest = RestClient.builder(new HttpHost("localhost", 9200, "http"), new HttpHost("localhost", 9201, "http"))
-				.build();
+		openClient();
+		
+		// Open the store the document HTML is kept in
+		pipeline.open();
+	}
+
+	/**
+	 * Open the REST client connection to the ElasticSearch servers
+	 */
+	protected void openClient() {
+		// Initialize the REST client to communicate with the ElasticSearch servers
+		cluster = new ElasticCluster();
+		cluster.start();
+		rest = cluster.getClient();
 		
 		if(rest != null) {
 			System.out.println("REST Client has been started.");
 		}
 	}
-
+	
+	/**
+	 * @return The store holding the HTML of every indexed document
+	 */
+	public DocumentStore getPages() {
+		return pipeline.getPages();
+	}
+	
+	/**
+	 * @return The store holding the text of every indexed document, for snippets
+	 */
+	public DocumentStore getTexts() {
+		return pipeline.getTexts();
+	}
+	
+	/**
+	 * @return The completions suggested for what is typed into the search box
+	 */
+	public Suggester getSuggester() {
+		return pipeline.getSuggester();
+	}
+	
+	/**
+	 * @return The progress of the ingest
+	 */
+	public IngestProgress getProgress() {
+		return pipeline;
+	}
+	
+	/**
+	 * @return The cache of recent search responses
+	 */
+	public SearchCache getSearchCache() {
+		return searchCache;
+	}
+	
+	/**
+	 * @return The pipeline that reads the collection
+	 */
+	public IngestPipeline getPipeline() {
+		return pipeline;
+	}
+	
 	/**
 	 * Close the REST client connection when no longer needed
 	 */
 	public void close() {
 		try {
-			rest.close();
+			if (cluster != null) {
+				cluster.close();
+			} else if (rest != null) {
+				rest.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-	}
-
-	/**
-	 * Extract document data from compressed files
-	 */
-	public void decompress() {
-		decompressDirectory("WT01");
-		decompressDirectory("WT02");
-		decompressDirectory("WT03");
+		
+		pipeline.close();
 	}
 
 	/**
 	 * Index documents into ElasticSearch
 	 */
 	public void index() {
-		indexDocuments("WT01");
-		indexDocuments("WT02");
-		indexDocuments("WT03");
-		
-		System.out.println("Number of Documents indexed: " + numOfDocuments);
+		indexFiles(pipeline.getIndexFiles());
 	}
-
+	
 	/**
-	 * Searches given the information
+	 * Index the given files through the ingest pipeline.  After the read, split,
+	 * extract and dedup stages of the IngestPipeline each document goes through
+	 * two more stages:
+	 * - serialize: stores the HTML for serving and builds the JSON
+	 * - send: hands the JSON to the BulkIndexer
+	 * Files the manifest shows were fully indexed by an earlier run are skipped
+	 * once read, and when that is every file and none has changed since the
+	 * pipeline isn't run at all.  An index holding documents without a manifest
+	 * to go with it is deleted and built again.  The index is created with it's mapping if it doesn't exist.  It
+	 * is only set up for bulk loading once a file turns out to need indexing, so
+	 * a restart with nothing left to index leaves the live index as it is, and
+	 * it is only force merged when documents were sent.
+	 * 
+	 * @param files The files to be indexed
 	 */
-	public String search(String title, String content) {
-		try {			
-			Request request = new Request("GET", ELASTIC_PATH + "/_search");
-			
-			XContentBuilder builder = jsonBuilder()
-					.startObject()
-					.array("_source", "title", "docno", "url")
-					.startObject("query")
-					.startObject("bool")
-					.startArray("should")
-					.startObject()
-					.startObject("match")
-					.startObject("title")
-					.field("query", title)
-					.field("boost", 100)
-					.endObject()
-					.endObject()
-					.endObject()
-					.startObject()
-					.startObject("match")
-					.field("content", content)
-					.endObject() // end match
-					.endObject() // close open bracket
-					.endArray() // end should
-					.endObject() // end bool
-					.endObject() // end query
-					.endObject(); // close open bracket
-				
-			String json = Strings.toString(builder);
-			System.out.println("Search request received.");
-			request.setJsonEntity(json);
-			//request.addParameter("pretty", "true");
+	public void indexFiles(List<IngestFile> files) {
+		long start = System.currentTimeMillis();
+		
+		// Load the progress from the last run, which only counts if the index
+		// it was recorded against still exists
+		File manifestFile = new File(System.getProperty("user.dir") + MANIFEST_PATH);
+		boolean hadManifest = manifestFile.exists();
+		manifest = new IngestManifest(manifestFile);
+		manifest.load();
+		final ElasticIndex index = new ElasticIndex(rest, INDEX_PATH, DOCUMENT_TYPE);
+		boolean exists;
+		try {
+			exists = indexExists();
+		} catch (IOException e) {
+			System.out.println("Unable to find out if " + INDEX_PATH + " exists, nothing was indexed: " + e);
+			return;
+		}
+		
+		String rebuild = exists ? getRebuildReason(index, hadManifest) : null;
+		if (rebuild != null) {
+			System.out.println("The index " + INDEX_PATH + " " + rebuild + ", rebuilding it");
+			try {
+				index.delete();
+				exists = false;
+			} catch (IOException e) {
+				System.out.println("Unable to delete " + INDEX_PATH + ", leaving it as it is: " + e);
+				pipeline.skip(files.size());
+				return;
+			}
+		}
+		if (!exists) {
+			manifest.clear();
+		}
+		
+		// Nothing needs to be read when every file was indexed and is unchanged
+		if (exists && isIndexed(files)) {
+			pipeline.skip(files.size());
+			System.out.println("All " + files.size() + " files are already indexed, skipping the ingest");
+			return;
+		}
+		bulk = new BulkIndexer(rest, ELASTIC_PATH);
+		searchCache.invalidate();
+		pipeline.start(files.size(), exists);
+		
+		// Creates the index with it's mapping, an index that exists only has
+		// refreshes and replicas stopped once there is something to load into it
+		final AtomicBoolean loading = new AtomicBoolean(!exists);
+		if (!exists) {
+			index.startBulkLoad(false);
+		}
+		final AtomicInteger skippedFiles = new AtomicInteger();
+		final AtomicInteger sentDocuments = new AtomicInteger();
+		
+		// Build the stages from last to first so each one can hand off to the next
+		final IngestStage<IngestDocument> send = new IngestStage<IngestDocument>("send", SEND_THREADS,
+				pipeline.INGEST_QUEUE, new IngestStage.Handler<IngestDocument>() {
+					public void handle(final IngestDocument doc) {
+						// Increment out documents indexed stat
+						pipeline.numOfDocuments.incrementAndGet();
+						IngestPipeline.DOCUMENTS_METRIC.increment();
+						sentDocuments.incrementAndGet();
+						bulk.add(doc.id, doc.json, new Runnable() {
+							public void run() {
+								doc.acknowledge();
+							}
+						});
+					}
+				});
+		
+		final IngestStage<IngestDocument> serialize = new IngestStage<IngestDocument>("serialize", SERIALIZE_THREADS,
+				pipeline.INGEST_QUEUE, new IngestStage.Handler<IngestDocument>() {
+					public void handle(IngestDocument doc) throws Exception {
+						// Store the document to be served in searches
+						pipeline.storeDocument(doc);
+						
+						doc.json = serializeDocument(doc);
+						send.put(doc);
+					}
+				});
+		
+		@SuppressWarnings("unchecked")
+		List<IngestStage<?>> after = Arrays.<IngestStage<?>>asList(serialize, send);
+		
+		try {
+			pipeline.run(files, new IngestPipeline.Filter() {
+				public boolean accept(IngestFile file) {
+					file.entry = manifest.getEntry(file.getManifestName(), file.data, file.file.lastModified());
+					
+					// Files that were fully indexed by an earlier run are skipped
+					if (file.entry.isComplete()) {
+						skippedFiles.incrementAndGet();
+						return false;
+					}
 
-			builder.close();
-			
-			// Get the response from the server for the search
-			Response resp = rest.performRequest(request);
+					if (loading.compareAndSet(false, true)) {
+						index.startBulkLoad(true);
+					}
+					return true;
+				}
+			}, new IngestStage.Handler<IngestDocument>() {
+				public void handle(IngestDocument doc) throws Exception {
+					serialize.put(doc);
+				}
+			}, after, new Runnable() {
+				public void run() {
+					saveProgress();
+				}
+			});
 			
-			// Return the JSON string that is in the Response
-			return EntityUtils.toString(resp.getEntity());
-		} catch (Exception e) {
-			e.printStackTrace();
+			// Only return once every document has been acknowledged
+			bulk.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		
-		return null;
+		saveProgress();
+		pipeline.finish();
+		if (loading.get()) {
+			index.finishBulkLoad(sentDocuments.get() > 0);
+		}
+		
+		// Searches made while indexing ran are out of date
+		searchCache.invalidate();
+		
+		pipeline.printStageStats();
+		System.out.println("Skipped " + skippedFiles.get() + " files that were already indexed");
+		System.out.println("Number of Documents indexed: " + pipeline.numOfDocuments.get());
+		System.out.println(bulk.getStats());
+		System.out.println("Indexing took " + (System.currentTimeMillis() - start) + " ms and wrote "
+				+ pipeline.bytesWritten.get() + " bytes to disk");
 	}
-
+	
 	/**
-	 * Decompress all .GZ files in the given folder. Will assume that the folder
-	 * name provided resides in %PROJECT_PATH%/data/{folder}. The output will be
-	 * stored in %PROJECT_PATH%/extracted/{folder}. If the extracted folder does not
-	 * exist it will be created.
+	 * Checks whether an existing index has to be built again from scratch
+	 * rather than added to:
+	 * - it has documents but there is no manifest, it was left by a version that
+	 *   gave documents sequential IDs, adding to it would index every document
+	 *   a second time under it's docno
+	 * - it's mapping isn't the one it is created with, such as the dynamic
+	 *   mapping of an older version which keeps content in _source and doesn't
+	 *   match docno exactly
 	 * 
-	 * @param folder The folder name to pull data from and to extract data to.
+	 * @param index The existing index
+	 * @param hadManifest Whether there was a manifest on disk
+	 * @return Why the index has to be rebuilt, or null if it can be added to
 	 */
-	public void decompressDirectory(String folder) {
-		// Establish paths to the given folders
-		String filePath = System.getProperty("user.dir") + COMPRESSED_DATA_PATH + folder;
-		String outputPath = System.getProperty("user.dir") + DECOMPRESS_PATH + folder;
-
-		// Create the output directories if they don't exist
-		new File(outputPath).mkdirs();
-
-		// Gather all .GZ files in the directory
-		File[] files = getFilesByExt(filePath, ".GZ");
-
-		// Buffer used to read in data from file
-		byte[] buffer = new byte[1024];
-
+	private String getRebuildReason(ElasticIndex index, boolean hadManifest) {
+		if (!hadManifest && countDocuments() > 0) {
+			return "predates the ingest manifest";
+		}
+		
 		try {
-			if(files != null) {
-				for (int i = 0; i < files.length; i++) {
-					// Setup input streams to extract data from the file
-					FileInputStream fis = new FileInputStream(files[i]);
-					GZIPInputStream gis = new GZIPInputStream(fis);
-	
-					// The file name for the current File
-					String fileName = files[i].getName();
-					String outputName = fileName.substring(0, fileName.indexOf(".GZ")) + ".txt";
-	
-					// Setup output stream to push data into
-					FileOutputStream fos = new FileOutputStream(outputPath + "\\" + outputName);
+			if (!index.hasMapping()) {
+				return "has a different mapping than it is created with";
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to check the mapping of " + INDEX_PATH + ", adding to it as it is: " + e);
+		}
+		
+		return null;
+	}
 	
-					// Stores data to be written
-					int bytes_read;
+	/**
+	 * Checks the manifest for files that still need indexing, going by the size
+	 * and last modified time of each file so that none of them are read.
+	 * 
+	 * @param files The files to be indexed
+	 * @return True if every file was fully indexed and hasn't changed since
+	 */
+	private boolean isIndexed(List<IngestFile> files) {
+		for (IngestFile file : files) {
+			if (!manifest.isIndexed(file.getManifestName(), file.file.length(), file.file.lastModified())) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
 	
-					// Write data until the EOF has been reached
-					while ((bytes_read = gis.read(buffer)) > 0) {
-						fos.write(buffer, 0, bytes_read);
-					}
+	/**
+	 * Makes sure the stored documents, duplicates and suggestions are on disk,
+	 * then saves the manifest.
+	 */
+	private void saveProgress() {
+		pipeline.checkpoint();
+		manifest.save();
+	}
 	
-					// Close streams when finished
-					gis.close();
-					fos.close();
-				}
+	/**
+	 * Checks if the index on the server holds documents that can be searched
+	 * while the ingest runs.
+	 * 
+	 * @return True if the index has searchable documents, false if it doesn't or
+	 * the server can't be reached to find out
+	 */
+	public boolean hasUsableIndex() {
+		return countDocuments() > 0;
+	}
 	
-				System.out.println("Decompression complete for path:  " + filePath);
-			} else {
-				System.out.println("Error!  No .GZ files found in directory: " + filePath);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+	/**
+	 * Counts the documents in the index on the server.
+	 * 
+	 * @return The number of documents, 0 if the index doesn't exist or -1 if the
+	 * server can't be reached to find out
+	 */
+	public long countDocuments() {
+		try {
+			Response resp = rest.performRequest(new Request("GET", INDEX_PATH + "/_count"));
+			JSONObject count = (JSONObject) new JSONParser().parse(EntityUtils.toString(resp.getEntity()));
+			return count.get("count") instanceof Number ? ((Number) count.get("count")).longValue() : -1;
+		} catch (ResponseException e) {
+			// The index doesn't exist
+			return 0;
+		} catch (IOException | ParseException | RuntimeException e) {
+			System.out.println("Unable to count the documents in " + INDEX_PATH + ": " + e);
+			return -1;
 		}
 	}
 
 	/**
-	 * Returns a File array of all files that match a given extension filter.
+	 * Checks if the index documents are stored in exists on the server, asking
+	 * up to CONNECT_ATTEMPTS times while the server can't be reached.
 	 * 
-	 * @param directory The directory to search in
-	 * @param extension The extension to search by
-	 * @return All files that match the extension filter
-	 */
-	public File[] getFilesByExt(String directory, String extension) {
-		// Make the search case insensitive
-		final String ext = extension.toUpperCase();
-		File fileDir = new File(directory);
-
-		// Returns a list of all files that match the extension
-		return fileDir.listFiles(new FilenameFilter() {
-			// Specify the acceptance filter
-			public boolean accept(File fileDir, String fileName) {
-				return fileName.toUpperCase().endsWith(ext);
+	 * @return True if the index exists
+	 * @throws IOException If the server couldn't be asked
+	 */
+	public boolean indexExists() throws IOException {
+		for (int attempt = 1;; attempt++) {
+			try {
+				Response resp = rest.performRequest(new Request("HEAD", INDEX_PATH));
+				return resp.getStatusLine().getStatusCode() == 200;
+			} catch (IOException e) {
+				if (attempt >= CONNECT_ATTEMPTS) {
+					throw e;
+				}
+				System.out.println("Unable to check for an existing index, trying again: " + e);
 			}
-		});
+			
+			try {
+				Thread.sleep(CONNECT_RETRY_MS * attempt);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while checking for an existing index");
+			}
+		}
 	}
 
 	/**
-	 * TODO: Remove indexBump and replace with a more dynamic way to generate
-	 * indicies
+	 * Searches given the information
+	 */
+	public String search(String title, String content) {
+		return search(title, content, 0, DEFAULT_SEARCH_SIZE);
+	}
+	
+	/**
+	 * Searches given the information, returning one page of results.  Only the
+	 * total and the fields of each hit that are shown to the user are returned.
+	 * Responses are cached, and identical searches running at the same time
+	 * share a single request to ElasticSearch.
 	 * 
-	 * Index gathered document data
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return The JSON search response, or null if the search failed
+	 */
+	public String search(String title, String content, int from, int size) {
+		try {
+			return searchAsync(title, content, from, size).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Searches given the information without waiting on the response.  The
+	 * search is sent with the asynchronous REST client, so no thread is held
+	 * while ElasticSearch works on it.  The future fails with a TimeoutException
+	 * if there is no response within SEARCH_TIMEOUT_MS.
 	 * 
-	 * @param folder The folder name for the data where the folder name is placed
-	 *               like so: %PROJECT_DIR%/extracted/{folder}
-	 * @return the number of index documents
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return Completes with the JSON search response
 	 */
-	public void indexDocuments(String folder) {
-		System.out.println("Indexing folder: " + folder);
-
-		// Setup the file path
-		String filePath = System.getProperty("user.dir") + DECOMPRESS_PATH + folder;
-
-		// Gather all files with the .txt extension in the file path
-		File[] files = getFilesByExt(filePath, ".txt");
-
-		// CountDownLoatch for asynchronously requests to be used to identify when the
-		// next step can start
-		// TODO: Will be used later when other tasks are completed
-		final CountDownLatch latch = new CountDownLatch(files.length);
-
-		for (int i = 0; i < files.length; i++) {
-			System.out.println("Indexing file " + files[i].getName());
-
-			// Gather all relevant JSONs for this file's documents
-			ArrayList<String> jsons = getJSONsFromPath(files[i].getPath());
-			int size = jsons.size();
-
-			for (int j = 0; j < size; j++) {
-				// Increment out documents indexed stat
-				numOfDocuments++;
-				// Assign each page an index assuming i are files, and j are documents
-				int documentIndex = numOfDocuments;
-
-				// Build relevant requests
-				Request request = new Request("PUT", ELASTIC_PATH + "/" + documentIndex);
-				request.setJsonEntity(jsons.get(j));
-
-				rest.performRequestAsync(request, new ResponseListener() {
-					public void onSuccess(Response response) {
-						latch.countDown();
-					}
-
-					public void onFailure(Exception exception) {
-						System.out.println(exception);
-						latch.countDown();
+	public CompletableFuture<String> searchAsync(final String title, final String content, final int from, final int size) {
+		final long start = System.nanoTime();
+		
+		CompletableFuture<String> result = searchCache.get(SearchCache.key(title, content, from, size),
+				new Supplier<CompletableFuture<String>>() {
+					public CompletableFuture<String> get() {
+						return sendSearch(title, content, from, size);
 					}
 				});
+		
+		return timeSearch(result, SEARCH_TIME_METRIC, start);
+	}
+	
+	/**
+	 * Records how long a search took once it completes.
+	 * 
+	 * @param search The search being run
+	 * @param histogram Where the time is recorded
+	 * @param start When the search started, from System.nanoTime()
+	 * @return The search
+	 */
+	static CompletableFuture<String> timeSearch(CompletableFuture<String> search, final Metrics.Histogram histogram,
+			final long start) {
+		search.whenComplete(new BiConsumer<String, Throwable>() {
+			public void accept(String response, Throwable error) {
+				histogram.observeSince(start);
 			}
+		});
+		
+		return search;
+	}
+	
+	/**
+	 * Sends a search to ElasticSearch, skipping the cache.
+	 */
+	private CompletableFuture<String> sendSearch(String title, String content, int from, int size) {
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		final long start = System.nanoTime();
+		
+		Request request;
+		try {
+			request = buildSearchRequest(title, content, from, size);
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+			return result;
 		}
+		
+		// Hedged, so that a slow or failed node is made up for by another
+		cluster.sendHedged(request).whenComplete(new BiConsumer<Response, Throwable>() {
+			public void accept(Response response, Throwable error) {
+				if (error != null) {
+					result.completeExceptionally(error);
+					return;
+				}
+				
+				try {
+					// Complete with the JSON string that is in the Response
+					result.complete(EntityUtils.toString(response.getEntity()));
+				} catch (IOException | RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		
+		// Give up on the search if it takes too long, the response is ignored if it
+		// turns up later
+		final ScheduledFuture<?> timeout = searchTimeouts.schedule(new Runnable() {
+			public void run() {
+				result.completeExceptionally(new TimeoutException("Search took longer than " + SEARCH_TIMEOUT_MS + " ms"));
+			}
+		}, SEARCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		
+		result.whenComplete(new BiConsumer<String, Throwable>() {
+			public void accept(String response, Throwable error) {
+				timeout.cancel(false);
+				
+				BACKEND_TIME_METRIC.observeSince(start);
+				if (error != null) {
+					(error instanceof TimeoutException ? TIMEOUT_METRIC : ERROR_METRIC).increment();
+				}
+			}
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * Builds the request for a search, boosting matches in the title over
+	 * matches in the content.
+	 * 
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return The request to send
+	 * @throws IOException
+	 */
+	public Request buildSearchRequest(String title, String content, int from, int size) throws IOException {
+		Request request = new Request("GET", ELASTIC_PATH + "/_search");
+		
+		request.setJsonEntity(buildSearchBody(title, content, from, size));
+		// Leave out the parts of the response that are never read
+		request.addParameter("filter_path", "hits.total,hits.hits._score,hits.hits._source");
+		
+		return request;
+	}
+	
+	/**
+	 * Builds the body of a search, boosting matches in the title over matches in
+	 * the content.
+	 * 
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return The JSON body of the search
+	 * @throws IOException
+	 */
+	public String buildSearchBody(String title, String content, int from, int size) throws IOException {
+		return buildSearchBody(title, content, from, size, SEARCH_SOURCE);
+	}
+	
+	/**
+	 * Builds the body of a search, returning only the given fields of each hit.
+	 * 
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @param source The fields of each document to return
+	 * @return The JSON body of the search
+	 * @throws IOException
+	 */
+	public String buildSearchBody(String title, String content, int from, int size, String[] source) throws IOException {
+		XContentBuilder builder = jsonBuilder()
+				.startObject()
+				.field("from", from)
+				.field("size", size)
+				.array("_source", source)
+				.startObject("query")
+				.startObject("bool")
+				.startArray("should")
+				.startObject()
+				.startObject("match")
+				.startObject("title")
+				.field("query", title)
+				.field("boost", 100)
+				.endObject()
+				.endObject()
+				.endObject()
+				.startObject()
+				.startObject("match")
+				.field("content", content)
+				.endObject() // end match
+				.endObject() // close open bracket
+				.endArray() // end should
+				.endObject() // end bool
+				.endObject() // end query
+				.endObject(); // close open bracket
+		
+		String body = Strings.toString(builder);
+		builder.close();
+		
+		return body;
 	}
 
+	/**
+	 * Index gathered document data. When EXTRACT_TO_DISK is set the documents
+	 * are read from the decompressed .txt files, otherwise the .GZ files are
+	 * read directly and never written out.
+	 * 
+	 * @param folder The folder name for the data where the folder name is placed
+	 *               like so: %PROJECT_DIR%/extracted/{folder} or
+	 *               %PROJECT_DIR%/data/{folder}
+	 */
+	public void indexDocuments(String folder) {
+		indexFiles(pipeline.getIndexFiles(folder));
+	}
+	
 	/**
 	 * Breaks apart an entire document that follows the format of the decompressed
 	 * files into separate JSON strings. The strings will be used into
-	 * ElasticSearch.
+	 * ElasticSearch. Files ending in .GZ are decompressed while they are read.
 	 * 
 	 * @param path The complete path with file name to be read in.
 	 * @return An array of JSON strings to be used for indexing.
 	 */
 	public ArrayList<String> getJSONsFromPath(String path) {
+		try {
+			InputStream in = pipeline.openDocumentStream(new File(path));
+			try {
+				return getJSONsFromStream(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException errIO) {
+			errIO.printStackTrace();
+		}
+
+		return new ArrayList<String>();
+	}
+	
+	/**
+	 * Breaks apart the documents read from the stream into separate JSON strings.
+	 * The stream is expected to follow the format of the decompressed files.
+	 * 
+	 * @param in The stream to read the documents from, left open when done
+	 * @return An array of JSON strings to be used for indexing.
+	 */
+	public ArrayList<String> getJSONsFromStream(InputStream in) {
 		// The String array to be passed back once complete
 		ArrayList<String> jsons = new ArrayList<String>();
 
 		try {
-			// The entire document that is currently being parsed.
-			Document entireDoc = Jsoup.parse(new File(path), null);
-
-			// Break each Document (<DOC>) down into it's own index
-			// Pull the specified DOC element by index to be processed
-			Elements docElements = entireDoc.select("doc");
+			// Splits out one <DOC> at a time without parsing the whole stream
+			TrecDocumentReader reader = new TrecDocumentReader(in);
+			TrecDocument doc;
 			
-			for(Element doc : docElements) {
+			while ((doc = reader.next()) != null) {
 				jsons.add(getJSONFromData(doc));
 			}
-		} catch (NullPointerException errNull) {
-			errNull.printStackTrace();
-		} catch (IndexOutOfBoundsException errIndex) {
-			// This occurs when there are no more DOC tags to select, in which case return
-			// the JSONs
-			return jsons;
 		} catch (IOException errIO) {
 			errIO.printStackTrace();
 		}
@@ -320,206 +756,303 @@ public class ElasticSearchHandler {
 	}
 
 	/**
-	 * Extracts data from the given Element into the JSON format. It is expected
-	 * that the Element provided was generated from Jsoup pulling out a single DOC
-	 * tag. (i.e. the root element must have no siblings and must be a DOC tag)
+	 * Extracts data from the given document into the JSON format. Only the HTML
+	 * of the document is given to Jsoup, the DOCNO, DOCOLDNO and DOCHDR have
+	 * already been split out by the TrecDocumentReader.
 	 * 
-	 * @param e The DOC tag element with all information inside
+	 * @param doc The <DOC> record with all information inside
 	 * @return The JSON string for the data provided
 	 */
-	public String getJSONFromData(Element e) {
+	public String getJSONFromData(TrecDocument doc) {
 		try {
-			String title = "", docno = "", olddocno = "", keywords = "", content = "";
-			Element ele;
-			
-			// This can occur if some elements within a document aren't properly closed
-			// If so, remove all elements after the first
-			if(e.select("doc").size() > 1) {
-				int i = 0;
-				for(Element clean : e.select("doc")) {
-					if (i != 0) { 
-						clean.remove();
-					}
-					i++;
-				}
-			}
-
-			// Only update the Strings if the elements exist
-			if ((ele = e.selectFirst("title")) != null) {
-				title = ele.text();
-			}
-
-			if ((ele = e.selectFirst("docno")) != null) {
-				docno = ele.text();
-			}
-
-			if ((ele = e.selectFirst("docoldno")) != null) {
-				olddocno = ele.text();
-			}
-
-			if ((ele = e.selectFirst("meta")) != null) {
-				if (ele.hasAttr("name") && ele.attr("name") == "keywords") {
-					if (ele.hasAttr("content")) {
-						keywords = ele.attr("content");
-						System.out.println("FOUND KEYWORDS: " + keywords);
-					}
-				}
-			}
-
-			// Gather only the body of the document as text content
-			if ((ele = e.selectFirst("html")) != null) {
-				content = ele.text();
-			} else if ((ele = e.selectFirst("body")) != null) {
-				content = ele.text();
-			} else if ((ele = e.selectFirst("DOCHDR")) != null) {
-				// If the document is malformed and is missing opening html and body tags
-				// then instead strip out everything above and including the <DOCHDR>.
-				// Then set the content as all remaining text for this <DOC>.
-				int i = ele.elementSiblingIndex();
-				
-				// Recursively remove all siblings above the DOCHDR
-				removePreviousSiblings(ele, i);
-				content = e.text();
-			} else {
-				// In the unlikely scenario that the document is malformed and doesn't have an
-				// html, body, or DOCHDR tag, then instead set the content as the entire <DOC>
-				content = e.text();
-			}
+			IngestDocument ingestDoc = new IngestDocument(doc.getDocno(), doc);
+			pipeline.extractDocument(ingestDoc);
 			
 			// Store the document to be served in searches
-			storeDocument(docno, e.html());
-
-			// Build the json using the extracted data
-			XContentBuilder builder = jsonBuilder().startObject().field("title", title).field("docno", docno)
-					.field("olddocno", olddocno).field("keywords", keywords).field("content", content)
-					.field("url", HTML_PATH_PUBLIC + docno + ".html").endObject();
+			pipeline.storeDocument(ingestDoc);
 			
-			return Strings.toString(builder);
+			return serializeDocument(ingestDoc);
 		} catch (Exception exc) {
 			exc.printStackTrace();
 		}
 
 		return null;
 	}
-
+	
 	/**
-	 * Recursively removes the previous sibling until there are no more jumps
+	 * Builds the JSON to be indexed for an extracted document.
 	 * 
-	 * @param e The bottom-most element to start removing
+	 * @param doc The extracted document
+	 * @return The JSON string for the document
+	 * @throws IOException
 	 */
-	public void removePreviousSiblings(Element e, int jumpsLeft) {
-		if (jumpsLeft > 0) {
-			removePreviousSiblings(e.previousElementSibling(), jumpsLeft - 1);
-		}
-
-		e.remove();
+	public String serializeDocument(IngestDocument doc) throws IOException {
+		// Build the json using the extracted data
+		XContentBuilder builder = jsonBuilder().startObject().field("title", doc.title).field("docno", doc.docno)
+				.field("olddocno", doc.olddocno).field("keywords", doc.keywords).field("content", doc.content)
+				.field("url", HTML_PATH_PUBLIC + doc.docno + ".html").endObject();
+		
+		return Strings.toString(builder);
 	}
 	
 	/**
-	 * Stores the provided document data into it's own HTML file for serving.
+	 * Runs every query in a topics file.  The file is parsed once and the queries
+	 * are sent to ElasticSearch in _msearch batches, several batches at a time.
 	 * 
-	 * @param docno The document number (e.g. WT01-B01-7)
-	 * @param data The document excluding the DOCHDR
+	 * @param path The path to the topics file
+	 * @return The map of all search query result sets.  Use the topicNum
+	 * as a key to look up values.  401 is the first index, 402 second, so on.
 	 */
-	public void storeDocument(String docno, String data) {
-		// Establish the results output path
-		String outputPath = System.getProperty("user.dir") + HTML_PATH_INTERNAL;
-		
-		String fileName = docno + ".html";
-				
-		// Create the output directories if they don't exist
-		new File(outputPath).mkdirs();
+	public Map<String, String> queryTopics(String path) {
+		System.out.println("Querying topics from: " + path);
 		
 		try {
-			// Setup the writer to output to the file
-			BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath + fileName));
-			
-			// Write the data to the file
-			writer.write(data);
+			List<Topic> topics = Topic.readTopics(new File(path));
+			System.out.println("Total topics found: " + topics.size());
 			
-			// Close the writer when done
-			writer.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+			return searchTopics(topics);
+		} catch (IOException errIO) {
+			errIO.printStackTrace();
 		}
+		
+		return new HashMap<String, String>();
 	}
 	
 	/**
-	 * Queries search for the JSON to be output for the assignment submission.
-	 * Assumes that the file provided is in the format of the text file
-	 * provided online.
+	 * Runs the query for each topic, TOPIC_BATCH_SIZE topics to an _msearch
+	 * request with up to TOPIC_PARALLELISM requests in flight.  Topics whose
+	 * search failed are left out of the results.
 	 * 
-	 * @param path The path to the topics file
-	 * @return The map of all 20 search query result sets.  Use the topicNum
-	 * as a key to look up values.  401 is the first index, 402 second, so on.
+	 * @param topics The topics to search for
+	 * @return The JSON search response for each topic, keyed by topic number
 	 */
-	public Map<String, String> queryTopics(String path) {
-		// The Map to be passed back once complete
-		Map<String, String> jsonMap = new HashMap<String, String>();
-		
-		System.out.println("Querying topics from: " + path);
+	public Map<String, String> searchTopics(List<Topic> topics) {
+		long start = System.currentTimeMillis();
+		final Map<String, String> results = new ConcurrentHashMap<String, String>();
+		final Semaphore inFlight = new Semaphore(TOPIC_PARALLELISM);
 		
 		try {
-			// The entire document that is currently being parsed.
-			Document entireDoc = Jsoup.parse(new File(path), null);
-			
-			for(int i = 0; i < entireDoc.select("top").size(); i++) {
-				// Pull out each <top> element to be parsed
-				Element topic = entireDoc.select("top").get(i);
+			for (int i = 0; i < topics.size(); i += TOPIC_BATCH_SIZE) {
+				final List<Topic> batch = topics.subList(i, Math.min(topics.size(), i + TOPIC_BATCH_SIZE));
 				
-				// Form the queries from the Element
-				String[] results = searchFromTopic(topic);
+				// Build the request before taking a permit so a batch that can't be
+				// built never holds one
+				Request request;
+				try {
+					request = buildTopicRequest(batch);
+				} catch (IOException e) {
+					System.out.println("Unable to build the topic search for " + batch.size() + " topics: " + e);
+					continue;
+				}
 				
-				// Store results to be returned and written to the output file
-				jsonMap.put(results[0], results[1]);
+				inFlight.acquire();
+				rest.performRequestAsync(request, new ResponseListener() {
+					public void onSuccess(Response response) {
+						try {
+							readTopicResponses(batch, response.getEntity().getContent(), results);
+						} catch (IOException | RuntimeException e) {
+							e.printStackTrace();
+						} finally {
+							inFlight.release();
+						}
+					}
+					
+					public void onFailure(Exception e) {
+						System.out.println("Topic search failed for " + batch.size() + " topics: " + e);
+						inFlight.release();
+					}
+				});
 			}
-			
-			System.out.println("Total topics found: " + entireDoc.select("top").size());
-		} catch (IOException errIO) {
-			errIO.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// Wait for the batches in flight to finish, the results aren't
+			// returned while they can still be written to
+			inFlight.acquireUninterruptibly(TOPIC_PARALLELISM);
+			inFlight.release(TOPIC_PARALLELISM);
 		}
 		
-		return jsonMap;
+		System.out.println("Searched " + results.size() + " of " + topics.size() + " topics in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		
+		return results;
 	}
 	
 	/**
-	 * Extracts data from the given Element into the JSON format. It is expected
-	 * that the Element (e) provided was generated from Jsoup pulling out a single top
-	 * tag. (i.e. the root element must have no siblings and must be a top tag)
+	 * Builds an _msearch request holding the query for each topic, searching the
+	 * topic title against the title and the description against the content.
+	 * Only the docno of the hits written to the results is asked for.
 	 * 
-	 * @param e The top tag element with all information inside
-	 * @return The topic num[0] and JSON string[1] for the executed search
-	 * inside a String array.
+	 * @param topics The topics to search for
+	 * @return The request to send
+	 * @throws IOException
 	 */
-	public String[] searchFromTopic(Element e) {
-		String topicNum = "", title = "", desc = "", narr = "";
-		Element ele;
+	public Request buildTopicRequest(List<Topic> topics) throws IOException {
+		Request request = new Request("POST", ELASTIC_PATH + "/_msearch");
 		
-		// Only update the Strings if the elements exist
-		if ((ele = e.select("narr").first()) != null) {
-			narr = ele.text().substring(ele.text().indexOf(":") + 2);
-			ele.remove();
+		// Each search is a header line followed by the search body, the header is
+		// empty since the index is in the path
+		StringBuilder body = new StringBuilder();
+		for (Topic topic : topics) {
+			body.append("{}\n");
+			body.append(buildSearchBody(topic.title, topic.description, 0, ResultsGenerator.RESULTS_PER_TOPIC,
+					TOPIC_SOURCE)).append('\n');
 		}
-
-		if ((ele = e.select("desc").first()) != null) {
-			desc = ele.text().substring(ele.text().indexOf(":") + 2);
-			ele.remove();
+		
+		request.setEntity(new StringEntity(body.toString(), NDJSON));
+		// Only the docno and score of each hit are written to the results.  The
+		// total is kept so a topic without hits still has a response in it's place.
+		request.addParameter("filter_path",
+				"responses.hits.total,responses.hits.hits._score,responses.hits.hits._source.docno,responses.error.type,responses.status");
+		
+		return request;
+	}
+	
+	/**
+	 * Reads an _msearch response, which holds a search response for each topic
+	 * in the order they were sent, { "responses": [ { "hits": ... }, ... ] }
+	 */
+	private void readTopicResponses(List<Topic> batch, InputStream in, Map<String, String> results) throws IOException {
+		XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+				DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in);
+		try {
+			if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+				return;
+			}
+			
+			while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+				String name = parser.currentName();
+				XContentParser.Token token = parser.nextToken();
+				
+				if (!name.equals("responses") || token != XContentParser.Token.START_ARRAY) {
+					parser.skipChildren();
+					continue;
+				}
+				
+				int i = 0;
+				while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+					if (i < batch.size()) {
+						Topic topic = batch.get(i++);
+						String json = readTopicResponse(parser, topic.num);
+						if (json != null) {
+							results.put(topic.num, json);
+						}
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+		} finally {
+			parser.close();
+			in.close();
 		}
-
+	}
+	
+	/**
+	 * Reads the search response of one topic out of an _msearch response.  The
+	 * docno and score of each hit are written into a response of their own as
+	 * they are read, { "hits": { "total": 1, "hits": [ { "_score": 1.0,
+	 * "_source": { "docno": "..." } } ] } }, and the rest is skipped.  Only the
+	 * top level of the response is checked for a failure, a failed search has
+	 * an error and a status other than 200, which the hits of a successful
+	 * search can't be mistaken for.
+	 * 
+	 * @param parser Positioned at the start of the response
+	 * @param topicNum The topic the response is for, used to report a failure
+	 * @return The response, or null if the search failed
+	 * @throws IOException
+	 */
+	static String readTopicResponse(XContentParser parser, String topicNum) throws IOException {
+		XContentBuilder builder = jsonBuilder().startObject().startObject("hits");
+		boolean failed = false;
 		
-		if ((ele = e.select("title").first()) != null) {
-			title = ele.text();
-			ele.remove();
+		while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+			String name = parser.currentName();
+			XContentParser.Token token = parser.nextToken();
+			
+			if (name.equals("status") && token == XContentParser.Token.VALUE_NUMBER) {
+				if (parser.intValue() != 200) {
+					failed = true;
+				}
+			} else if (name.equals("error")) {
+				failed = true;
+				System.out.println("Topic search failed for " + topicNum + ": "
+						+ (token == XContentParser.Token.START_OBJECT ? parser.mapOrdered() : parser.text()));
+			} else if (name.equals("hits") && token == XContentParser.Token.START_OBJECT) {
+				readTopicHits(parser, builder);
+			} else {
+				parser.skipChildren();
+			}
 		}
 		
-		if ((ele = e.select("num").first()) != null) {
-			topicNum = ele.text().substring(ele.text().indexOf(":") + 2);
+		builder.endObject().endObject();
+		String json = Strings.toString(builder);
+		builder.close();
+		return failed ? null : json;
+	}
+	
+	/**
+	 * Copies the total and the docno and score of each hit from the hits of a
+	 * search response, { "total": 1, "hits": [ ... ] }
+	 */
+	private static void readTopicHits(XContentParser parser, XContentBuilder builder) throws IOException {
+		while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+			String name = parser.currentName();
+			XContentParser.Token token = parser.nextToken();
+			
+			if (name.equals("total") && token == XContentParser.Token.VALUE_NUMBER) {
+				builder.field("total", parser.longValue());
+			} else if (name.equals("hits") && token == XContentParser.Token.START_ARRAY) {
+				builder.startArray("hits");
+				while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+					builder.startObject();
+					while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+						String field = parser.currentName();
+						token = parser.nextToken();
+						
+						if (field.equals("_score") && token == XContentParser.Token.VALUE_NUMBER) {
+							builder.field("_score", parser.floatValue());
+						} else if (field.equals("_source") && token == XContentParser.Token.START_OBJECT) {
+							builder.startObject("_source");
+							while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+								String sourceField = parser.currentName();
+								token = parser.nextToken();
+								if (sourceField.equals("docno") && token == XContentParser.Token.VALUE_STRING) {
+									builder.field("docno", parser.text());
+								} else {
+									parser.skipChildren();
+								}
+							}
+							builder.endObject();
+						} else {
+							parser.skipChildren();
+						}
+					}
+					builder.endObject();
+				}
+				builder.endArray();
+			} else {
+				parser.skipChildren();
+			}
 		}
+	}
+	
+	/**
+	 * Runs the query for a single topic.  It is expected that the Element (e)
+	 * provided was generated from Jsoup pulling out a single top tag. (i.e. the
+	 * root element must have no siblings and must be a top tag)
+	 * 
+	 * @param e The top tag element with all information inside
+	 * @return The topic num[0] and JSON string[1] for the executed search
+	 * inside a String array.
+	 */
+	public String[] searchFromTopic(Element e) {
+		Topic topic = Topic.fromElement(e);
 		
 		String[] results = new String[2];
-		results[0] = topicNum;
+		results[0] = topic.num;
 		// Perform the search with the data provided
-		results[1] = search(title, desc);
+		results[1] = search(topic.title, topic.description);
 		
 		return results;
 	}
@@ -0,0 +1,236 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Searches the collection with an inverted index kept by the application
+ * instead of an ElasticSearch cluster, so that it can run without one.  The
+ * collection is read through the same IngestPipeline as for ElasticSearch and
+ * the HTML is kept in the same document store, only the documents are added to
+ * an InvertedIndex instead of being sent to a cluster.
+ *
+ * The index is built in memory, written to disk once every document has been
+ * added and memory-mapped for searching.  On the next start the index on disk
+ * is used as is.  Enabled with -Dwebsearch.backend=embedded
+ */
+public class EmbeddedSearchBackend implements SearchBackend {
+
+	// Where the index is stored
+	final String INDEX_PATH_INTERNAL = "//store//index//";
+
+	// Reads the collection and keeps the document store and suggestions
+	final IngestPipeline pipeline = new IngestPipeline();
+
+	// Recent search responses, dropped whenever the index is rebuilt
+	final SearchCache searchCache = new SearchCache();
+
+	// The index being searched, null until one has been built
+	private volatile InvertedIndex index;
+
+	public EmbeddedSearchBackend() {
+		System.out.println("Using the embedded search index.");
+		pipeline.open();
+
+		try {
+			index = InvertedIndex.open(getIndexDirectory());
+			if (index != null) {
+				System.out.println("Embedded index opened with " + index.size() + " documents.");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Builds the index unless a complete one is already on disk.  The documents
+	 * coming out of the IngestPipeline are stored and added to the index as they
+	 * are handed over, so no stages are added after the pipeline's own.
+	 */
+	public void index() {
+		if (hasUsableIndex()) {
+			System.out.println("Embedded index already holds " + index.size() + " documents, skipping indexing");
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		searchCache.invalidate();
+
+		List<IngestFile> files = pipeline.getIndexFiles();
+
+		// Every document will be stored again
+		pipeline.start(files.size(), false);
+
+		final InvertedIndex.Builder builder = new InvertedIndex.Builder();
+
+		try {
+			pipeline.run(files, null, new IngestStage.Handler<IngestDocument>() {
+				public void handle(IngestDocument doc) throws Exception {
+					// Store the document to be served in searches
+					pipeline.storeDocument(doc);
+
+					builder.add(doc.docno, doc.title, doc.content);
+					pipeline.numOfDocuments.incrementAndGet();
+					IngestPipeline.DOCUMENTS_METRIC.increment();
+				}
+			}, Collections.<IngestStage<?>>emptyList(), null);
+
+			pipeline.checkpoint();
+
+			// Replace the index being searched with the one just built
+			File directory = getIndexDirectory();
+			pipeline.bytesWritten.addAndGet(builder.write(directory));
+			index = InvertedIndex.open(directory);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		pipeline.finish();
+		searchCache.invalidate();
+
+		pipeline.printStageStats();
+		System.out.println("Number of Documents indexed: " + pipeline.numOfDocuments.get());
+		System.out.println("Indexing took " + (System.currentTimeMillis() - start) + " ms and wrote "
+				+ pipeline.bytesWritten.get() + " bytes to disk");
+	}
+
+	/**
+	 * The index on disk is only used when it is complete, otherwise it is built
+	 * again from scratch and the stored documents it's hits point at are cleared.
+	 *
+	 * @return True if the index on disk is complete
+	 */
+	public boolean hasUsableIndex() {
+		// Collapsed duplicates are in the page store but not the index
+		InvertedIndex opened = index;
+		return opened != null && opened.size() == getTexts().size() && getPages().size() >= opened.size()
+				&& getSuggester().size() > 0;
+	}
+
+	/**
+	 * Searches the index, returning the first page of results.
+	 */
+	public String search(String title, String content) {
+		return search(title, content, 0, ElasticSearchHandler.DEFAULT_SEARCH_SIZE);
+	}
+
+	/**
+	 * Searches the index, returning one page of results.
+	 */
+	public String search(String title, String content, int from, int size) {
+		try {
+			return searchAsync(title, content, from, size).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Searches the index.  The search runs on the calling thread, the future is
+	 * complete when it is returned.
+	 */
+	public CompletableFuture<String> searchAsync(final String title, final String content, final int from, final int size) {
+		long start = System.nanoTime();
+
+		CompletableFuture<String> search = searchCache.get(SearchCache.key(title, content, from, size),
+				new Supplier<CompletableFuture<String>>() {
+					public CompletableFuture<String> get() {
+						CompletableFuture<String> result = new CompletableFuture<String>();
+						long searchStart = System.nanoTime();
+
+						InvertedIndex searched = index;
+						if (searched == null) {
+							ElasticSearchHandler.ERROR_METRIC.increment();
+							result.completeExceptionally(new IOException("The embedded index hasn't been built"));
+							return result;
+						}
+
+						try {
+							result.complete(searched.search(title, content, from, size));
+						} catch (IOException | RuntimeException e) {
+							ElasticSearchHandler.ERROR_METRIC.increment();
+							result.completeExceptionally(e);
+						}
+
+						ElasticSearchHandler.BACKEND_TIME_METRIC.observeSince(searchStart);
+						return result;
+					}
+				});
+
+		return ElasticSearchHandler.timeSearch(search, ElasticSearchHandler.SEARCH_TIME_METRIC, start);
+	}
+
+	/**
+	 * Runs every query in a topics file against the index.
+	 */
+	public Map<String, String> queryTopics(String path) {
+		Map<String, String> results = new HashMap<String, String>();
+
+		System.out.println("Querying topics from: " + path);
+
+		try {
+			List<Topic> topics = Topic.readTopics(new File(path));
+			System.out.println("Total topics found: " + topics.size());
+
+			long start = System.currentTimeMillis();
+			for (Topic topic : topics) {
+				String response = search(topic.title, topic.description, 0, ResultsGenerator.RESULTS_PER_TOPIC);
+				if (response != null) {
+					results.put(topic.num, response);
+				}
+			}
+
+			System.out.println("Searched " + results.size() + " of " + topics.size() + " topics in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException errIO) {
+			errIO.printStackTrace();
+		}
+
+		return results;
+	}
+
+	public DocumentStore getPages() {
+		return pipeline.getPages();
+	}
+
+	public DocumentStore getTexts() {
+		return pipeline.getTexts();
+	}
+
+	public Suggester getSuggester() {
+		return pipeline.getSuggester();
+	}
+
+	public IngestProgress getProgress() {
+		return pipeline;
+	}
+
+	public SearchCache getSearchCache() {
+		return searchCache;
+	}
+
+	/**
+	 * Closes the document stores, the index is left mapped until the
+	 * application exits.
+	 */
+	public void close() {
+		pipeline.close();
+	}
+
+	private File getIndexDirectory() {
+		return new File(System.getProperty("user.dir") + INDEX_PATH_INTERNAL);
+	}
+}
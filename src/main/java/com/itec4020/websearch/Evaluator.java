@@ -0,0 +1,468 @@
+package com.itec4020.websearch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures the quality and speed of the searches for the topic queries, so
+ * that a change that hurts the ranking or slows searches down is caught.
+ *
+ * Each topic is searched for once to get it's ranking, DEPTH hits deep, which
+ * is scored against the relevance judgments in the qrels file:
+ * - MAP: the mean of the average precision of each topic
+ * - P@5 and P@10: the share of the first 5 and 10 hits that are relevant
+ * - nDCG: the discounted cumulative gain of the ranking, with a gain of
+ *   2^relevance - 1, over that of the best possible ranking
+ * Only topics with judgments are scored.  Each topic is then searched for RUNS
+ * more times with the search cache off, and the time taken by each search
+ * gives the latency percentiles.
+ *
+ * The measures are compared against those in the baseline file, and the
+ * evaluation fails when a quality measure drops by more than QUALITY_DROP or
+ * the p50 or p95 latency rises by more than LATENCY_INCREASE.  The baseline is
+ * written when there isn't one yet, or when asked to with
+ * -Dwebsearch.eval.update=true
+ *
+ * Runs against the backend chosen with -Dwebsearch.backend, indexing the
+ * collection first if there's no usable index.  Run with mvn -Pevaluate verify
+ */
+public class Evaluator {
+
+	// Files read and written, set with -Dwebsearch.eval.topics, -Dwebsearch.eval.qrels
+	// and -Dwebsearch.eval.baseline
+	final String TOPICS_PATH = System.getProperty("websearch.eval.topics", "results/topics.txt");
+	final String QRELS_PATH = System.getProperty("websearch.eval.qrels", "results/qrels.txt");
+	final String BASELINE_PATH = System.getProperty("websearch.eval.baseline", "results/baseline.properties");
+
+	// Hits scored for each topic, set with -Dwebsearch.eval.depth
+	final int DEPTH = Integer.getInteger("websearch.eval.depth", 100);
+
+	// Times each topic is searched for to measure the latency, set with -Dwebsearch.eval.runs
+	final int RUNS = Math.max(1, Integer.getInteger("websearch.eval.runs", 5));
+
+	// Replace the baseline with this evaluation, set with -Dwebsearch.eval.update
+	final boolean UPDATE_BASELINE = Boolean.getBoolean("websearch.eval.update");
+
+	// Largest drop allowed in a quality measure, set with -Dwebsearch.eval.quality.drop
+	final double QUALITY_DROP = Double.parseDouble(System.getProperty("websearch.eval.quality.drop", "0.01"));
+
+	// Largest rise allowed in the latency, as a share of the baseline plus a few
+	// milliseconds so that very fast searches aren't failed on noise.  Set with
+	// -Dwebsearch.eval.latency.increase and -Dwebsearch.eval.latency.slack.ms
+	final double LATENCY_INCREASE = Double.parseDouble(System.getProperty("websearch.eval.latency.increase", "0.25"));
+	final double LATENCY_SLACK_MS = Double.parseDouble(System.getProperty("websearch.eval.latency.slack.ms", "2"));
+
+	// Measures that fail when they drop, and those that fail when they rise.  The
+	// p99 is reported but not checked, there are too few searches for it to be steady
+	static final String[] QUALITY_MEASURES = { "map", "p5", "p10", "ndcg" };
+	static final String[] LATENCY_MEASURES = { "latency.p50.ms", "latency.p95.ms" };
+
+	// The backend searched
+	final SearchBackend backend;
+
+	public static void main(String[] args) {
+		// Every timed search has to reach the backend
+		if (System.getProperty("websearch.cache.entries") == null) {
+			System.setProperty("websearch.cache.entries", "0");
+		}
+
+		SearchBackend backend = new App().getSearchHandler();
+		boolean passed;
+		try {
+			if (!backend.hasUsableIndex()) {
+				backend.index();
+			}
+			passed = new Evaluator(backend).run();
+		} finally {
+			backend.close();
+		}
+
+		if (!passed) {
+			throw new IllegalStateException("The evaluation regressed past the thresholds of the baseline");
+		}
+	}
+
+	/**
+	 * @param backend The backend to search
+	 */
+	public Evaluator(SearchBackend backend) {
+		this.backend = backend;
+	}
+
+	/**
+	 * Evaluates the searches for the topics and compares them with the baseline.
+	 *
+	 * @return False if the evaluation regressed past the thresholds
+	 */
+	public boolean run() {
+		List<Topic> topics;
+		Map<String, Map<String, Integer>> qrels = null;
+		try {
+			topics = Topic.readTopics(new File(TOPICS_PATH));
+
+			File qrelsFile = new File(QRELS_PATH);
+			if (qrelsFile.exists()) {
+				qrels = readQrels(qrelsFile);
+			} else {
+				System.out.println("No qrels at " + QRELS_PATH + ", only the latency is measured");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		// The first search for each topic gives it's ranking, and isn't timed
+		Map<String, List<String>> rankings = new HashMap<String, List<String>>();
+		for (Topic topic : topics) {
+			rankings.put(topic.num, search(topic));
+		}
+
+		long[][] times = new long[topics.size()][RUNS];
+		long[] allTimes = new long[topics.size() * RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			for (int i = 0; i < topics.size(); i++) {
+				long start = System.nanoTime();
+				search(topics.get(i));
+				times[i][run] = System.nanoTime() - start;
+				allTimes[run * topics.size() + i] = times[i][run];
+			}
+		}
+
+		// Score each topic and print it's line of the report
+		System.out.println(String.format("%-6s %8s %8s %8s %8s %10s %10s", "Topic", "AP", "P@5", "P@10", "nDCG",
+				"p50 ms", "max ms"));
+		List<Scores> scores = new ArrayList<Scores>();
+		for (int i = 0; i < topics.size(); i++) {
+			Topic topic = topics.get(i);
+			Arrays.sort(times[i]);
+
+			// Topics without judgments only get their latency reported
+			String quality = String.format("%8s %8s %8s %8s", "-", "-", "-", "-");
+			if (qrels != null && qrels.containsKey(topic.num)) {
+				Scores topicScores = score(rankings.get(topic.num), qrels.get(topic.num), DEPTH);
+				scores.add(topicScores);
+				quality = String.format("%8.4f %8.4f %8.4f %8.4f", topicScores.ap, topicScores.p5, topicScores.p10,
+						topicScores.ndcg);
+			}
+
+			System.out.println(String.format("%-6s %s %10.2f %10.2f", topic.num, quality,
+					percentile(times[i], 50) / 1e6, times[i][times[i].length - 1] / 1e6));
+		}
+
+		Properties current = new Properties();
+		current.setProperty("topics", String.valueOf(topics.size()));
+		current.setProperty("depth", String.valueOf(DEPTH));
+		if (!scores.isEmpty()) {
+			current.setProperty("judged.topics", String.valueOf(scores.size()));
+			current.setProperty("map", String.valueOf(mean(scores, "map")));
+			current.setProperty("p5", String.valueOf(mean(scores, "p5")));
+			current.setProperty("p10", String.valueOf(mean(scores, "p10")));
+			current.setProperty("ndcg", String.valueOf(mean(scores, "ndcg")));
+		}
+		Arrays.sort(allTimes);
+		current.setProperty("latency.p50.ms", String.valueOf(percentile(allTimes, 50) / 1e6));
+		current.setProperty("latency.p95.ms", String.valueOf(percentile(allTimes, 95) / 1e6));
+		current.setProperty("latency.p99.ms", String.valueOf(percentile(allTimes, 99) / 1e6));
+
+		return compareWithBaseline(current);
+	}
+
+	/**
+	 * Compares the evaluation with the baseline, writing it as the baseline when
+	 * there isn't one or when UPDATE_BASELINE is set.
+	 */
+	private boolean compareWithBaseline(Properties current) {
+		File file = new File(BASELINE_PATH);
+		Properties baseline = new Properties();
+		try {
+			if (file.exists() && !UPDATE_BASELINE) {
+				InputStream in = new FileInputStream(file);
+				try {
+					baseline.load(in);
+				} finally {
+					in.close();
+				}
+			} else {
+				file.getAbsoluteFile().getParentFile().mkdirs();
+				OutputStream out = new FileOutputStream(file);
+				try {
+					current.store(out, "Evaluation baseline for the topic searches");
+				} finally {
+					out.close();
+				}
+				System.out.println("Wrote the baseline to " + BASELINE_PATH);
+				baseline = current;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		// Rankings cut off at a different depth don't score the same
+		String baselineDepth = baseline.getProperty("depth");
+		if (baselineDepth != null && !baselineDepth.equals(current.getProperty("depth"))) {
+			System.out.println("The baseline was measured " + baselineDepth + " hits deep and this evaluation "
+					+ current.getProperty("depth") + ", the quality measures may not be comparable");
+		}
+
+		System.out.println();
+		System.out.println(String.format("%-16s %10s %10s %10s", "Measure", "Baseline", "Current", "Change"));
+		for (String measure : new String[] { "map", "p5", "p10", "ndcg", "latency.p50.ms", "latency.p95.ms",
+				"latency.p99.ms" }) {
+			double now = getMeasure(current, measure);
+			double before = getMeasure(baseline, measure);
+			System.out.println(String.format("%-16s %10.4f %10.4f %+10.4f", measure, before, now, now - before));
+		}
+
+		List<String> failures = compare(baseline, current, QUALITY_DROP, LATENCY_INCREASE, LATENCY_SLACK_MS);
+		System.out.println();
+		for (String failure : failures) {
+			System.out.println("FAILED: " + failure);
+		}
+		if (failures.isEmpty()) {
+			System.out.println("Evaluation is within the thresholds of the baseline");
+		}
+
+		return failures.isEmpty();
+	}
+
+	/**
+	 * Compares an evaluation with the baseline.  Measures missing from either one
+	 * aren't compared.
+	 *
+	 * @param baseline The measures of the baseline
+	 * @param current The measures of the evaluation
+	 * @param qualityDrop The largest drop allowed in a quality measure
+	 * @param latencyIncrease The largest rise allowed in the latency, as a share of the baseline
+	 * @param latencySlackMs Milliseconds the latency may rise by on top of that
+	 * @return A description of each measure that regressed past it's threshold
+	 */
+	static List<String> compare(Properties baseline, Properties current, double qualityDrop, double latencyIncrease,
+			double latencySlackMs) {
+		List<String> failures = new ArrayList<String>();
+
+		for (String measure : QUALITY_MEASURES) {
+			double before = getMeasure(baseline, measure);
+			double now = getMeasure(current, measure);
+			if (!Double.isNaN(before) && !Double.isNaN(now) && before - now > qualityDrop) {
+				failures.add(String.format("%s dropped from %.4f to %.4f, more than %.4f", measure, before, now,
+						qualityDrop));
+			}
+		}
+
+		for (String measure : LATENCY_MEASURES) {
+			double before = getMeasure(baseline, measure);
+			double now = getMeasure(current, measure);
+			double limit = before * (1 + latencyIncrease) + latencySlackMs;
+			if (!Double.isNaN(before) && !Double.isNaN(now) && now > limit) {
+				failures.add(String.format("%s rose from %.2f to %.2f ms, past %.2f ms", measure, before, now, limit));
+			}
+		}
+
+		return failures;
+	}
+
+	private static double getMeasure(Properties measures, String name) {
+		String value = measures.getProperty(name);
+		return value == null ? Double.NaN : Double.parseDouble(value);
+	}
+
+	/**
+	 * Searches for a topic the same way the topic queries are written to the
+	 * results, title against title and description against content.
+	 *
+	 * @return The docno of each hit in order, empty if the search failed
+	 */
+	private List<String> search(Topic topic) {
+		List<String> ranking = new ArrayList<String>();
+		try {
+			String response = backend.searchAsync(topic.title, topic.description, 0, DEPTH).get();
+			for (SearchResults.Hit hit : SearchResults.parse(response, DEPTH).getHits()) {
+				ranking.add(hit.getDocno());
+			}
+		} catch (ExecutionException | IOException | RuntimeException e) {
+			System.out.println("Search failed for topic " + topic.num + ": " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return ranking;
+	}
+
+	/**
+	 * Reads a TREC qrels file, each line is
+	 * topic iteration docno relevance
+	 * e.g. 401 0 WT01-B01-7 1, documents with a relevance above 0 are relevant.
+	 *
+	 * @param file The qrels file
+	 * @return The relevance of each judged document, keyed by topic number then docno
+	 * @throws IOException
+	 */
+	public static Map<String, Map<String, Integer>> readQrels(File file) throws IOException {
+		Map<String, Map<String, Integer>> qrels = new HashMap<String, Map<String, Integer>>();
+
+		Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+		BufferedReader lines = new BufferedReader(reader);
+		try {
+			String line;
+			while ((line = lines.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 4) {
+					continue;
+				}
+
+				Map<String, Integer> judgments = qrels.get(fields[0]);
+				if (judgments == null) {
+					judgments = new HashMap<String, Integer>();
+					qrels.put(fields[0], judgments);
+				}
+				judgments.put(fields[2], Integer.parseInt(fields[3]));
+			}
+		} finally {
+			lines.close();
+		}
+
+		return qrels;
+	}
+
+	/**
+	 * Scores the ranking for a topic against it's judgments.
+	 *
+	 * @param ranking The docno of each hit in order
+	 * @param judgments The relevance of each judged document for the topic
+	 * @param depth The number of hits asked for, the best possible ranking for
+	 * nDCG is cut off here
+	 * @return The scores of the ranking
+	 */
+	public static Scores score(List<String> ranking, Map<String, Integer> judgments, int depth) {
+		int relevant = 0;
+		List<Integer> gains = new ArrayList<Integer>();
+		for (int relevance : judgments.values()) {
+			if (relevance > 0) {
+				relevant++;
+				gains.add(relevance);
+			}
+		}
+
+		Scores scores = new Scores();
+		int found = 0;
+		double precisionSum = 0;
+		double dcg = 0;
+		for (int i = 0; i < Math.min(depth, ranking.size()); i++) {
+			Integer relevance = judgments.get(ranking.get(i));
+			if (relevance != null && relevance > 0) {
+				found++;
+				precisionSum += (double) found / (i + 1);
+				dcg += gain(relevance, i);
+			}
+
+			if (i == 4) {
+				scores.p5 = found / 5.0;
+			}
+			if (i == 9) {
+				scores.p10 = found / 10.0;
+			}
+		}
+
+		// Rankings shorter than 5 or 10 hits count the missing hits as not relevant
+		if (ranking.size() < 5) {
+			scores.p5 = found / 5.0;
+		}
+		if (ranking.size() < 10) {
+			scores.p10 = found / 10.0;
+		}
+
+		scores.ap = relevant == 0 ? 0 : precisionSum / relevant;
+
+		Collections.sort(gains, Collections.reverseOrder());
+		double idealDcg = 0;
+		for (int i = 0; i < Math.min(depth, gains.size()); i++) {
+			idealDcg += gain(gains.get(i), i);
+		}
+		scores.ndcg = idealDcg == 0 ? 0 : dcg / idealDcg;
+
+		return scores;
+	}
+
+	/**
+	 * @return The discounted gain of a document with the relevance at the rank, counting from 0
+	 */
+	private static double gain(int relevance, int rank) {
+		return (Math.pow(2, relevance) - 1) / (Math.log(rank + 2) / Math.log(2));
+	}
+
+	/**
+	 * @param sorted The values in ascending order
+	 * @param percent The percentile wanted, from 0 to 100
+	 * @return The nearest-rank percentile of the values, 0 if there are none
+	 */
+	static long percentile(long[] sorted, double percent) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percent / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	private static double mean(List<Scores> scores, String measure) {
+		double sum = 0;
+		for (Scores topic : scores) {
+			sum += topic.get(measure);
+		}
+		return sum / scores.size();
+	}
+
+	/**
+	 * The scores of the ranking for one topic.
+	 */
+	public static class Scores {
+		double ap;
+		double p5;
+		double p10;
+		double ndcg;
+
+		double get(String measure) {
+			switch (measure) {
+			case "map":
+				return ap;
+			case "p5":
+				return p5;
+			case "p10":
+				return p10;
+			default:
+				return ndcg;
+			}
+		}
+
+		public double getAveragePrecision() {
+			return ap;
+		}
+
+		public double getPrecisionAt5() {
+			return p5;
+		}
+
+		public double getPrecisionAt10() {
+			return p10;
+		}
+
+		public double getNdcg() {
+			return ndcg;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.itec4020.websearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+
+/**
+ * Tracks whether the application is ready to serve searches, reported at
+ * /health.  The web server starts before the collection is indexed, so the
+ * application goes through these states:
+ * - starting: the web server is up but there is no index to search yet
+ * - warming: the topic queries are being replayed to warm up the caches
+ * - ready: searches are being served
+ * The ingest runs alongside, and it's progress is reported with the state.
+ */
+public class Health {
+
+	static final String STARTING = "starting";
+	static final String WARMING = "warming";
+	static final String READY = "ready";
+
+	// The progress of the ingest
+	final IngestProgress progress;
+
+	final long startTime = System.currentTimeMillis();
+
+	private volatile String state = STARTING;
+
+	// When the ingest started and finished, 0 until it has
+	private volatile long ingestStart = 0;
+	private volatile long ingestEnd = 0;
+
+	// Topics replayed in the warm-up, and how long it took
+	private volatile int warmupSearches = 0;
+	private volatile long warmupMs = 0;
+
+	/**
+	 * @param progress The ingest progress to report
+	 */
+	public Health(IngestProgress progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * @return True once searches are being served
+	 */
+	public boolean isReady() {
+		return state == READY;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public void setWarming() {
+		state = WARMING;
+	}
+
+	/**
+	 * Marks the application ready after the warm-up.
+	 *
+	 * @param searches The number of warm-up searches that succeeded
+	 * @param ms How long the warm-up took
+	 */
+	public void setReady(int searches, long ms) {
+		warmupSearches = searches;
+		warmupMs = ms;
+		state = READY;
+	}
+
+	public void ingestStarted() {
+		ingestStart = System.currentTimeMillis();
+	}
+
+	public void ingestFinished() {
+		ingestEnd = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return True while the ingest is running
+	 */
+	public boolean isIngesting() {
+		return ingestStart > 0 && ingestEnd == 0;
+	}
+
+	/**
+	 * Writes the state as JSON,
+	 * { "status": "ready", "ready": true, "uptime_ms",
+	 *   "ingest": { "running", "files", "files_done", "documents", "elapsed_ms" },
+	 *   "warmup": { "searches", "ms" } }
+	 *
+	 * @return The JSON body
+	 * @throws IOException
+	 */
+	public byte[] toJSON() throws IOException {
+		long now = System.currentTimeMillis();
+		long ingestElapsed = ingestStart == 0 ? 0 : (ingestEnd == 0 ? now : ingestEnd) - ingestStart;
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+		XContentBuilder builder = XContentFactory.jsonBuilder(body);
+		builder.startObject()
+				.field("status", state)
+				.field("ready", isReady())
+				.field("uptime_ms", now - startTime)
+				.startObject("ingest")
+				.field("running", isIngesting())
+				.field("files", progress.getFiles())
+				.field("files_done", progress.getFilesDone())
+				.field("documents", progress.getDocuments())
+				.field("elapsed_ms", ingestElapsed)
+				.endObject() // end ingest
+				.startObject("warmup")
+				.field("searches", warmupSearches)
+				.field("ms", warmupMs)
+				.endObject() // end warmup
+				.endObject(); // close open bracket
+		builder.close();
+
+		return body.toByteArray();
+	}
+}
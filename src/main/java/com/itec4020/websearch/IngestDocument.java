@@ -0,0 +1,58 @@
+package com.itec4020.websearch;
+
+/**
+ * A single document as it moves through the stages of the ingest pipeline.
+ * Each stage fills in the fields it is responsible for and clears the ones
+ * that are no longer needed, so that a document waiting in a queue only holds
+ * on to what the next stage uses.
+ */
+public class IngestDocument {
+
+	// The ID the document is indexed under (e.g. WT01-B01-7)
+	final String id;
+
+	// The progress of the file the document came from and it's position in it,
+	// the entry is null when the document isn't tracked by the manifest
+	final IngestManifest.Entry entry;
+	final int position;
+
+	// The place of the file the document came from in the ingest
+	int fileIndex;
+
+	// The record split out of the file, cleared once it has been extracted
+	TrecDocument trec;
+
+	// Fields extracted from the HTML
+	String title = "";
+	String docno = "";
+	String olddocno = "";
+	String keywords = "";
+	String content = "";
+
+	// The HTML to be stored for serving as it was in the file, cleared once it
+	// has been stored
+	byte[] html;
+
+	// The JSON sent to ElasticSearch
+	String json;
+
+	public IngestDocument(String id, TrecDocument trec) {
+		this(id, trec, null, 0);
+	}
+
+	public IngestDocument(String id, TrecDocument trec, IngestManifest.Entry entry, int position) {
+		this.id = id;
+		this.trec = trec;
+		this.entry = entry;
+		this.position = position;
+	}
+
+	/**
+	 * Records in the manifest that this document has been indexed.
+	 */
+	public void acknowledge() {
+		if (entry != null) {
+			entry.acknowledge(position);
+		}
+	}
+}
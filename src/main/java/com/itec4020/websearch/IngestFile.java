@@ -0,0 +1,58 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+
+/**
+ * A single file from the collection as it moves from the read stage of the
+ * ingest pipeline into the split stage.
+ */
+public class IngestFile {
+
+	// The folder the file belongs to (e.g. WT01)
+	final String folder;
+
+	// The .GZ or .txt file on disk
+	final File file;
+
+	// The raw contents of the file, filled in by the read stage
+	byte[] data;
+
+	// The progress recorded for this file, filled in by the read stage
+	IngestManifest.Entry entry;
+
+	// The place of the file in the ingest, duplicates are looked for in this order
+	int index;
+
+	// The positions of the first and last documents split out of the file,
+	// filled in by the split stage
+	int first = 1;
+	int last = 0;
+
+	public IngestFile(String folder, File file) {
+		this.folder = folder;
+		this.file = file;
+	}
+
+	/**
+	 * @return The file name without any extension (e.g. B01)
+	 */
+	public String getBaseName() {
+		String fileName = file.getName();
+		int dot = fileName.indexOf('.');
+		return dot < 0 ? fileName : fileName.substring(0, dot);
+	}
+
+	/**
+	 * @return The name the file is recorded under in the manifest (e.g. WT01/B01.GZ)
+	 */
+	public String getManifestName() {
+		return folder + "/" + file.getName();
+	}
+
+	/**
+	 * @return The prefix for the IDs of all documents in this file (e.g. WT01-B01-)
+	 */
+	public String getIdPrefix() {
+		return folder + "-" + getBaseName() + "-";
+	}
+}
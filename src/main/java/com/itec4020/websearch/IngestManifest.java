@@ -0,0 +1,253 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Keeps track of how much of each collection file has been indexed so that a
+ * restart only has to index what is missing.  For every file the manifest
+ * records it's size, last modified time, checksum, number of documents and
+ * how many of those documents (counted from the start of the file) have been
+ * acknowledged by ElasticSearch.  The manifest is stored as JSON and saved
+ * while indexing runs.
+ */
+public class IngestManifest {
+
+	// Where the manifest is stored
+	final File file;
+
+	// Entry for each file, keyed by {folder}/{file name}
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	public IngestManifest(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the manifest from disk, starting with an empty manifest if it doesn't
+	 * exist or can't be read.
+	 */
+	public synchronized void load() {
+		entries.clear();
+
+		if (!file.exists()) {
+			return;
+		}
+
+		try {
+			Reader reader = new FileReader(file);
+			try {
+				JSONObject json = (JSONObject) new JSONParser().parse(reader);
+				JSONObject files = (JSONObject) json.get("files");
+
+				for (Object key : files.keySet()) {
+					JSONObject value = (JSONObject) files.get(key);
+					Entry entry = new Entry(key.toString());
+					entry.size = ((Number) value.get("size")).longValue();
+					entry.checksum = value.get("checksum").toString();
+					if (value.get("modified") instanceof Number) {
+						entry.modified = ((Number) value.get("modified")).longValue();
+					}
+					entry.documents = ((Number) value.get("documents")).intValue();
+					entry.acknowledged = ((Number) value.get("acknowledged")).intValue();
+					entries.put(entry.name, entry);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | ParseException | RuntimeException e) {
+			System.out.println("Unable to read ingest manifest, starting over: " + e);
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Writes the manifest to disk.  The manifest is written to a temporary file
+	 * first so that a crash never leaves a partial manifest behind.
+	 */
+	@SuppressWarnings("unchecked")
+	public void save() {
+		JSONObject files = new JSONObject();
+
+		synchronized (this) {
+			// Sort the files so the manifest is easy to read
+			for (Entry entry : new TreeMap<String, Entry>(entries).values()) {
+				files.put(entry.name, entry.toJSON());
+			}
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("files", files);
+
+		try {
+			File temp = new File(file.getPath() + ".tmp");
+			Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8);
+			try {
+				json.writeJSONString(writer);
+			} finally {
+				writer.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Forgets every file, used when the index has been removed.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Checks whether a file was fully indexed without reading it.  The file
+	 * counts as unchanged when it's size and last modified time are the ones
+	 * recorded, a file touched since is read and checksummed by getEntry.
+	 *
+	 * @param name The name of the file, {folder}/{file name}
+	 * @param size The size of the file on disk
+	 * @param modified The last modified time of the file on disk
+	 * @return True if the file was fully indexed and hasn't changed since
+	 */
+	public synchronized boolean isIndexed(String name, long size, long modified) {
+		Entry entry = entries.get(name);
+		return entry != null && entry.isComplete() && entry.size == size && modified != 0
+				&& entry.modified == modified;
+	}
+
+	/**
+	 * Finds the entry for a file, starting the file over if it's size or
+	 * contents have changed since it was recorded.
+	 *
+	 * @param name The name of the file, {folder}/{file name}
+	 * @param data The contents of the file
+	 * @param modified The last modified time of the file, recorded for isIndexed
+	 * @return The entry for the file
+	 */
+	public synchronized Entry getEntry(String name, byte[] data, long modified) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		String checksum = Long.toHexString(crc.getValue());
+
+		Entry entry = entries.get(name);
+		if (entry == null || entry.size != data.length || !entry.checksum.equals(checksum)) {
+			entry = new Entry(name);
+			entry.size = data.length;
+			entry.checksum = checksum;
+			entries.put(name, entry);
+		}
+		entry.modified = modified;
+
+		return entry;
+	}
+
+	/**
+	 * @return The number of files that have every document acknowledged
+	 */
+	public synchronized int getCompleteCount() {
+		int count = 0;
+
+		for (Entry entry : entries.values()) {
+			if (entry.isComplete()) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * The progress of a single file.
+	 */
+	public static class Entry {
+		final String name;
+		long size;
+		String checksum = "";
+
+		// The last modified time of the file when it was read, 0 if not recorded
+		long modified;
+
+		// Number of documents in the file, -1 until the file has been split
+		int documents = -1;
+
+		// Documents 1 to acknowledged have all been indexed
+		int acknowledged = 0;
+
+		// Documents after the acknowledged count that have been indexed out of order
+		private final BitSet ahead = new BitSet();
+
+		Entry(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Records that every document in the file has been split out.
+		 *
+		 * @param count The number of documents in the file
+		 */
+		public synchronized void setDocuments(int count) {
+			documents = count;
+		}
+
+		/**
+		 * Records that a document has been indexed.
+		 *
+		 * @param position The position of the document in the file, starting at 1
+		 */
+		public synchronized void acknowledge(int position) {
+			if (position <= acknowledged) {
+				return;
+			}
+
+			ahead.set(position);
+
+			// Move the acknowledged count past any documents that are now in order
+			while (ahead.get(acknowledged + 1)) {
+				ahead.clear(acknowledged + 1);
+				acknowledged++;
+			}
+		}
+
+		/**
+		 * @return The number of documents from the start of the file that don't
+		 * need to be indexed again
+		 */
+		public synchronized int getAcknowledged() {
+			return acknowledged;
+		}
+
+		/**
+		 * @return True once the file has been split and every document indexed
+		 */
+		public synchronized boolean isComplete() {
+			return documents >= 0 && acknowledged >= documents;
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.put("size", size);
+			json.put("modified", modified);
+			json.put("checksum", checksum);
+			json.put("documents", documents);
+			json.put("acknowledged", acknowledged);
+			return json;
+		}
+	}
+}
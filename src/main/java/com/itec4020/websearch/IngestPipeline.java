@@ -0,0 +1,997 @@
+package com.itec4020.websearch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Reads the collection for a search backend.  Every backend reads the
+ * collection the same way and keeps the same document store and suggestions,
+ * only what is done with each extracted document differs.  Each file goes
+ * through the following stages, each with it's own workers and a bounded queue
+ * in front of it:
+ * - read: loads the file from disk
+ * - split: decompresses the file and splits it into <DOC> records
+ * - extract: parses the HTML of each record with Jsoup
+ * - dedup: only when DEDUP is on, drops the near-duplicates of documents
+ *   already seen.  It runs on a single worker which takes the documents in
+ *   ingest order, the order of the files then their position in the file, so
+ *   the document kept out of a set of near-duplicates is always the first one
+ *   in the collection no matter which worker extracted it first.
+ * The documents that are left are handed to the backend, which can add stages
+ * of it's own after these.  The stages report their queue depth and throughput
+ * while running so that the slowest stage can be found.
+ */
+public class IngestPipeline implements IngestProgress {
+
+	/**
+	 * Decides whether a file that has been read still has to be indexed.
+	 */
+	public interface Filter {
+		boolean accept(IngestFile file);
+	}
+
+	// Path used to read in compressed files
+	final String COMPRESSED_DATA_PATH = "//data//";
+
+	// Path used to output decompressed files
+	final String DECOMPRESS_PATH = "//extracted//";
+
+	// Paths for the HTML to be stored for easy access
+	// Stored in {PROJECT_DIR}/{HTML_PATH_INTERNAL} and served from ElasticSearchHandler.HTML_PATH_PUBLIC
+	final String HTML_PATH_INTERNAL = "//store//pages//";
+
+	// Holds the text extracted from every document, snippets are built from it
+	final String TEXT_PATH_INTERNAL = "//store//text//";
+
+	// Where the search box suggestions are saved, next to the document store
+	final String SUGGEST_PATH = "//store//suggest.dat";
+
+	// Where the duplicates are recorded in collapse mode
+	final String DUPLICATES_PATH = "//store//duplicates.tsv";
+
+	// Size of the buffers used when reading and writing the corpus
+	final int IO_BUFFER_SIZE = 64 * 1024;
+
+	// When true the .GZ files are decompressed into the extracted folder and indexed
+	// from there, otherwise they are streamed straight into the indexer.
+	// Enabled with -Dwebsearch.extract=true
+	final boolean EXTRACT_TO_DISK = Boolean.getBoolean("websearch.extract");
+
+	// Folders inside of the data directory that make up the corpus
+	final String[] FOLDERS = { "WT01", "WT02", "WT03" };
+
+	// Number of files decompressed at the same time, also used as the number of
+	// workers for the extract stage of the ingest pipeline.
+	// Set with -Dwebsearch.ingest.threads
+	final int INGEST_THREADS = Integer.getInteger("websearch.ingest.threads",
+			Runtime.getRuntime().availableProcessors());
+
+	// Number of workers for the other stages of the ingest pipeline
+	// Set with -Dwebsearch.ingest.{stage}.threads
+	final int READ_THREADS = Integer.getInteger("websearch.ingest.read.threads", 2);
+	final int SPLIT_THREADS = Integer.getInteger("websearch.ingest.split.threads", Math.max(1, INGEST_THREADS / 2));
+
+	// What is done with documents that are near-duplicates of one already
+	// ingested, off, skip or collapse.  Set with -Dwebsearch.dedup
+	final String DEDUP = System.getProperty("websearch.dedup", Deduplicator.MODE_OFF);
+
+	// Number of documents allowed to wait between two stages of the ingest pipeline
+	// Set with -Dwebsearch.ingest.queue
+	final int INGEST_QUEUE = Integer.getInteger("websearch.ingest.queue", 256);
+
+	// How often the pipeline reports on each of it's stages
+	final long INGEST_REPORT_MS = 10000;
+
+	// Holds the HTML for every document to be served in searches
+	DocumentStore pages;
+
+	// Holds the start of the text of every document, for snippets
+	DocumentStore texts;
+
+	// Suggestions for the search box, replaced as ingest progresses
+	volatile Suggester suggester = Suggester.empty();
+
+	// Collects the suggestions while an ingest is running, null otherwise
+	volatile Suggester.Builder suggestions;
+
+	// Finds near-duplicates while an ingest is running, null otherwise or when
+	// DEDUP is off
+	volatile Deduplicator deduplicator;
+
+	// The stages of the last run, for reporting
+	private volatile List<IngestStage<?>> stages = Collections.emptyList();
+
+	// Stats related variables for analysis
+	// Total number of documents indexed thus far
+	final AtomicInteger numOfDocuments = new AtomicInteger();
+	// Total number of bytes written to disk while decompressing and indexing
+	final AtomicLong bytesWritten = new AtomicLong();
+	// Files in the running ingest, and those read through or skipped so far
+	final AtomicInteger ingestFiles = new AtomicInteger();
+	final AtomicInteger ingestFilesDone = new AtomicInteger();
+
+	// Metrics served at /metrics
+	static final Metrics.Counter DOCUMENTS_METRIC = Metrics.counter("websearch_ingest_documents_total",
+			"Documents extracted and handed to the index");
+	static final Metrics.Histogram FILE_TIME_METRIC = Metrics.histogram("websearch_ingest_file_seconds",
+			"Time taken to decompress and split each file into documents");
+	static final Metrics.Histogram EXTRACT_TIME_METRIC = Metrics.histogram("websearch_ingest_extract_seconds",
+			"Time taken to parse the HTML of each document");
+
+	/**
+	 * Opens the document stores and loads the suggestions saved by an earlier
+	 * run.
+	 */
+	public void open() {
+		pages = new DocumentStore(new File(System.getProperty("user.dir") + HTML_PATH_INTERNAL));
+		texts = new DocumentStore(new File(System.getProperty("user.dir") + TEXT_PATH_INTERNAL));
+		try {
+			pages.open();
+			texts.open();
+			suggester = Suggester.load(getSuggestFile());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes the document stores.
+	 */
+	public void close() {
+		try {
+			pages.close();
+			texts.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The store holding the HTML of every indexed document
+	 */
+	public DocumentStore getPages() {
+		return pages;
+	}
+
+	/**
+	 * @return The store holding the text of every indexed document, for snippets
+	 */
+	public DocumentStore getTexts() {
+		return texts;
+	}
+
+	/**
+	 * @return The completions suggested for what is typed into the search box
+	 */
+	public Suggester getSuggester() {
+		return suggester;
+	}
+
+	public int getFiles() {
+		return ingestFiles.get();
+	}
+
+	public int getFilesDone() {
+		return ingestFilesDone.get();
+	}
+
+	public int getDocuments() {
+		return numOfDocuments.get();
+	}
+
+	/**
+	 * Gets ready for an ingest.  When the ingest adds to what an earlier run
+	 * indexed, the suggestions of that run are kept, otherwise the document
+	 * stores are cleared as every document will be stored again.
+	 *
+	 * @param files The number of files in the ingest
+	 * @param resume Whether documents indexed by an earlier run are kept
+	 */
+	public void start(int files, boolean resume) {
+		ingestFiles.set(files);
+		ingestFilesDone.set(0);
+		suggestions = new Suggester.Builder();
+		deduplicator = createDeduplicator(resume);
+
+		if (resume) {
+			// Documents indexed by an earlier run won't be read again
+			suggestions.addAll(suggester);
+		} else {
+			try {
+				pages.clear();
+				texts.clear();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Reports an ingest that found every file already indexed, without reading
+	 * any of them.
+	 *
+	 * @param files The number of files in the ingest
+	 */
+	public void skip(int files) {
+		ingestFiles.set(files);
+		ingestFilesDone.set(files);
+	}
+
+	/**
+	 * Runs the files through the stages of the pipeline and waits for them to
+	 * finish.  Documents that are to be indexed are given to the handler, from
+	 * the extract stage or from the dedup stage when DEDUP is on.  The handler
+	 * usually puts them into the first of the stages that follow.
+	 *
+	 * @param files The files to be indexed
+	 * @param filter Skips files that have been read but don't need to be indexed,
+	 * null to index every file
+	 * @param index Given each document that is to be indexed
+	 * @param after Stages of the backend following the handler, started and
+	 * finished along with the others
+	 * @param checkpoint Run every INGEST_REPORT_MS to save the progress, may be null
+	 * @throws InterruptedException
+	 */
+	public void run(List<IngestFile> files, final Filter filter, final IngestStage.Handler<IngestDocument> index,
+			List<IngestStage<?>> after, final Runnable checkpoint) throws InterruptedException {
+		// Build the stages from last to first so each one can hand off to the next
+		final InOrder order = new InOrder(files.size());
+		final IngestStage<IngestDocument> dedup = new IngestStage<IngestDocument>("dedup", 1, INGEST_QUEUE,
+				new IngestStage.Handler<IngestDocument>() {
+					public void handle(IngestDocument doc) throws Exception {
+						List<IngestDocument> ready = doc == InOrder.END ? order.drain() : order.add(doc);
+						for (IngestDocument next : ready) {
+							if (deduplicate(next)) {
+								index.handle(next);
+							}
+						}
+					}
+				});
+
+		final IngestStage<IngestDocument> extract = new IngestStage<IngestDocument>("extract", INGEST_THREADS,
+				INGEST_QUEUE, new IngestStage.Handler<IngestDocument>() {
+					public void handle(IngestDocument doc) throws Exception {
+						try {
+							extractDocument(doc);
+						} catch (IOException | RuntimeException e) {
+							// Don't hold up the documents that come after it
+							if (deduplicator != null) {
+								order.skip(doc);
+							}
+							throw e;
+						}
+
+						if (deduplicator != null) {
+							dedup.put(doc);
+						} else {
+							index.handle(doc);
+						}
+					}
+				});
+
+		final IngestStage<IngestFile> split = new IngestStage<IngestFile>("split", SPLIT_THREADS, READ_THREADS * 2,
+				new IngestStage.Handler<IngestFile>() {
+					public void handle(IngestFile file) throws Exception {
+						try {
+							splitFile(file, extract, order);
+						} finally {
+							order.split(file.index, file.first, file.last);
+							ingestFilesDone.incrementAndGet();
+						}
+					}
+				});
+
+		final IngestStage<IngestFile> read = new IngestStage<IngestFile>("read", READ_THREADS, files.size(),
+				new IngestStage.Handler<IngestFile>() {
+					public void handle(IngestFile file) throws Exception {
+						boolean skipped = true;
+						try {
+							file.data = Files.readAllBytes(file.file.toPath());
+
+							if (filter != null && !filter.accept(file)) {
+								ingestFilesDone.incrementAndGet();
+								file.data = null;
+								return;
+							}
+
+							split.put(file);
+							skipped = false;
+						} finally {
+							// None of the documents of a file that is skipped or can't be read are waited on
+							if (skipped) {
+								order.split(file.index, 1, 0);
+							}
+						}
+					}
+				});
+
+		// The dedup stage is only run when DEDUP is on
+		final List<IngestStage<?>> running = new ArrayList<IngestStage<?>>();
+		running.addAll(Arrays.<IngestStage<?>>asList(read, split, extract));
+		if (deduplicator != null) {
+			running.add(dedup);
+		}
+		running.addAll(after);
+		stages = running;
+
+		for (int i = 0; i < files.size(); i++) {
+			files.get(i).index = i;
+		}
+
+		// Periodically report on each stage while the pipeline runs
+		Thread reporter = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(INGEST_REPORT_MS);
+						printStageStats();
+						if (checkpoint != null) {
+							checkpoint.run();
+						}
+					}
+				} catch (InterruptedException e) {
+					// Ingest is complete
+				}
+			}
+		}, "ingest-reporter");
+		reporter.setDaemon(true);
+
+		try {
+			for (IngestStage<?> stage : running) {
+				stage.start();
+			}
+			reporter.start();
+
+			for (IngestFile file : files) {
+				read.put(file);
+			}
+
+			// Each stage finishes once the stage before it has no more work to give it
+			for (IngestStage<?> stage : running) {
+				stage.finish();
+
+				// The last documents can still be waiting on a file that was finished
+				// splitting after they arrived, they are let through in order
+				if (stage == extract && deduplicator != null) {
+					dedup.put(InOrder.END);
+				}
+			}
+		} finally {
+			reporter.interrupt();
+		}
+	}
+
+	/**
+	 * Makes sure the stored documents, the duplicates and the suggestions
+	 * collected so far are on disk.
+	 */
+	public void checkpoint() {
+		try {
+			pages.flush();
+			texts.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		Deduplicator dedup = deduplicator;
+		if (dedup != null) {
+			dedup.flush();
+		}
+
+		saveSuggestions();
+	}
+
+	/**
+	 * Stops collecting suggestions and reports on the near-duplicates found once
+	 * the ingest is done.
+	 */
+	public void finish() {
+		suggestions = null;
+		closeDeduplicator();
+	}
+
+	/**
+	 * Builds the suggestions collected so far, saves them and starts serving them.
+	 */
+	void saveSuggestions() {
+		Suggester.Builder builder = suggestions;
+		if (builder == null) {
+			return;
+		}
+
+		Suggester built = builder.build();
+		suggester = built;
+		try {
+			built.write(getSuggestFile());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	File getSuggestFile() {
+		return new File(System.getProperty("user.dir") + SUGGEST_PATH);
+	}
+
+	/**
+	 * Creates the Deduplicator for an ingest, or null when DEDUP is off.  Only
+	 * the documents ingested in this run are looked at, duplicates of documents
+	 * indexed by an earlier run aren't found.
+	 *
+	 * @param append Keep the duplicates recorded by an earlier run
+	 * @return The Deduplicator, or null
+	 */
+	Deduplicator createDeduplicator(boolean append) {
+		if (DEDUP.equalsIgnoreCase(Deduplicator.MODE_SKIP)) {
+			return new Deduplicator();
+		}
+
+		if (DEDUP.equalsIgnoreCase(Deduplicator.MODE_COLLAPSE)) {
+			try {
+				return new Deduplicator(new File(System.getProperty("user.dir") + DUPLICATES_PATH), append);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return new Deduplicator();
+			}
+		}
+
+		if (!DEDUP.equalsIgnoreCase(Deduplicator.MODE_OFF)) {
+			System.out.println("Unknown dedup mode " + DEDUP + ", near-duplicates will be indexed");
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether a document is a near-duplicate of one already ingested.
+	 * Duplicates aren't indexed, so they are acknowledged straight away, and in
+	 * collapse mode their HTML is still stored to be served.
+	 *
+	 * @param doc The extracted document
+	 * @return True if the document is to be indexed
+	 */
+	boolean deduplicate(IngestDocument doc) {
+		if (deduplicator.check(doc.docno, doc.content) == null) {
+			return true;
+		}
+
+		if (DEDUP.equalsIgnoreCase(Deduplicator.MODE_COLLAPSE)) {
+			storeDocument(doc.docno, doc.html);
+			doc.html = null;
+		}
+		doc.acknowledge();
+
+		return false;
+	}
+
+	/**
+	 * Reports on the near-duplicates found and closes the Deduplicator.
+	 */
+	void closeDeduplicator() {
+		Deduplicator dedup = deduplicator;
+		if (dedup != null) {
+			System.out.println(dedup.getStats());
+			dedup.close();
+			deduplicator = null;
+		}
+	}
+
+	/**
+	 * Prints the stats for each of the stages of the last run, in the order
+	 * documents go through them.
+	 */
+	public void printStageStats() {
+		for (IngestStage<?> stage : stages) {
+			System.out.println("Ingest " + stage.getStats());
+		}
+	}
+
+	/**
+	 * Gathers the files to be indexed in every folder of the collection.  When
+	 * EXTRACT_TO_DISK is set the .GZ files are decompressed into .txt files
+	 * first, otherwise the .GZ files are streamed straight into the pipeline.
+	 *
+	 * @return The files to be indexed, empty if there are none
+	 */
+	public List<IngestFile> getIndexFiles() {
+		if (EXTRACT_TO_DISK) {
+			decompress();
+		}
+
+		List<IngestFile> files = new ArrayList<IngestFile>();
+
+		for (String folder : FOLDERS) {
+			files.addAll(getIndexFiles(folder));
+		}
+
+		return files;
+	}
+
+	/**
+	 * Gathers the files to be indexed in the given folder.
+	 *
+	 * @param folder The folder name for the data to be indexed
+	 * @return The files to be indexed, empty if there are none
+	 */
+	public List<IngestFile> getIndexFiles(String folder) {
+		// Setup the file path and gather all files to be indexed in it
+		File[] files;
+		if (EXTRACT_TO_DISK) {
+			files = getFilesByExt(System.getProperty("user.dir") + DECOMPRESS_PATH + folder, ".txt");
+		} else {
+			files = getFilesByExt(System.getProperty("user.dir") + COMPRESSED_DATA_PATH + folder, ".GZ");
+		}
+
+		List<IngestFile> ingestFiles = new ArrayList<IngestFile>();
+
+		if (files == null) {
+			System.out.println("Error!  No files found to index for folder: " + folder);
+			return ingestFiles;
+		}
+
+		for (File file : files) {
+			ingestFiles.add(new IngestFile(folder, file));
+		}
+
+		return ingestFiles;
+	}
+
+	/**
+	 * Splits a file that has been read into memory into it's documents and puts
+	 * them into the given stage.  Each document is given the ID
+	 * {folder}-{file}-{position} (e.g. WT01-B01-7) which matches the docno of the
+	 * collection and doesn't depend on the order files are processed in.  If
+	 * the file has a manifest entry the documents it already acknowledged are
+	 * skipped, which resumes a file that was interrupted part way through.
+	 *
+	 * @param file The file to be split, it's data is cleared when done
+	 * @param next The stage the documents are handed to
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void splitFile(IngestFile file, IngestStage<IngestDocument> next) throws IOException, InterruptedException {
+		splitFile(file, next, null);
+	}
+
+	/**
+	 * Splits a file, telling the dedup stage where it's documents start before
+	 * handing on the first one so they are let through as they arrive.
+	 *
+	 * @param order Puts the documents in order for the dedup stage, may be null
+	 */
+	void splitFile(IngestFile file, IngestStage<IngestDocument> next, InOrder order)
+			throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		InputStream in = new ByteArrayInputStream(file.data);
+		file.data = null;
+
+		if (file.file.getName().toUpperCase().endsWith(".GZ")) {
+			in = new GZIPInputStream(in, IO_BUFFER_SIZE);
+		}
+
+		TrecDocumentReader reader = new TrecDocumentReader(in);
+		try {
+			String prefix = file.getIdPrefix();
+			int resumeAfter = file.entry == null ? 0 : file.entry.getAcknowledged();
+			TrecDocument doc;
+			int position = 0;
+			file.first = resumeAfter + 1;
+			file.last = resumeAfter;
+
+			while ((doc = reader.next()) != null) {
+				// Assign each page an index based on it's position inside of the file
+				position++;
+
+				if (position > resumeAfter) {
+					IngestDocument ingestDoc = new IngestDocument(prefix + position, doc, file.entry, position);
+					ingestDoc.fileIndex = file.index;
+					if (order != null && position == file.first) {
+						order.start(file.index, position);
+					}
+					next.put(ingestDoc);
+					file.last = position;
+				}
+			}
+
+			if (file.entry != null) {
+				file.entry.setDocuments(position);
+			}
+		} finally {
+			reader.close();
+			FILE_TIME_METRIC.observeSince(start);
+		}
+	}
+
+	/**
+	 * Fills in the fields of the document from it's HTML, then clears the record
+	 * that was split out of the file.
+	 *
+	 * @param doc The document to be extracted
+	 * @throws IOException
+	 */
+	public void extractDocument(IngestDocument doc) throws IOException {
+		long start = System.nanoTime();
+		TrecDocument trec = doc.trec;
+		Element ele;
+
+		doc.docno = trec.getDocno();
+		doc.olddocno = trec.getOldDocno();
+
+		// Parse the HTML of the document, using the charset from the <meta> tag
+		// if one is given
+		Document html = Jsoup.parse(new ByteArrayInputStream(trec.getBody()), null, "");
+
+		// Only update the Strings if the elements exist
+		if ((ele = html.selectFirst("title")) != null) {
+			doc.title = ele.text();
+		}
+
+		// Suggest the title in the search box
+		Suggester.Builder builder = suggestions;
+		if (builder != null) {
+			builder.add(doc.title);
+		}
+
+		if ((ele = html.selectFirst("meta[name=keywords][content]")) != null) {
+			doc.keywords = ele.attr("content");
+		}
+
+		// Gather the text of the document as content.  If the document is malformed
+		// and is missing the html and body tags Jsoup will still place the text
+		// after the DOCHDR inside of them.
+		doc.content = html.text();
+
+		// Keep the HTML as it was in the file to be served in searches
+		doc.html = trec.getBody();
+		doc.trec = null;
+
+		EXTRACT_TIME_METRIC.observeSince(start);
+	}
+
+	/**
+	 * Stores the HTML of an extracted document for serving, then clears it, and
+	 * stores the start of it's text for building snippets.
+	 *
+	 * @param doc The extracted document
+	 */
+	public void storeDocument(IngestDocument doc) {
+		storeDocument(doc.docno, doc.html);
+		doc.html = null;
+
+		try {
+			byte[] text = Snippets.truncate(doc.content).getBytes(StandardCharsets.UTF_8);
+			bytesWritten.addAndGet(texts.write(doc.docno, text));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stores the provided document data in the document store for serving.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @param data The document excluding the DOCHDR
+	 */
+	public void storeDocument(String docno, String data) {
+		storeDocument(docno, data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Stores the provided document data in the document store for serving.
+	 *
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @param data The document excluding the DOCHDR, as it was in the collection
+	 */
+	public void storeDocument(String docno, byte[] data) {
+		try {
+			bytesWritten.addAndGet(pages.write(docno, data));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Extract document data from compressed files
+	 */
+	public void decompress() {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		for (String folder : FOLDERS) {
+			tasks.addAll(getDecompressTasks(folder));
+		}
+
+		runOnWorkers(tasks);
+
+		System.out.println("Decompression complete for " + tasks.size() + " files");
+	}
+
+	/**
+	 * Decompress all .GZ files in the given folder. Will assume that the folder
+	 * name provided resides in %PROJECT_PATH%/data/{folder}. The output will be
+	 * stored in %PROJECT_PATH%/extracted/{folder}. If the extracted folder does not
+	 * exist it will be created.
+	 *
+	 * @param folder The folder name to pull data from and to extract data to.
+	 */
+	public void decompressDirectory(String folder) {
+		runOnWorkers(getDecompressTasks(folder));
+	}
+
+	/**
+	 * Creates one decompression task for each .GZ file in the given folder.
+	 *
+	 * @param folder The folder name to pull data from and to extract data to.
+	 * @return The tasks to be run, empty if there are no .GZ files
+	 */
+	public List<Runnable> getDecompressTasks(String folder) {
+		// Establish paths to the given folders
+		String filePath = System.getProperty("user.dir") + COMPRESSED_DATA_PATH + folder;
+		final String outputPath = System.getProperty("user.dir") + DECOMPRESS_PATH + folder;
+
+		// Create the output directories if they don't exist
+		new File(outputPath).mkdirs();
+
+		// Gather all .GZ files in the directory
+		File[] files = getFilesByExt(filePath, ".GZ");
+		List<Runnable> tasks = new ArrayList<Runnable>();
+
+		if(files != null) {
+			for (final File file : files) {
+				tasks.add(new Runnable() {
+					public void run() {
+						decompressFile(file, outputPath);
+					}
+				});
+			}
+		} else {
+			System.out.println("Error!  No .GZ files found in directory: " + filePath);
+		}
+
+		return tasks;
+	}
+
+	/**
+	 * Decompress a single .GZ file into a .txt file of the same name.
+	 *
+	 * @param file The .GZ file to be decompressed
+	 * @param outputPath The directory the .txt file will be written to
+	 */
+	public void decompressFile(File file, String outputPath) {
+		// Buffer used to read in data from file
+		byte[] buffer = new byte[IO_BUFFER_SIZE];
+
+		try {
+			// Setup input streams to extract data from the file
+			FileInputStream fis = new FileInputStream(file);
+			GZIPInputStream gis = new GZIPInputStream(fis, IO_BUFFER_SIZE);
+
+			// The file name for the current File
+			String fileName = file.getName();
+			String outputName = fileName.substring(0, fileName.toUpperCase().indexOf(".GZ")) + ".txt";
+
+			// Setup output stream to push data into
+			FileOutputStream fos = new FileOutputStream(new File(outputPath, outputName));
+
+			// Stores data to be written
+			int bytes_read;
+
+			// Write data until the EOF has been reached
+			while ((bytes_read = gis.read(buffer)) > 0) {
+				fos.write(buffer, 0, bytes_read);
+				bytesWritten.addAndGet(bytes_read);
+			}
+
+			// Close streams when finished
+			gis.close();
+			fos.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens a buffered stream over the given data file, decompressing it on the
+	 * fly if it is a .GZ archive.
+	 *
+	 * @param file The .GZ or .txt file to be read
+	 * @return The stream of the decompressed documents
+	 * @throws IOException
+	 */
+	public InputStream openDocumentStream(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+
+		if (file.getName().toUpperCase().endsWith(".GZ")) {
+			return new GZIPInputStream(in, IO_BUFFER_SIZE);
+		}
+
+		return new BufferedInputStream(in, IO_BUFFER_SIZE);
+	}
+
+	/**
+	 * Returns a File array of all files that match a given extension filter.
+	 *
+	 * @param directory The directory to search in
+	 * @param extension The extension to search by
+	 * @return All files that match the extension filter
+	 */
+	public File[] getFilesByExt(String directory, String extension) {
+		// Make the search case insensitive
+		final String ext = extension.toUpperCase();
+		File fileDir = new File(directory);
+
+		// Returns a list of all files that match the extension
+		File[] files = fileDir.listFiles(new FilenameFilter() {
+			// Specify the acceptance filter
+			public boolean accept(File fileDir, String fileName) {
+				return fileName.toUpperCase().endsWith(ext);
+			}
+		});
+
+		// Keep the files in name order so they are always processed the same way
+		if (files != null) {
+			Arrays.sort(files);
+		}
+
+		return files;
+	}
+
+	/**
+	 * Runs all of the tasks on a pool of INGEST_THREADS workers and waits for
+	 * them to finish. At most two tasks per worker wait, once the queue
+	 * is full the calling thread runs the next task itself which keeps the number
+	 * of files held in memory bounded.
+	 *
+	 * @param tasks The tasks to be run, usually one per file
+	 */
+	public void runOnWorkers(List<Runnable> tasks) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(INGEST_THREADS, INGEST_THREADS, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(INGEST_THREADS * 2),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		for (Runnable task : tasks) {
+			pool.execute(task);
+		}
+
+		// Wait for every submitted task to complete
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.out.println("Waiting on " + pool.getActiveCount() + " ingest workers...");
+			}
+		} catch (InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hands documents on in ingest order, the order of the files then the
+	 * position of the document in it's file, whatever order they are added in.
+	 * A document is held until every document before it has been handed on, been
+	 * skipped, or its file is known to have no more.  The documents of the file
+	 * being handed on are let through as they arrive, so only the documents of
+	 * the files split ahead of it are held.
+	 */
+	static class InOrder {
+
+		// Added once every other document has been, lets through whatever is still held
+		static final IngestDocument END = new IngestDocument(null, null);
+
+		// The documents held by their place in the ingest, skipped documents are held as null
+		private final TreeMap<Long, IngestDocument> waiting = new TreeMap<Long, IngestDocument>();
+
+		// For each file, the position of the next document to hand on, 0 until the
+		// file starts being split, and of the last document, -1 until it has been
+		private final int[] next;
+		private final int[] last;
+
+		// The file whose documents are being handed on
+		private int file = 0;
+
+		InOrder(int files) {
+			next = new int[files];
+			last = new int[files];
+			Arrays.fill(last, -1);
+		}
+
+		/**
+		 * Records the position of the first document split out of a file, before
+		 * it is handed on.
+		 *
+		 * @param index The place of the file in the ingest
+		 * @param first The position of the first document handed on
+		 */
+		synchronized void start(int index, int first) {
+			if (next[index] < first) {
+				next[index] = first;
+			}
+		}
+
+		/**
+		 * Records which documents were split out of a file.
+		 *
+		 * @param index The place of the file in the ingest
+		 * @param first The position of the first document handed on
+		 * @param lastPosition The position of the last document handed on, less
+		 * than first if there were none
+		 */
+		synchronized void split(int index, int first, int lastPosition) {
+			start(index, first);
+			last[index] = lastPosition;
+		}
+
+		/**
+		 * Marks a document that won't be added so the ones after it aren't held.
+		 */
+		synchronized void skip(IngestDocument doc) {
+			waiting.put(key(doc.fileIndex, doc.position), null);
+		}
+
+		/**
+		 * @return The documents that can now be handed on, in order
+		 */
+		synchronized List<IngestDocument> add(IngestDocument doc) {
+			waiting.put(key(doc.fileIndex, doc.position), doc);
+
+			List<IngestDocument> ready = new ArrayList<IngestDocument>();
+			while (file < next.length) {
+				// The first document of a file that hasn't started being split isn't known
+				Long key = key(file, next[file]);
+				if (next[file] > 0 && waiting.containsKey(key)) {
+					IngestDocument found = waiting.remove(key);
+					if (found != null) {
+						ready.add(found);
+					}
+					next[file]++;
+				} else if (last[file] >= 0 && next[file] > last[file]) {
+					file++;
+				} else {
+					break;
+				}
+			}
+
+			return ready;
+		}
+
+		/**
+		 * @return Every document still held, in order
+		 */
+		synchronized List<IngestDocument> drain() {
+			List<IngestDocument> left = new ArrayList<IngestDocument>();
+			for (IngestDocument doc : waiting.values()) {
+				if (doc != null) {
+					left.add(doc);
+				}
+			}
+
+			waiting.clear();
+			file = next.length;
+			return left;
+		}
+
+		private static Long key(int index, int position) {
+			return Long.valueOf(((long) index << 32) | position);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.itec4020.websearch;
+
+/**
+ * The progress of the ingest that is running, or of the last one to run, as
+ * reported at /health.
+ */
+public interface IngestProgress {
+
+	/**
+	 * @return The number of files in the ingest
+	 */
+	int getFiles();
+
+	/**
+	 * @return The number of files read through or skipped so far
+	 */
+	int getFilesDone();
+
+	/**
+	 * @return The number of documents handed to the index so far
+	 */
+	int getDocuments();
+}
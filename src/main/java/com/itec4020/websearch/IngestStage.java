@@ -0,0 +1,174 @@
+package com.itec4020.websearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One step of the ingest pipeline.  Items are put into a bounded queue and
+ * taken off by a fixed number of worker threads which hand them to the
+ * stage's Handler.  A Handler usually puts it's result into the next stage, so
+ * when a later stage falls behind the earlier stages block instead of using
+ * more memory.
+ *
+ * @param <T> The type of item processed by this stage
+ */
+public class IngestStage<T> {
+
+	/**
+	 * The work done by a stage for each item.
+	 */
+	public interface Handler<T> {
+		void handle(T item) throws Exception;
+	}
+
+	// How long workers wait for an item before checking if the stage is finished
+	private static final long POLL_MS = 100;
+
+	// Name used when reporting on this stage
+	final String name;
+
+	// Items waiting to be handled
+	private final BlockingQueue<T> queue;
+
+	// The work done for each item
+	private final Handler<T> handler;
+
+	// Threads taking items off of the queue
+	private final List<Thread> workers = new ArrayList<Thread>();
+
+	// Set once no more items will be put into the queue
+	private volatile boolean finished = false;
+
+	// Stats related variables for analysis
+	final AtomicLong processed = new AtomicLong();
+	final AtomicLong failures = new AtomicLong();
+	final AtomicLong busyNanos = new AtomicLong();
+	private long startTime;
+
+	/**
+	 * @param name The name used when reporting on this stage
+	 * @param workers The number of threads handling items
+	 * @param capacity The number of items allowed to wait in the queue
+	 * @param handler The work done for each item
+	 */
+	public IngestStage(String name, int workers, int capacity, Handler<T> handler) {
+		this.name = name;
+		this.queue = new ArrayBlockingQueue<T>(Math.max(1, capacity));
+		this.handler = handler;
+
+		for (int i = 0; i < Math.max(1, workers); i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "ingest-" + name + "-" + i);
+			worker.setDaemon(true);
+			this.workers.add(worker);
+		}
+	}
+
+	/**
+	 * Starts the worker threads.
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+
+		for (Thread worker : workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Adds an item to the queue, blocking while the queue is full.
+	 *
+	 * @param item The item to be handled
+	 * @throws InterruptedException
+	 */
+	public void put(T item) throws InterruptedException {
+		queue.put(item);
+	}
+
+	/**
+	 * Signals that no more items will be put into this stage and waits for the
+	 * workers to handle the items that are left.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void finish() throws InterruptedException {
+		finished = true;
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * The loop run by each worker thread.
+	 */
+	private void work() {
+		while (true) {
+			T item;
+			try {
+				item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (item == null) {
+				if (finished && queue.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+
+			long start = System.nanoTime();
+			try {
+				handler.handle(item);
+			} catch (Exception e) {
+				failures.incrementAndGet();
+				e.printStackTrace();
+			}
+			busyNanos.addAndGet(System.nanoTime() - start);
+			processed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of items waiting in the queue
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of items handled per second since the stage started
+	 */
+	public double getThroughput() {
+		double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+		return processed.get() / seconds;
+	}
+
+	/**
+	 * @return The share of time the workers spent handling items, where 1.0
+	 * means every worker was always busy
+	 */
+	public double getUtilization() {
+		double available = Math.max(1, System.nanoTime() - startTime) * (double) workers.size();
+		return busyNanos.get() / available;
+	}
+
+	/**
+	 * @return A one line summary of this stage.  Busy time includes time spent
+	 * waiting on a full queue in the next stage, so the bottleneck is the last
+	 * stage with a full queue in front of it.
+	 */
+	public String getStats() {
+		return String.format("%-9s workers=%d queued=%d processed=%d (%.1f/sec) busy=%.0f%% failed=%d", name,
+				workers.size(), getQueueDepth(), processed.get(), getThroughput(), getUtilization() * 100,
+				failures.get());
+	}
+}
@@ -0,0 +1,555 @@
+package com.itec4020.websearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * An inverted index over the title and content of each document, searched with
+ * BM25 the same way the ElasticSearch query is: a match on the title boosted
+ * by TITLE_BOOST, plus a match on the content.
+ *
+ * Each field has a dictionary of terms and a postings list for every term.  A
+ * postings list is the documents the term appears in, as the gap from the
+ * previous document and the number of times the term appears, both written as
+ * variable length integers.  Documents are numbered in the order they are
+ * added so the gaps are small and most entries take two bytes.
+ *
+ * Layout of the index directory:
+ * - docs.dat: {count}, then {docno, title, title length, content length} for each document
+ * - {field}.dic: {count}, then {term, document frequency, offset, length} for each term
+ * - {field}.pst: the postings lists one after another, memory-mapped for searching
+ * - index.done: written last, an index without it is incomplete
+ */
+public class InvertedIndex {
+
+	// The fields that are indexed
+	static final String[] FIELDS = { "title", "content" };
+	static final int TITLE = 0;
+	static final int CONTENT = 1;
+
+	// Matches in the title count this much more than matches in the content
+	static final float TITLE_BOOST = 100;
+
+	// BM25 parameters, the same as the ElasticSearch defaults
+	static final float K1 = 1.2f;
+	static final float B = 0.75f;
+
+	// Longer tokens are cut off, as the standard tokenizer does
+	static final int MAX_TOKEN_LENGTH = 255;
+
+	// Titles are cut off at this length when stored, they are only shown in results
+	static final int MAX_STORED_TITLE = 4096;
+
+	// Document fields, indexed by document number
+	final String[] docnos;
+	final String[] titles;
+
+	// The indexed fields
+	final Field[] fields;
+
+	private InvertedIndex(String[] docnos, String[] titles, Field[] fields) {
+		this.docnos = docnos;
+		this.titles = titles;
+		this.fields = fields;
+	}
+
+	/**
+	 * Opens an index that was written to disk.
+	 *
+	 * @param directory The directory holding the index
+	 * @return The index, or null if there is no complete index in the directory
+	 * @throws IOException
+	 */
+	public static InvertedIndex open(File directory) throws IOException {
+		if (!new File(directory, "index.done").exists()) {
+			return null;
+		}
+
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(new File(directory, "docs.dat")), 64 * 1024));
+		String[] docnos;
+		String[] titles;
+		int[][] lengths = new int[FIELDS.length][];
+		try {
+			int count = in.readInt();
+			docnos = new String[count];
+			titles = new String[count];
+			for (int f = 0; f < FIELDS.length; f++) {
+				lengths[f] = new int[count];
+			}
+
+			for (int i = 0; i < count; i++) {
+				docnos[i] = in.readUTF();
+				titles[i] = in.readUTF();
+				for (int f = 0; f < FIELDS.length; f++) {
+					lengths[f][i] = in.readInt();
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		Field[] fields = new Field[FIELDS.length];
+		for (int f = 0; f < FIELDS.length; f++) {
+			fields[f] = Field.open(directory, FIELDS[f], lengths[f]);
+		}
+
+		return new InvertedIndex(docnos, titles, fields);
+	}
+
+	/**
+	 * Removes any index in the directory.
+	 */
+	public static void delete(File directory) {
+		new File(directory, "index.done").delete();
+		new File(directory, "docs.dat").delete();
+		for (String field : FIELDS) {
+			new File(directory, field + ".dic").delete();
+			new File(directory, field + ".pst").delete();
+		}
+	}
+
+	/**
+	 * @return The number of documents in the index
+	 */
+	public int size() {
+		return docnos.length;
+	}
+
+	/**
+	 * Searches the index, scoring each document with BM25 on the title (boosted)
+	 * plus BM25 on the content.
+	 *
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return The hits in the same format ElasticSearch responds with
+	 * @throws IOException
+	 */
+	public String search(String title, String content, int from, int size) throws IOException {
+		float[] scores = new float[docnos.length];
+
+		for (String term : tokenize(title)) {
+			fields[TITLE].score(term, TITLE_BOOST, scores);
+		}
+		for (String term : tokenize(content)) {
+			fields[CONTENT].score(term, 1, scores);
+		}
+
+		// Keep the best from + size documents, the worst of them on top of the heap
+		final float[] s = scores;
+		int keep = Math.max(0, from) + Math.max(0, size);
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, keep), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return InvertedIndex.compare(s, b, a);
+			}
+		});
+		int total = 0;
+
+		for (int doc = 0; doc < scores.length; doc++) {
+			if (scores[doc] <= 0) {
+				continue;
+			}
+			total++;
+
+			if (best.size() < keep) {
+				best.add(doc);
+			} else if (keep > 0 && compare(scores, doc, best.peek()) < 0) {
+				best.poll();
+				best.add(doc);
+			}
+		}
+
+		Integer[] ranked = best.toArray(new Integer[best.size()]);
+		Arrays.sort(ranked, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return InvertedIndex.compare(s, a, b);
+			}
+		});
+
+		XContentBuilder builder = jsonBuilder().startObject().startObject("hits").field("total", total)
+				.startArray("hits");
+		for (int i = Math.max(0, from); i < ranked.length; i++) {
+			int doc = ranked[i];
+			builder.startObject().field("_score", scores[doc]).startObject("_source").field("title", titles[doc])
+					.field("docno", docnos[doc]).field("url", ElasticSearchHandler.HTML_PATH_PUBLIC + docnos[doc] + ".html")
+					.endObject().endObject();
+		}
+		builder.endArray().endObject().endObject();
+
+		String json = Strings.toString(builder);
+		builder.close();
+		return json;
+	}
+
+	/**
+	 * Orders documents by score, highest first, then by document number.
+	 */
+	private static int compare(float[] scores, int a, int b) {
+		int c = Float.compare(scores[b], scores[a]);
+		return c != 0 ? c : Integer.compare(a, b);
+	}
+
+	/**
+	 * Splits text into lower case terms on anything that isn't a letter or digit.
+	 *
+	 * @param text The text to split
+	 * @return The terms in the order they appear
+	 */
+	static List<String> tokenize(String text) {
+		List<String> terms = new ArrayList<String>();
+		if (text == null) {
+			return terms;
+		}
+
+		StringBuilder term = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				if (term.length() < MAX_TOKEN_LENGTH) {
+					term.append(Character.toLowerCase(c));
+				}
+			} else if (term.length() > 0) {
+				terms.add(term.toString());
+				term.setLength(0);
+			}
+		}
+		if (term.length() > 0) {
+			terms.add(term.toString());
+		}
+
+		return terms;
+	}
+
+	/**
+	 * Counts how often each term appears in the text.
+	 *
+	 * @param text The text to split
+	 * @return The number of times each term appears, in [0] of the array
+	 */
+	static Map<String, int[]> countTerms(String text) {
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+
+		for (String term : tokenize(text)) {
+			int[] count = counts.get(term);
+			if (count == null) {
+				counts.put(term, new int[] { 1 });
+			} else {
+				count[0]++;
+			}
+		}
+
+		return counts;
+	}
+
+	static void writeVarint(ByteArray out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.add((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.add((byte) value);
+	}
+
+	static int readVarint(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+	/**
+	 * A single indexed field.
+	 */
+	static class Field {
+		// Where each term's postings list is, keyed by term
+		final Map<String, Term> terms;
+
+		// The postings lists
+		final MappedByteBuffer postings;
+
+		// The number of terms in the field of each document
+		final int[] lengths;
+
+		// The number of documents with the field, and the average number of terms in it
+		final int docCount;
+		final float averageLength;
+
+		Field(Map<String, Term> terms, MappedByteBuffer postings, int[] lengths) {
+			this.terms = terms;
+			this.postings = postings;
+			this.lengths = lengths;
+
+			int count = 0;
+			long sum = 0;
+			for (int length : lengths) {
+				if (length > 0) {
+					count++;
+					sum += length;
+				}
+			}
+			this.docCount = count;
+			this.averageLength = count > 0 ? (float) sum / count : 0;
+		}
+
+		static Field open(File directory, String name, int[] lengths) throws IOException {
+			Map<String, Term> terms;
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(new File(directory, name + ".dic")), 64 * 1024));
+			try {
+				int count = in.readInt();
+				terms = new HashMap<String, Term>(count * 4 / 3 + 1);
+				for (int i = 0; i < count; i++) {
+					String term = in.readUTF();
+					terms.put(term, new Term(in.readInt(), in.readInt(), in.readInt()));
+				}
+			} finally {
+				in.close();
+			}
+
+			RandomAccessFile file = new RandomAccessFile(new File(directory, name + ".pst"), "r");
+			MappedByteBuffer postings;
+			try {
+				postings = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			} finally {
+				file.close();
+			}
+
+			return new Field(terms, postings, lengths);
+		}
+
+		/**
+		 * Adds the BM25 score of a term to each document it appears in.
+		 */
+		void score(String term, float boost, float[] scores) {
+			Term t = terms.get(term);
+			if (t == null) {
+				return;
+			}
+
+			float idf = (float) Math.log(1 + (docCount - t.docFreq + 0.5) / (t.docFreq + 0.5));
+
+			// Each search reads from it's own view of the map
+			ByteBuffer in = postings.duplicate();
+			in.position(t.offset);
+
+			int doc = 0;
+			for (int i = 0; i < t.docFreq; i++) {
+				doc += readVarint(in);
+				int freq = readVarint(in);
+				float norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+				scores[doc] += boost * idf * freq * (K1 + 1) / (freq + norm);
+			}
+		}
+	}
+
+	/**
+	 * Where a term's postings list is.
+	 */
+	static class Term {
+		final int docFreq;
+		final int offset;
+		final int length;
+
+		Term(int docFreq, int offset, int length) {
+			this.docFreq = docFreq;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * A growable array of bytes, used to build postings lists without boxing.
+	 */
+	static class ByteArray {
+		byte[] data;
+		int size;
+
+		ByteArray(int capacity) {
+			data = new byte[capacity];
+		}
+
+		void add(byte b) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			data[size++] = b;
+		}
+	}
+
+	/**
+	 * Builds an index in memory as documents are added, then writes it to disk.
+	 * Documents can be added from several threads.
+	 */
+	public static class Builder {
+		final List<String> docnos = new ArrayList<String>();
+		final List<String> titles = new ArrayList<String>();
+		final List<int[]> lengths = new ArrayList<int[]>();
+
+		// The postings list being built for each term of each field
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final Map<String, PostingsBuilder>[] postings = new Map[FIELDS.length];
+
+		public Builder() {
+			for (int f = 0; f < FIELDS.length; f++) {
+				postings[f] = new HashMap<String, PostingsBuilder>();
+			}
+		}
+
+		/**
+		 * Adds a document to the index.  The text is split into terms before taking
+		 * the lock so that several threads can add documents at once.
+		 *
+		 * @param docno The document number (e.g. WT01-B01-7)
+		 * @param title The title of the document
+		 * @param content The text of the document
+		 */
+		public void add(String docno, String title, String content) {
+			List<Map<String, int[]>> counts = new ArrayList<Map<String, int[]>>(FIELDS.length);
+			counts.add(countTerms(title));
+			counts.add(countTerms(content));
+
+			if (title != null && title.length() > MAX_STORED_TITLE) {
+				title = title.substring(0, MAX_STORED_TITLE);
+			}
+
+			synchronized (this) {
+				int doc = docnos.size();
+				docnos.add(docno);
+				titles.add(title == null ? "" : title);
+
+				int[] docLengths = new int[FIELDS.length];
+				for (int f = 0; f < FIELDS.length; f++) {
+					for (Map.Entry<String, int[]> entry : counts.get(f).entrySet()) {
+						docLengths[f] += entry.getValue()[0];
+
+						PostingsBuilder list = postings[f].get(entry.getKey());
+						if (list == null) {
+							list = new PostingsBuilder();
+							postings[f].put(entry.getKey(), list);
+						}
+						list.add(doc, entry.getValue()[0]);
+					}
+				}
+				lengths.add(docLengths);
+			}
+		}
+
+		/**
+		 * @return The number of documents added
+		 */
+		public synchronized int size() {
+			return docnos.size();
+		}
+
+		/**
+		 * Writes the index to disk, replacing any index already in the directory.
+		 *
+		 * @param directory The directory to write the index to
+		 * @return The number of bytes written
+		 * @throws IOException
+		 */
+		public synchronized long write(File directory) throws IOException {
+			directory.mkdirs();
+			delete(directory);
+			long written = 0;
+
+			DataOutputStream docs = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(new File(directory, "docs.dat")), 64 * 1024));
+			try {
+				docs.writeInt(docnos.size());
+				for (int i = 0; i < docnos.size(); i++) {
+					docs.writeUTF(docnos.get(i));
+					docs.writeUTF(titles.get(i));
+					for (int length : lengths.get(i)) {
+						docs.writeInt(length);
+					}
+				}
+				written += docs.size();
+			} finally {
+				docs.close();
+			}
+
+			for (int f = 0; f < FIELDS.length; f++) {
+				written += writeField(directory, FIELDS[f], postings[f]);
+			}
+
+			new FileOutputStream(new File(directory, "index.done")).close();
+			return written;
+		}
+
+		private long writeField(File directory, String name, Map<String, PostingsBuilder> field) throws IOException {
+			DataOutputStream dic = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(new File(directory, name + ".dic")), 64 * 1024));
+			OutputStream pst = new BufferedOutputStream(new FileOutputStream(new File(directory, name + ".pst")),
+					64 * 1024);
+			long offset = 0;
+
+			try {
+				dic.writeInt(field.size());
+				for (Map.Entry<String, PostingsBuilder> entry : field.entrySet()) {
+					PostingsBuilder list = entry.getValue();
+					if (offset + list.bytes.size > Integer.MAX_VALUE) {
+						throw new IOException("Postings for " + name + " are too large to be memory-mapped");
+					}
+
+					dic.writeUTF(entry.getKey());
+					dic.writeInt(list.docFreq);
+					dic.writeInt((int) offset);
+					dic.writeInt(list.bytes.size);
+					pst.write(list.bytes.data, 0, list.bytes.size);
+					offset += list.bytes.size;
+				}
+			} finally {
+				dic.close();
+				pst.close();
+			}
+
+			return dic.size() + offset;
+		}
+	}
+
+	/**
+	 * A postings list being built, the documents must be added in order.
+	 */
+	static class PostingsBuilder {
+		final ByteArray bytes = new ByteArray(8);
+		int lastDoc = 0;
+		int docFreq = 0;
+
+		void add(int doc, int freq) {
+			writeVarint(bytes, doc - lastDoc);
+			writeVarint(bytes, freq);
+			lastDoc = doc;
+			docFreq++;
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package com.itec4020.websearch;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms for the ingest pipeline, searches and the
+ * web server, served at /metrics in the Prometheus text format.  Recording is
+ * cheap enough for the hot paths, counters and histogram buckets are
+ * LongAdders so threads recording at the same time don't contend.
+ *
+ * Each metric is looked up by it's name and label pairs, the first lookup
+ * registers it, e.g.
+ * Metrics.counter("websearch_http_responses_total", "HTTP responses sent", "route", "search", "status", "200")
+ *
+ * Metrics that are recorded often with the same labels should be looked up
+ * once and kept in a field.
+ */
+public class Metrics {
+
+	// Upper bounds of the histogram buckets in seconds
+	static final double[] BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5,
+			10, 30 };
+
+	// Every metric registered, grouped by name and kept in name order
+	private static final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+	/**
+	 * Looks up a counter, registering it the first time.
+	 *
+	 * @param name The name of the metric
+	 * @param help A description of the metric
+	 * @param labels The names and values of the labels, one after another
+	 * @return The counter
+	 */
+	public static Counter counter(String name, String help, String... labels) {
+		return (Counter) family(name, help, "counter").get(labels);
+	}
+
+	/**
+	 * Looks up a latency histogram, registering it the first time.
+	 *
+	 * @param name The name of the metric, which should end in _seconds
+	 * @param help A description of the metric
+	 * @param labels The names and values of the labels, one after another
+	 * @return The histogram
+	 */
+	public static Histogram histogram(String name, String help, String... labels) {
+		return (Histogram) family(name, help, "histogram").get(labels);
+	}
+
+	/**
+	 * Registers a gauge that reads it's value when the metrics are written,
+	 * replacing any gauge registered with the same name and labels.
+	 *
+	 * @param name The name of the metric
+	 * @param help A description of the metric
+	 * @param value Reads the current value
+	 * @param labels The names and values of the labels, one after another
+	 */
+	public static void gauge(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, "gauge").series.put(Family.getLabelText(labels), new Gauge(value));
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format.
+	 *
+	 * @return The metrics
+	 */
+	public static String write() {
+		StringBuilder out = new StringBuilder(16 * 1024);
+
+		for (Family family : families.values()) {
+			out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+			for (Map.Entry<String, Metric> series : family.series.entrySet()) {
+				series.getValue().write(out, family.name, series.getKey());
+			}
+		}
+
+		return out.toString();
+	}
+
+	private static Family family(String name, String help, String type) {
+		Family family = families.get(name);
+		if (family == null) {
+			Family created = new Family(name, help, type);
+			family = families.putIfAbsent(name, created);
+			if (family == null) {
+				family = created;
+			}
+		}
+
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+		}
+
+		return family;
+	}
+
+	/**
+	 * Formats a value the way Prometheus expects.
+	 */
+	static String formatDouble(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value)) {
+			return Long.toString((long) value);
+		}
+		return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+	}
+
+	/**
+	 * Every series of one metric, keyed by it's label text.
+	 */
+	static class Family {
+		final String name;
+		final String help;
+		final String type;
+		final ConcurrentSkipListMap<String, Metric> series = new ConcurrentSkipListMap<String, Metric>();
+
+		Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		Metric get(String[] labels) {
+			String text = getLabelText(labels);
+			Metric metric = series.get(text);
+			if (metric == null) {
+				Metric created = type.equals("counter") ? new Counter() : new Histogram();
+				metric = series.putIfAbsent(text, created);
+				if (metric == null) {
+					metric = created;
+				}
+			}
+			return metric;
+		}
+
+		/**
+		 * @return The labels as they are written, e.g. route="search",status="200"
+		 */
+		static String getLabelText(String[] labels) {
+			if (labels.length % 2 != 0) {
+				throw new IllegalArgumentException("Labels must be given as name, value pairs");
+			}
+
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < labels.length; i += 2) {
+				if (i > 0) {
+					text.append(',');
+				}
+				text.append(labels[i]).append("=\"");
+				String value = labels[i + 1];
+				for (int j = 0; j < value.length(); j++) {
+					char c = value.charAt(j);
+					if (c == '\\' || c == '"') {
+						text.append('\\').append(c);
+					} else if (c == '\n') {
+						text.append("\\n");
+					} else {
+						text.append(c);
+					}
+				}
+				text.append('"');
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * A single series of a metric.
+	 */
+	abstract static class Metric {
+		abstract void write(StringBuilder out, String name, String labels);
+
+		static void writeSample(StringBuilder out, String name, String labels, String value) {
+			out.append(name);
+			if (!labels.isEmpty()) {
+				out.append('{').append(labels).append('}');
+			}
+			out.append(' ').append(value).append('\n');
+		}
+	}
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static class Counter extends Metric {
+		private final LongAdder count = new LongAdder();
+
+		public void increment() {
+			count.increment();
+		}
+
+		public void add(long n) {
+			count.add(n);
+		}
+
+		public long get() {
+			return count.sum();
+		}
+
+		void write(StringBuilder out, String name, String labels) {
+			writeSample(out, name, labels, Long.toString(count.sum()));
+		}
+	}
+
+	/**
+	 * Counts how many recorded times fell into each of the BUCKETS, along with the
+	 * total count and time.
+	 */
+	public static class Histogram extends Metric {
+		private static final long[] BOUNDS_NANOS = new long[BUCKETS.length];
+		static {
+			for (int i = 0; i < BUCKETS.length; i++) {
+				BOUNDS_NANOS[i] = (long) (BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+			}
+		}
+
+		// The last bucket holds everything over the largest bound
+		private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sumNanos = new LongAdder();
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records a time.
+		 *
+		 * @param nanos The time taken in nanoseconds
+		 */
+		public void observeNanos(long nanos) {
+			int i = 0;
+			while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+				i++;
+			}
+			buckets[i].increment();
+			count.increment();
+			sumNanos.add(nanos);
+		}
+
+		/**
+		 * Records the time since the given start.
+		 *
+		 * @param startNanos When the work started, from System.nanoTime()
+		 */
+		public void observeSince(long startNanos) {
+			observeNanos(System.nanoTime() - startNanos);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		void write(StringBuilder out, String name, String labels) {
+			String prefix = labels.isEmpty() ? "" : labels + ",";
+			long cumulative = 0;
+
+			for (int i = 0; i < BUCKETS.length; i++) {
+				cumulative += buckets[i].sum();
+				writeSample(out, name + "_bucket", prefix + "le=\"" + formatDouble(BUCKETS[i]) + "\"",
+						Long.toString(cumulative));
+			}
+			cumulative += buckets[BUCKETS.length].sum();
+			writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(cumulative));
+
+			writeSample(out, name + "_sum", labels, formatDouble(sumNanos.sum() / 1e9));
+			writeSample(out, name + "_count", labels, Long.toString(cumulative));
+		}
+	}
+
+	/**
+	 * A value read when the metrics are written.
+	 */
+	static class Gauge extends Metric {
+		private final LongSupplier value;
+
+		Gauge(LongSupplier value) {
+			this.value = value;
+		}
+
+		void write(StringBuilder out, String name, String labels) {
+			writeSample(out, name, labels, Long.toString(value.getAsLong()));
+		}
+	}
+}
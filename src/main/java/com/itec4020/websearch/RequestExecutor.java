@@ -0,0 +1,126 @@
+package com.itec4020.websearch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the requests for the web server on a bounded pool of threads.  The
+ * HttpServer has no way to reject a request from it's executor, so when every
+ * thread is busy and the queue is full the request is run on the accepting
+ * thread with the overloaded flag set.  The handler checks the flag and
+ * answers with a 503 straight away instead of doing any real work.
+ * Requests that waited in the queue for too long are treated the same way,
+ * since the client has most likely given up on them.
+ */
+public class RequestExecutor implements Executor {
+
+	// Set while running a request that should be turned away
+	private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<Boolean>();
+
+	// Requests waiting longer than this are turned away
+	final long MAX_QUEUE_MS;
+
+	// The pool requests run on
+	final ThreadPoolExecutor pool;
+
+	// Stats related variables for analysis
+	final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param threads The number of threads handling requests
+	 * @param queue The number of requests allowed to wait for a thread
+	 * @param maxQueueMs The longest a request may wait for a thread
+	 */
+	public RequestExecutor(int threads, int queue, long maxQueueMs) {
+		MAX_QUEUE_MS = maxQueueMs;
+
+		final AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queue)), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "http-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						// Run on the accepting thread, the handler only sends a 503
+						((Request) r).runOverloaded();
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	public void execute(Runnable command) {
+		pool.execute(new Request(command));
+	}
+
+	/**
+	 * @return True if the request running on this thread should be answered with
+	 * a 503 instead of being handled
+	 */
+	public static boolean isOverloaded() {
+		return Boolean.TRUE.equals(OVERLOADED.get());
+	}
+
+	/**
+	 * @return The number of requests waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * @return The number of threads currently handling requests
+	 */
+	public int getActiveCount() {
+		return pool.getActiveCount();
+	}
+
+	/**
+	 * Stops the pool once the requests being handled are done.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Wraps a request to record how long it waited for a thread.
+	 */
+	class Request implements Runnable {
+		final Runnable command;
+		final long queuedAt = System.nanoTime();
+
+		Request(Runnable command) {
+			this.command = command;
+		}
+
+		public void run() {
+			long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt);
+			run(waited > MAX_QUEUE_MS);
+		}
+
+		void runOverloaded() {
+			run(true);
+		}
+
+		private void run(boolean overloaded) {
+			if (overloaded) {
+				rejected.incrementAndGet();
+			}
+
+			OVERLOADED.set(overloaded);
+			try {
+				command.run();
+			} finally {
+				OVERLOADED.remove();
+			}
+		}
+	}
+}
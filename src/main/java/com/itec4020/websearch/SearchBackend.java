@@ -0,0 +1,100 @@
+package com.itec4020.websearch;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The operations the application needs from a search engine.  Searches are
+ * returned in the format of an ElasticSearch search response,
+ * { "hits": { "total": 1, "hits": [ { "_score": 1.0, "_source": { "title", "docno", "url" } } ] } }
+ * so that every backend can be read the same way.
+ *
+ * Implementations:
+ * - ElasticSearchHandler: indexes into and searches an ElasticSearch cluster
+ * - EmbeddedSearchBackend: keeps it's own inverted index in the application
+ */
+public interface SearchBackend {
+
+	/**
+	 * Indexes the collection, skipping whatever is already indexed.
+	 */
+	void index();
+
+	/**
+	 * Checks for an index left by an earlier run that can be searched while
+	 * index() brings it up to date.
+	 *
+	 * @return True if searches can be served before indexing is done
+	 */
+	boolean hasUsableIndex();
+
+	/**
+	 * Searches given the information, returning the first page of results.
+	 *
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @return The JSON search response, or null if the search failed
+	 */
+	String search(String title, String content);
+
+	/**
+	 * Searches given the information, returning one page of results.
+	 *
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return The JSON search response, or null if the search failed
+	 */
+	String search(String title, String content, int from, int size);
+
+	/**
+	 * Searches given the information without waiting on the response.
+	 *
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit to return
+	 * @param size The number of hits to return
+	 * @return Completes with the JSON search response
+	 */
+	CompletableFuture<String> searchAsync(String title, String content, int from, int size);
+
+	/**
+	 * Runs every query in a topics file.
+	 *
+	 * @param path The path to the topics file
+	 * @return The JSON search response for each topic, keyed by topic number
+	 */
+	Map<String, String> queryTopics(String path);
+
+	/**
+	 * @return The store holding the HTML of every indexed document
+	 */
+	DocumentStore getPages();
+
+	/**
+	 * @return The store holding the plain text of every indexed document, used
+	 * to build the snippets shown with the results
+	 */
+	DocumentStore getTexts();
+
+	/**
+	 * @return The completions suggested for what is typed into the search box
+	 */
+	Suggester getSuggester();
+
+	/**
+	 * @return The progress of the ingest run by index()
+	 */
+	IngestProgress getProgress();
+
+	/**
+	 * @return The cache of recent search responses
+	 */
+	SearchCache getSearchCache();
+
+	/**
+	 * Releases the connections and files held by the backend.
+	 */
+	void close();
+}
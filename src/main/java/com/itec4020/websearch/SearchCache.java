@@ -0,0 +1,262 @@
+package com.itec4020.websearch;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the responses of recent searches so that repeated searches (popular
+ * queries, the topic queries, paging back and forth) don't go back to
+ * ElasticSearch.  The cache holds a bounded number of responses, evicting the
+ * least recently used one when full and dropping any response older than the
+ * time to live.  When the same search is requested again while the first one is
+ * still running, the second caller waits on the first instead of sending the
+ * same request to ElasticSearch.
+ *
+ * Searches are keyed on the normalized title and content (case and extra
+ * whitespace ignored) along with the page requested.
+ */
+public class SearchCache {
+
+	// Number of search responses kept, set with -Dwebsearch.cache.entries
+	final int MAX_ENTRIES = Integer.getInteger("websearch.cache.entries", 10000);
+
+	// How long a response is kept, set with -Dwebsearch.cache.ttl.ms
+	final long TTL_MS = Long.getLong("websearch.cache.ttl.ms", 5 * 60 * 1000);
+
+	// Cached responses in least recently used order, only used while holding the lock
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			if (size() > MAX_ENTRIES) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	// Searches currently being run, which later callers of the same search wait on.
+	// Replaced on every invalidate() so that a search started against the old
+	// index isn't shared with callers that arrive after it, only read while holding the lock
+	private ConcurrentHashMap<Key, CompletableFuture<String>> inflight = new ConcurrentHashMap<Key, CompletableFuture<String>>();
+
+	// Bumped on every invalidate() so that searches started against the old
+	// index aren't added to the cache once they finish
+	private long generation = 0;
+
+	// Stats related variables for analysis
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+	final AtomicLong coalesced = new AtomicLong();
+	final AtomicLong evictions = new AtomicLong();
+	final AtomicLong expirations = new AtomicLong();
+
+	// Metrics served at /metrics, shared by every cache
+	static final Metrics.Counter HIT_METRIC = Metrics.counter("websearch_search_cache_requests_total",
+			"Searches looked up in the search cache", "result", "hit");
+	static final Metrics.Counter MISS_METRIC = Metrics.counter("websearch_search_cache_requests_total",
+			"Searches looked up in the search cache", "result", "miss");
+	static final Metrics.Counter COALESCED_METRIC = Metrics.counter("websearch_search_cache_requests_total",
+			"Searches looked up in the search cache", "result", "coalesced");
+
+	/**
+	 * Builds the key for a search.
+	 *
+	 * @param title The text to match against the title of each document
+	 * @param content The text to match against the content of each document
+	 * @param from The offset of the first hit
+	 * @param size The number of hits
+	 * @return The key for the search
+	 */
+	public static Key key(String title, String content, int from, int size) {
+		return new Key(normalize(title), normalize(content), from, size);
+	}
+
+	/**
+	 * Returns the response for a search, from the cache if possible, otherwise
+	 * from the search already running for the same key, otherwise by running the
+	 * loader.  Failed searches, which complete with null, are not cached.
+	 *
+	 * @param key The key for the search
+	 * @param loader Runs the search when it isn't cached or already running
+	 * @return The response for the search
+	 */
+	public CompletableFuture<String> get(final Key key, Supplier<CompletableFuture<String>> loader) {
+		final long loadGeneration;
+		final ConcurrentHashMap<Key, CompletableFuture<String>> running;
+
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				if (System.currentTimeMillis() - entry.createdAt <= TTL_MS) {
+					hits.incrementAndGet();
+					HIT_METRIC.increment();
+					return CompletableFuture.completedFuture(entry.response);
+				}
+
+				entries.remove(key);
+				expirations.incrementAndGet();
+			}
+
+			loadGeneration = generation;
+			running = inflight;
+		}
+
+		// Only the first caller runs the search, everyone else waits on it
+		final CompletableFuture<String> promise = new CompletableFuture<String>();
+		CompletableFuture<String> shared = running.putIfAbsent(key, promise);
+		if (shared != null) {
+			coalesced.incrementAndGet();
+			COALESCED_METRIC.increment();
+			return shared;
+		}
+
+		misses.incrementAndGet();
+		MISS_METRIC.increment();
+
+		CompletableFuture<String> load;
+		try {
+			load = loader.get();
+		} catch (RuntimeException e) {
+			load = new CompletableFuture<String>();
+			load.completeExceptionally(e);
+		}
+
+		load.whenComplete(new BiConsumer<String, Throwable>() {
+			public void accept(String response, Throwable error) {
+				if (error == null && response != null) {
+					put(key, response, loadGeneration);
+				}
+
+				running.remove(key, promise);
+
+				if (error != null) {
+					promise.completeExceptionally(error);
+				} else {
+					promise.complete(response);
+				}
+			}
+		});
+
+		return promise;
+	}
+
+	/**
+	 * Adds a response to the cache unless the cache was invalidated since the
+	 * search started.
+	 */
+	private synchronized void put(Key key, String response, long loadGeneration) {
+		if (loadGeneration == generation) {
+			entries.put(key, new Entry(response));
+		}
+	}
+
+	/**
+	 * Drops every cached response, used when the index is rebuilt.  Searches
+	 * already running finish for their callers but aren't shared with later ones.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		entries.clear();
+		inflight = new ConcurrentHashMap<Key, CompletableFuture<String>>();
+	}
+
+	/**
+	 * @return The number of responses in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return A one line summary of the cache
+	 */
+	public String getStats() {
+		long lookups = hits.get() + misses.get() + coalesced.get();
+		double hitRate = lookups > 0 ? 100.0 * (hits.get() + coalesced.get()) / lookups : 0;
+
+		return String.format("Search cache: %d entries, %d hits, %d misses, %d coalesced, %d evictions, "
+				+ "%d expirations, %.1f%% hit rate", size(), hits.get(), misses.get(), coalesced.get(),
+				evictions.get(), expirations.get(), hitRate);
+	}
+
+	/**
+	 * Lower cases the text and collapses whitespace, the analyzers used for
+	 * the title and content ignore both.
+	 */
+	static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Identifies a search and the page of results requested.
+	 */
+	public static class Key {
+		final String title;
+		final String content;
+		final int from;
+		final int size;
+
+		Key(String title, String content, int from, int size) {
+			this.title = title;
+			this.content = content;
+			this.from = from;
+			this.size = size;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return from == other.from && size == other.size && title.equals(other.title)
+					&& content.equals(other.content);
+		}
+
+		public int hashCode() {
+			return ((title.hashCode() * 31 + content.hashCode()) * 31 + from) * 31 + size;
+		}
+	}
+
+	/**
+	 * A cached response.
+	 */
+	static class Entry {
+		final String response;
+		final long createdAt = System.currentTimeMillis();
+
+		Entry(String response) {
+			this.response = response;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.itec4020.websearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+/**
+ * The parts of an ElasticSearch search response the application uses.  The
+ * response is read with a streaming parser that only keeps the fields of each
+ * hit that are needed and skips everything else.
+ */
+public class SearchResults {
+
+	// Total number of documents matching the search
+	long total;
+
+	// The hits in the order they were ranked
+	final List<Hit> hits = new ArrayList<Hit>();
+
+	/**
+	 * Reads the search response from ElasticSearch.
+	 *
+	 * @param json The search response
+	 * @return The results in the response
+	 * @throws IOException
+	 */
+	public static SearchResults parse(String json) throws IOException {
+		return parse(json, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the search response from ElasticSearch, keeping only the first hits.
+	 * The hits after those are skipped without being read into memory.
+	 *
+	 * @param json The search response
+	 * @param maxHits The number of hits to keep
+	 * @return The results in the response
+	 * @throws IOException
+	 */
+	public static SearchResults parse(String json, int maxHits) throws IOException {
+		XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+				DeprecationHandler.THROW_UNSUPPORTED_OPERATION, json);
+		try {
+			return parse(parser, maxHits);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Reads the search response from ElasticSearch.
+	 *
+	 * @param in The search response
+	 * @return The results in the response
+	 * @throws IOException
+	 */
+	public static SearchResults parse(InputStream in) throws IOException {
+		XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+				DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in);
+		try {
+			return parse(parser, Integer.MAX_VALUE);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static SearchResults parse(XContentParser parser, int maxHits) throws IOException {
+		SearchResults results = new SearchResults();
+
+		if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+			return results;
+		}
+
+		// Look for the outer hits object, skipping everything else
+		XContentParser.Token token;
+		while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+			String name = parser.currentName();
+			token = parser.nextToken();
+
+			if (name.equals("hits") && token == XContentParser.Token.START_OBJECT) {
+				parseHits(parser, results, maxHits);
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Reads the outer hits object, { "total": 1, "hits": [ ... ] }
+	 */
+	private static void parseHits(XContentParser parser, SearchResults results, int maxHits) throws IOException {
+		while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+			String name = parser.currentName();
+			XContentParser.Token token = parser.nextToken();
+
+			if (name.equals("total") && token == XContentParser.Token.VALUE_NUMBER) {
+				results.total = parser.longValue();
+			} else if (name.equals("hits") && token == XContentParser.Token.START_ARRAY) {
+				while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+					if (results.hits.size() < maxHits) {
+						results.hits.add(parseHit(parser));
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Reads a single hit, { "_score": 1.0, "_source": { "docno": "..." } }
+	 */
+	private static Hit parseHit(XContentParser parser) throws IOException {
+		Hit hit = new Hit();
+
+		while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+			String name = parser.currentName();
+			XContentParser.Token token = parser.nextToken();
+
+			if (name.equals("_score") && token == XContentParser.Token.VALUE_NUMBER) {
+				hit.score = parser.floatValue();
+			} else if (name.equals("_source") && token == XContentParser.Token.START_OBJECT) {
+				while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+					String field = parser.currentName();
+					token = parser.nextToken();
+
+					if (token == XContentParser.Token.VALUE_STRING) {
+						if (field.equals("docno")) {
+							hit.docno = parser.text();
+						} else if (field.equals("title")) {
+							hit.title = parser.text();
+						} else if (field.equals("url")) {
+							hit.url = parser.text();
+						}
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		return hit;
+	}
+
+	/**
+	 * Writes the results in the format sent to the browser:
+	 * { "total": 1, "from": 0, "size": 10, "hits": [ { "docno", "title", "url", "score", "snippet", "highlights" } ] }
+	 * The snippet and highlights are only written for hits that have a snippet,
+	 * each highlight is the [start, end] of a term in the snippet.
+	 *
+	 * @param os The stream to write to
+	 * @param from The offset of the first hit
+	 * @param size The number of hits requested
+	 * @throws IOException
+	 */
+	public void writeJSON(OutputStream os, int from, int size) throws IOException {
+		XContentBuilder builder = jsonBuilder(os);
+
+		builder.startObject().field("total", total).field("from", from).field("size", size).startArray("hits");
+		for (Hit hit : hits) {
+			builder.startObject().field("docno", hit.docno).field("title", hit.title).field("url", hit.url)
+					.field("score", hit.score);
+			if (hit.snippet != null) {
+				builder.field("snippet", hit.snippet.getText()).startArray("highlights");
+				for (int[] highlight : hit.snippet.getHighlights()) {
+					builder.startArray().value(highlight[0]).value(highlight[1]).endArray();
+				}
+				builder.endArray();
+			}
+			builder.endObject();
+		}
+		builder.endArray().endObject();
+
+		builder.close();
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public List<Hit> getHits() {
+		return hits;
+	}
+
+	/**
+	 * A single ranked document.
+	 */
+	public static class Hit {
+		String docno = "";
+		String title = "";
+		String url = "";
+		float score;
+
+		// Filled in by Snippets.addSnippets(), null otherwise
+		Snippets.Snippet snippet;
+
+		public String getDocno() {
+			return docno;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+		public Snippets.Snippet getSnippet() {
+			return snippet;
+		}
+	}
+}
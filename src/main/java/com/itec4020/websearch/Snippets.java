@@ -0,0 +1,246 @@
+package com.itec4020.websearch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Builds the snippet shown under each search result, the part of the document
+ * where the words searched for are closest together.
+ *
+ * The plain text extracted from each document at ingest time is kept in a
+ * document store of it's own, cut off at MAX_TEXT_CHARS, so a snippet is built
+ * by inflating a few kilobytes and scanning them for the terms.  The stored
+ * HTML is never parsed again, and the work for each hit is bounded by the
+ * length of the stored text.
+ *
+ * Terms are matched the same way the InvertedIndex splits text, lower case
+ * runs of letters and digits.
+ */
+public class Snippets {
+
+	// Characters of each document's text kept for snippets, the rest is dropped
+	// at ingest.  Set with -Dwebsearch.snippet.text.chars
+	static final int MAX_TEXT_CHARS = Integer.getInteger("websearch.snippet.text.chars", 16384);
+
+	// Length of a snippet, set with -Dwebsearch.snippet.chars
+	static final int SNIPPET_CHARS = Integer.getInteger("websearch.snippet.chars", 200);
+
+	// Matches looked at in one document, the rest of the text is not scanned
+	static final int MAX_MATCHES = 1024;
+
+	// Marks where a snippet was cut out of the text
+	static final String ELLIPSIS = "\u2026";
+
+	// Time taken to build the snippets for a page of results
+	static final Metrics.Histogram TIME_METRIC = Metrics.histogram("websearch_snippet_seconds",
+			"Time taken to build the snippets for a page of search results");
+
+	/**
+	 * Cuts the text of a document down to what is kept for snippets, ending at a
+	 * word.
+	 *
+	 * @param text The text extracted from the document
+	 * @return The text to be stored
+	 */
+	public static String truncate(String text) {
+		if (text.length() <= MAX_TEXT_CHARS) {
+			return text;
+		}
+
+		int end = MAX_TEXT_CHARS;
+		while (end > 0 && isTermChar(text.charAt(end))) {
+			end--;
+		}
+		return text.substring(0, end > 0 ? end : MAX_TEXT_CHARS);
+	}
+
+	/**
+	 * Builds a snippet for each of the results from the stored text of the
+	 * documents.  Hits whose text isn't in the store are left without one.
+	 *
+	 * @param results The results to add the snippets to
+	 * @param texts The store holding the text of each document
+	 * @param title The title searched for
+	 * @param content The content searched for
+	 */
+	public static void addSnippets(SearchResults results, DocumentStore texts, String title, String content) {
+		long start = System.nanoTime();
+
+		// Each term once, in the order they were searched for
+		List<String> terms = new ArrayList<String>(
+				new LinkedHashSet<String>(InvertedIndex.tokenize(title + " " + content)));
+
+		for (SearchResults.Hit hit : results.getHits()) {
+			try {
+				byte[] text = texts.read(hit.getDocno());
+				if (text != null) {
+					hit.snippet = build(new String(text, StandardCharsets.UTF_8), terms);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		TIME_METRIC.observeSince(start);
+	}
+
+	/**
+	 * Builds the snippet of the text holding the most different terms within
+	 * SNIPPET_CHARS of each other, then the most matches.  When none of the terms
+	 * are in the text the snippet is the start of it.
+	 *
+	 * @param text The text of the document
+	 * @param terms The terms searched for, in lower case
+	 * @return The snippet
+	 */
+	public static Snippet build(String text, List<String> terms) {
+		// Find where each of the terms appear in the text
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int[] ids = new int[16];
+		int matches = 0;
+
+		int tokenStart = -1;
+		for (int i = 0; i <= text.length() && matches < MAX_MATCHES; i++) {
+			if (i < text.length() && isTermChar(text.charAt(i))) {
+				if (tokenStart < 0) {
+					tokenStart = i;
+				}
+			} else if (tokenStart >= 0) {
+				int id = indexOf(terms, text, tokenStart, i);
+				if (id >= 0) {
+					if (matches == starts.length) {
+						starts = Arrays.copyOf(starts, matches * 2);
+						ends = Arrays.copyOf(ends, matches * 2);
+						ids = Arrays.copyOf(ids, matches * 2);
+					}
+					starts[matches] = tokenStart;
+					ends[matches] = i;
+					ids[matches] = id;
+					matches++;
+				}
+				tokenStart = -1;
+			}
+		}
+
+		if (matches == 0) {
+			return cut(text, 0, Math.min(text.length(), SNIPPET_CHARS), starts, ends, 0);
+		}
+
+		// Slide a window over the matches, keeping a count of each term in it
+		int[] counts = new int[terms.size()];
+		int distinct = 0;
+		int best = 0;
+		int bestLast = 0;
+		int bestDistinct = 0;
+		int last = -1;
+
+		for (int first = 0; first < matches; first++) {
+			while (last + 1 < matches && ends[last + 1] - starts[first] <= SNIPPET_CHARS) {
+				last++;
+				if (counts[ids[last]]++ == 0) {
+					distinct++;
+				}
+			}
+
+			if (distinct > bestDistinct || (distinct == bestDistinct && last - first > bestLast - best)) {
+				best = first;
+				bestLast = last;
+				bestDistinct = distinct;
+			}
+
+			if (last >= first && --counts[ids[first]] == 0) {
+				distinct--;
+			}
+		}
+
+		// Centre the matches in the snippet
+		int slack = SNIPPET_CHARS - (ends[bestLast] - starts[best]);
+		int begin = Math.max(0, starts[best] - Math.max(0, slack) / 2);
+		int end = Math.min(text.length(), begin + SNIPPET_CHARS);
+		begin = Math.max(0, Math.min(begin, end - SNIPPET_CHARS));
+
+		// Don't cut through the matches at either end
+		begin = Math.min(begin, starts[best]);
+		end = Math.max(end, ends[bestLast]);
+
+		return cut(text, begin, end, starts, ends, matches);
+	}
+
+	/**
+	 * Cuts the snippet out of the text, moving it's ends out of any word they
+	 * fall in and marking the matches inside it.
+	 */
+	private static Snippet cut(String text, int begin, int end, int[] starts, int[] ends, int matches) {
+		while (begin > 0 && isTermChar(text.charAt(begin)) && isTermChar(text.charAt(begin - 1))) {
+			begin++;
+		}
+		while (end < text.length() && end > begin && isTermChar(text.charAt(end - 1)) && isTermChar(text.charAt(end))) {
+			end--;
+		}
+		while (begin < end && Character.isWhitespace(text.charAt(begin))) {
+			begin++;
+		}
+		while (end > begin && Character.isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+
+		String prefix = begin > 0 ? ELLIPSIS : "";
+		String suffix = end < text.length() ? ELLIPSIS : "";
+
+		List<int[]> highlights = new ArrayList<int[]>();
+		for (int i = 0; i < matches; i++) {
+			if (starts[i] >= begin && ends[i] <= end) {
+				highlights.add(new int[] { starts[i] - begin + prefix.length(), ends[i] - begin + prefix.length() });
+			}
+		}
+
+		return new Snippet(prefix + text.substring(begin, end) + suffix, highlights);
+	}
+
+	/**
+	 * Finds the term that matches the word in the text without copying it out.
+	 *
+	 * @return The index of the term, or -1 if none of them match
+	 */
+	private static int indexOf(List<String> terms, String text, int start, int end) {
+		for (int i = 0; i < terms.size(); i++) {
+			String term = terms.get(i);
+			if (term.length() == end - start && text.regionMatches(true, start, term, 0, term.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isTermChar(char c) {
+		return Character.isLetterOrDigit(c);
+	}
+
+	/**
+	 * A part of a document's text, with the offsets of the terms in it.
+	 */
+	public static class Snippet {
+		final String text;
+
+		// The start and end of each term matched in the text
+		final List<int[]> highlights;
+
+		Snippet(String text, List<int[]> highlights) {
+			this.text = text;
+			this.highlights = highlights;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public List<int[]> getHighlights() {
+			return highlights;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package com.itec4020.websearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Serves the static files under the web root.  The cache is looked up by the
+ * request path, only a path that isn't cached yet is resolved and checked
+ * against the root.  The entry is kept under the request path and under it's
+ * path relative to the root, so different spellings of the same path share
+ * one entry.  The cache holds a bounded number of paths, evicting the least
+ * recently used one when full.  Small files are held in memory, larger files
+ * are never read into the heap and are sent with FileChannel.transferTo.  Every
+ * text file also gets a gzip copy built once when it is cached, streamed from
+ * disk for the larger files, which is sent when the client accepts it.  Every
+ * response carries an ETag and Last-Modified header, and conditional requests
+ * get a 304 when the file is unchanged.
+ */
+@SuppressWarnings("restriction")
+public class StaticFileCache {
+
+	// Files up to this size are held in memory as is, set with -Dwebsearch.static.memory.bytes
+	// The gzip copies of text files are held whatever their size
+	final long MEMORY_LIMIT = Long.getLong("websearch.static.memory.bytes", 64 * 1024);
+
+	// Number of paths kept in the cache, set with -Dwebsearch.static.entries
+	final int MAX_ENTRIES = Integer.getInteger("websearch.static.entries", 512);
+
+	// How often a cached file is checked for changes on disk
+	final long CHECK_INTERVAL_MS = 2000;
+
+	// Content types that are worth compressing
+	static final String[] COMPRESSIBLE = { "text/", "application/javascript", "application/json",
+			"application/xml", "image/svg+xml" };
+
+	// The canonical path of the web root
+	final String root;
+
+	// Resolved files in least recently used order, keyed by request path and by
+	// canonical path relative to the root.  Only used while holding the lock
+	private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * @param rootDirectory The directory files are served from
+	 * @throws IOException
+	 */
+	public StaticFileCache(String rootDirectory) throws IOException {
+		root = new File(rootDirectory).getCanonicalPath();
+	}
+
+	/**
+	 * Sends the file for the request path.
+	 *
+	 * @param h The exchange to respond to
+	 * @param reqPath The path of the request (e.g. /js/jquery.js)
+	 * @return False if there is no such file under the web root
+	 * @throws IOException
+	 */
+	public boolean send(HttpExchange h, String reqPath) throws IOException {
+		Entry entry = get(reqPath);
+		if (entry == null) {
+			return false;
+		}
+
+		Headers req = h.getRequestHeaders();
+		Headers resp = h.getResponseHeaders();
+
+		// Pick the gzip copy if there is one and the client accepts it
+		boolean gzip = entry.gzip != null && WebServerHandler.acceptsEncoding(req.getFirst("Accept-Encoding"), "gzip");
+		String etag = gzip ? entry.gzipEtag : entry.etag;
+
+		resp.set("Content-Type", entry.mime);
+		resp.set("ETag", etag);
+		resp.set("Last-Modified", entry.lastModifiedHeader);
+		if (entry.gzip != null) {
+			resp.set("Vary", "Accept-Encoding");
+		}
+
+		if (isNotModified(req, entry, etag)) {
+			h.sendResponseHeaders(304, -1);
+			h.close();
+			return true;
+		}
+
+		OutputStream os;
+		if (gzip) {
+			resp.set("Content-Encoding", "gzip");
+			h.sendResponseHeaders(200, entry.gzip.length);
+			os = h.getResponseBody();
+			os.write(entry.gzip);
+		} else if (entry.data != null) {
+			h.sendResponseHeaders(200, entry.data.length);
+			os = h.getResponseBody();
+			os.write(entry.data);
+		} else {
+			h.sendResponseHeaders(200, entry.length);
+			os = h.getResponseBody();
+			transfer(entry.file, entry.length, os);
+		}
+
+		os.close();
+		h.close();
+		return true;
+	}
+
+	/**
+	 * Finds the cached entry for a request path, resolving the file if the path
+	 * hasn't been seen yet or the file has changed on disk.
+	 *
+	 * @param reqPath The path of the request
+	 * @return The entry, or null if there is no such file under the web root
+	 * @throws IOException
+	 */
+	Entry get(String reqPath) throws IOException {
+		Entry entry;
+		synchronized (cache) {
+			entry = cache.get(reqPath);
+		}
+		long now = System.currentTimeMillis();
+
+		if (entry != null) {
+			if (now - entry.checkedAt < CHECK_INTERVAL_MS) {
+				return entry;
+			}
+
+			// Only rebuild the entry if the file changed since it was cached
+			if (entry.file.lastModified() == entry.lastModified && entry.file.length() == entry.length) {
+				entry.checkedAt = now;
+				return entry;
+			}
+		}
+
+		// Get the canonical path to this file to check if a Path Traversal
+		// attack is happening.  If the canonical path is outside of the root
+		// then an attack is being attempted.
+		File file = new File(root, reqPath).getCanonicalFile();
+		String path = file.getPath();
+		if (!path.startsWith(root)) {
+			return null;
+		}
+		String key = path.substring(root.length());
+
+		if (!file.isFile()) {
+			synchronized (cache) {
+				cache.remove(reqPath);
+				cache.remove(key);
+			}
+			return null;
+		}
+
+		// Another spelling of the path may have already cached the file
+		synchronized (cache) {
+			Entry cached = cache.get(key);
+			if (cached != null && cached != entry && cached.lastModified == file.lastModified()
+					&& cached.length == file.length()) {
+				cache.put(reqPath, cached);
+				return cached;
+			}
+		}
+
+		entry = new Entry(file, WebServerHandler.getContentType(path));
+		synchronized (cache) {
+			cache.put(key, entry);
+			cache.put(reqPath, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Checks the conditional headers of the request against the file.
+	 *
+	 * @return True if the client's copy is still current
+	 */
+	private static boolean isNotModified(Headers req, Entry entry, String etag) {
+		String ifNoneMatch = req.getFirst("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.equals("*") || ifNoneMatch.contains(etag);
+		}
+
+		String ifModifiedSince = req.getFirst("If-Modified-Since");
+		if (ifModifiedSince != null) {
+			try {
+				long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+						.toInstant().toEpochMilli();
+				// Headers only carry whole seconds
+				return entry.lastModified / 1000 <= since / 1000;
+			} catch (DateTimeParseException e) {
+				return false;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sends a file with FileChannel.transferTo.  The response body of the HTTP
+	 * server isn't a channel, so the JDK copies through a buffer instead of
+	 * using sendfile, but the file is never read into the heap.
+	 */
+	private static void transfer(File file, long length, OutputStream os) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			WritableByteChannel out = Channels.newChannel(os);
+			long position = 0;
+			while (position < length) {
+				long sent = channel.transferTo(position, length - position, out);
+				if (sent <= 0) {
+					break;
+				}
+				position += sent;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return True if files of the given content type are worth compressing
+	 */
+	static boolean isCompressible(String mime) {
+		for (String prefix : COMPRESSIBLE) {
+			if (mime.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A resolved file along with everything needed to send it.
+	 */
+	class Entry {
+		final File file;
+		final String mime;
+		final long length;
+		final long lastModified;
+		final String lastModifiedHeader;
+		final String etag;
+		final String gzipEtag;
+
+		// The file contents if it is small enough to keep in memory
+		final byte[] data;
+
+		// The gzip copy of the file, null if it isn't compressible or doesn't get smaller
+		final byte[] gzip;
+
+		// When the file was last checked for changes
+		volatile long checkedAt;
+
+		Entry(File file, String mime) throws IOException {
+			this.file = file;
+			this.mime = mime;
+			this.lastModified = file.lastModified();
+			this.checkedAt = System.currentTimeMillis();
+
+			// Files too big to keep in memory are never read, they are sent from disk
+			this.length = file.length();
+			byte[] contents = length <= MEMORY_LIMIT ? Files.readAllBytes(file.toPath()) : null;
+			this.data = contents;
+
+			this.lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME
+					.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC));
+			this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+			this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+
+			// Only keep the gzip copy if it actually saves something
+			byte[] compressed = isCompressible(mime) ? gzip(contents) : null;
+			this.gzip = compressed != null && compressed.length < length ? compressed : null;
+		}
+
+		/**
+		 * Compresses the file, streaming it from disk when it isn't held in memory.
+		 */
+		private byte[] gzip(byte[] contents) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, length / 3));
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			try {
+				if (contents != null) {
+					out.write(contents);
+				} else {
+					Files.copy(file.toPath(), out);
+				}
+			} finally {
+				out.close();
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
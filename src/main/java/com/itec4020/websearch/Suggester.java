@@ -0,0 +1,470 @@
+package com.itec4020.websearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Suggests completions for what has been typed into the search box, from the
+ * titles of the documents and the words in them.  Each suggestion is weighted
+ * by the number of documents it came from, and a lookup returns the heaviest
+ * suggestions starting with the prefix.
+ *
+ * The suggestions are kept sorted in a single array of UTF-8 bytes, so the ones
+ * starting with a prefix are a range found with a binary search.  A segment
+ * tree over the weights holds the heaviest suggestion under each node, so the
+ * top suggestions in a range are found in O(k log n) however many suggestions
+ * the prefix matches.
+ *
+ * The suggestions are built during ingest and saved to a file next to the
+ * document store, so they are loaded as is on the next start.
+ */
+public class Suggester {
+
+	// Number of suggestions kept, the lightest are dropped past this
+	// Set with -Dwebsearch.suggest.entries
+	static final int MAX_ENTRIES = Integer.getInteger("websearch.suggest.entries", 200000);
+
+	// Longest suggestion kept, longer titles are cut at a word
+	static final int MAX_LENGTH = 80;
+
+	// Shortest word kept as a suggestion on it's own
+	static final int MIN_TERM_LENGTH = 3;
+
+	// Marks the start of the suggestions file
+	static final int MAGIC = 0x53554731;
+
+	// Every suggestion one after another, sorted by their bytes
+	private final byte[] keys;
+
+	// Where each suggestion starts in keys, with one extra for the end of the last
+	private final int[] offsets;
+
+	// The number of documents each suggestion came from
+	private final int[] weights;
+
+	// Segment tree of the index of the heaviest suggestion under each node, the
+	// leaves start at leafStart and hold -1 past the last suggestion
+	private final int[] tree;
+	private final int leafStart;
+
+	private Suggester(byte[] keys, int[] offsets, int[] weights) {
+		this.keys = keys;
+		this.offsets = offsets;
+		this.weights = weights;
+
+		int leaves = 1;
+		while (leaves < weights.length) {
+			leaves <<= 1;
+		}
+		leafStart = leaves;
+		tree = new int[leaves * 2];
+
+		Arrays.fill(tree, -1);
+		for (int i = 0; i < weights.length; i++) {
+			tree[leaves + i] = i;
+		}
+		for (int node = leaves - 1; node > 0; node--) {
+			tree[node] = heavier(tree[node * 2], tree[node * 2 + 1]);
+		}
+	}
+
+	/**
+	 * @return A suggester without any suggestions
+	 */
+	public static Suggester empty() {
+		return new Suggester(new byte[0], new int[1], new int[0]);
+	}
+
+	/**
+	 * Loads the suggestions saved with write().
+	 *
+	 * @param file The suggestions file
+	 * @return The suggester, empty if the file doesn't exist
+	 * @throws IOException
+	 */
+	public static Suggester load(File file) throws IOException {
+		if (!file.exists()) {
+			return empty();
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a suggestions file: " + file);
+			}
+
+			int count = in.readInt();
+			int[] offsets = new int[count + 1];
+			int[] weights = new int[count];
+			byte[] keys = new byte[in.readInt()];
+
+			int offset = 0;
+			for (int i = 0; i < count; i++) {
+				int length = in.readUnsignedShort();
+				offsets[i] = offset;
+				in.readFully(keys, offset, length);
+				offset += length;
+				weights[i] = in.readInt();
+			}
+			offsets[count] = offset;
+
+			return new Suggester(keys, offsets, weights);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves the suggestions, replacing the file once it has been written in full.
+	 *
+	 * @param file The suggestions file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(weights.length);
+			out.writeInt(offsets[weights.length]);
+
+			for (int i = 0; i < weights.length; i++) {
+				out.writeShort(offsets[i + 1] - offsets[i]);
+				out.write(keys, offsets[i], offsets[i + 1] - offsets[i]);
+				out.writeInt(weights[i]);
+			}
+		} finally {
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return The number of suggestions
+	 */
+	public int size() {
+		return weights.length;
+	}
+
+	/**
+	 * Finds the heaviest suggestions starting with the prefix.  Case and extra
+	 * whitespace in the prefix are ignored.
+	 *
+	 * @param prefix What has been typed so far
+	 * @param limit The most suggestions to return
+	 * @return The suggestions, heaviest first
+	 */
+	public List<Suggestion> suggest(String prefix, int limit) {
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		String normalized = normalize(prefix, false);
+		if (normalized.isEmpty() || limit <= 0) {
+			return suggestions;
+		}
+
+		byte[] bytes = normalized.getBytes(StandardCharsets.UTF_8);
+		int from = search(bytes, false);
+		int to = search(bytes, true);
+		if (from >= to) {
+			return suggestions;
+		}
+
+		// Start from the nodes covering the range, then keep taking the heaviest
+		// node and splitting it until enough leaves have come out
+		PriorityQueue<Integer> nodes = new PriorityQueue<Integer>(16, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int x = tree[a];
+				int y = tree[b];
+				return weights[x] != weights[y] ? Integer.compare(weights[y], weights[x]) : Integer.compare(x, y);
+			}
+		});
+
+		for (int lo = from + leafStart, hi = to + leafStart; lo < hi; lo >>= 1, hi >>= 1) {
+			if ((lo & 1) == 1) {
+				nodes.add(lo++);
+			}
+			if ((hi & 1) == 1) {
+				nodes.add(--hi);
+			}
+		}
+
+		while (!nodes.isEmpty() && suggestions.size() < limit) {
+			int node = nodes.poll();
+			if (node >= leafStart) {
+				int i = tree[node];
+				suggestions.add(new Suggestion(
+						new String(keys, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8), weights[i]));
+				continue;
+			}
+
+			for (int child = node * 2; child <= node * 2 + 1; child++) {
+				if (tree[child] >= 0) {
+					nodes.add(child);
+				}
+			}
+		}
+
+		return suggestions;
+	}
+
+	/**
+	 * Finds where the suggestions starting with the prefix begin, or end.
+	 *
+	 * @param prefix The prefix in UTF-8
+	 * @param after True for the first suggestion after those starting with the prefix
+	 * @return The index of the suggestion
+	 */
+	private int search(byte[] prefix, boolean after) {
+		int lo = 0;
+		int hi = weights.length;
+
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = comparePrefix(mid, prefix);
+			if (cmp < 0 || (after && cmp == 0)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+
+		return lo;
+	}
+
+	/**
+	 * Compares the start of a suggestion to the prefix.
+	 *
+	 * @return 0 if the suggestion starts with the prefix, otherwise which side of
+	 * it the suggestion sorts on
+	 */
+	private int comparePrefix(int i, byte[] prefix) {
+		int start = offsets[i];
+		int length = offsets[i + 1] - start;
+
+		for (int j = 0; j < prefix.length; j++) {
+			if (j == length) {
+				return -1;
+			}
+			int cmp = (keys[start + j] & 0xFF) - (prefix[j] & 0xFF);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * @return Whichever suggestion is heavier, the first in order on a tie
+	 */
+	private int heavier(int a, int b) {
+		if (a < 0) {
+			return b;
+		}
+		if (b < 0) {
+			return a;
+		}
+		if (weights[a] != weights[b]) {
+			return weights[a] > weights[b] ? a : b;
+		}
+		return Math.min(a, b);
+	}
+
+	/**
+	 * Lower cases the text and collapses runs of whitespace into a single space.
+	 *
+	 * @param text The text to normalize
+	 * @param trim Whether a trailing space is removed too, a prefix keeps it so
+	 * that a finished word only matches the suggestions that go on past it
+	 * @return The normalized text
+	 */
+	static String normalize(String text, boolean trim) {
+		if (text == null) {
+			return "";
+		}
+
+		StringBuilder normalized = new StringBuilder(text.length());
+		boolean space = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = normalized.length() > 0;
+			} else {
+				if (space) {
+					normalized.append(' ');
+					space = false;
+				}
+				normalized.append(c);
+			}
+		}
+		if (space && !trim) {
+			normalized.append(' ');
+		}
+
+		return normalized.toString().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * A single completion and the number of documents it came from.
+	 */
+	public static class Suggestion {
+		final String text;
+		final int weight;
+
+		Suggestion(String text, int weight) {
+			this.text = text;
+			this.weight = weight;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+	}
+
+	/**
+	 * Collects the suggestions while documents are ingested.  Safe to add to from
+	 * several threads.
+	 */
+	public static class Builder {
+		private final Map<String, int[]> counts = new HashMap<String, int[]>();
+
+		/**
+		 * Adds the suggestions for a document, it's title and each word in it.
+		 *
+		 * @param title The title of the document
+		 */
+		public void add(String title) {
+			String text = normalize(title, true);
+			if (text.isEmpty()) {
+				return;
+			}
+
+			// Cut long titles at the last word that fits
+			if (text.length() > MAX_LENGTH) {
+				int space = text.lastIndexOf(' ', MAX_LENGTH);
+				text = text.substring(0, space > 0 ? space : MAX_LENGTH);
+			}
+
+			Set<String> terms = new HashSet<String>();
+			for (String term : InvertedIndex.tokenize(title)) {
+				if (term.length() >= MIN_TERM_LENGTH && !term.equals(text)) {
+					terms.add(term);
+				}
+			}
+
+			synchronized (this) {
+				count(text, 1);
+				for (String term : terms) {
+					count(term, 1);
+				}
+			}
+		}
+
+		/**
+		 * Adds every suggestion of an existing suggester, used when ingest resumes
+		 * and the documents indexed before aren't read again.
+		 *
+		 * @param suggester The suggester to add
+		 */
+		public synchronized void addAll(Suggester suggester) {
+			for (int i = 0; i < suggester.size(); i++) {
+				count(new String(suggester.keys, suggester.offsets[i], suggester.offsets[i + 1] - suggester.offsets[i],
+						StandardCharsets.UTF_8), suggester.weights[i]);
+			}
+		}
+
+		private void count(String text, int n) {
+			int[] count = counts.get(text);
+			if (count == null) {
+				counts.put(text, count = new int[1]);
+			}
+			count[0] += n;
+		}
+
+		/**
+		 * Builds a suggester from what has been added so far, keeping the
+		 * MAX_ENTRIES heaviest suggestions.
+		 *
+		 * @return The suggester
+		 */
+		public synchronized Suggester build() {
+			List<Map.Entry<String, int[]>> entries = new ArrayList<Map.Entry<String, int[]>>(counts.entrySet());
+
+			if (entries.size() > MAX_ENTRIES) {
+				entries.sort(new Comparator<Map.Entry<String, int[]>>() {
+					public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+						return Integer.compare(b.getValue()[0], a.getValue()[0]);
+					}
+				});
+				entries = entries.subList(0, MAX_ENTRIES);
+			}
+
+			final byte[][] bytes = new byte[entries.size()][];
+			Integer[] order = new Integer[entries.size()];
+			int total = 0;
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = entries.get(i).getKey().getBytes(StandardCharsets.UTF_8);
+				order[i] = i;
+				total += bytes[i].length;
+			}
+
+			// Sort by the bytes so that prefixes can be found with a binary search
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return compareBytes(bytes[a], bytes[b]);
+				}
+			});
+
+			byte[] keys = new byte[total];
+			int[] offsets = new int[bytes.length + 1];
+			int[] weights = new int[bytes.length];
+			int offset = 0;
+			for (int i = 0; i < order.length; i++) {
+				byte[] key = bytes[order[i]];
+				offsets[i] = offset;
+				System.arraycopy(key, 0, keys, offset, key.length);
+				offset += key.length;
+				weights[i] = entries.get(order[i]).getValue()[0];
+			}
+			offsets[bytes.length] = offset;
+
+			return new Suggester(keys, offsets, weights);
+		}
+
+		private static int compareBytes(byte[] a, byte[] b) {
+			int length = Math.min(a.length, b.length);
+			for (int i = 0; i < length; i++) {
+				int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return a.length - b.length;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * A single query from a TREC topics file, e.g.
+ * <top>
+ * <num> Number: 401
+ * <title> foreign minorities, Germany
+ * <desc> Description: ...
+ * <narr> Narrative: ...
+ * </top>
+ */
+public class Topic {
+	final String num;
+	final String title;
+	final String description;
+	final String narrative;
+
+	Topic(String num, String title, String description, String narrative) {
+		this.num = num;
+		this.title = title;
+		this.description = description;
+		this.narrative = narrative;
+	}
+
+	/**
+	 * Reads every topic in a topics file.  The file is parsed once and the topics
+	 * are returned in the order they appear.
+	 *
+	 * @param file The topics file
+	 * @return The topics in the file
+	 * @throws IOException
+	 */
+	public static List<Topic> readTopics(File file) throws IOException {
+		Document entireDoc = Jsoup.parse(file, null);
+
+		List<Topic> topics = new ArrayList<Topic>();
+		for (Element top : entireDoc.select("top")) {
+			topics.add(fromElement(top));
+		}
+
+		return topics;
+	}
+
+	/**
+	 * Extracts the fields of a topic from the given Element.  It is expected that
+	 * the Element was generated from Jsoup pulling out a single top tag.  The tags
+	 * in the topics file are never closed, so each one holds the ones after it and
+	 * they are taken out from the last one back to get the text of each.
+	 *
+	 * @param e The top tag element with all information inside, it's children
+	 * are removed as they are read
+	 * @return The topic
+	 */
+	public static Topic fromElement(Element e) {
+		String num = "", title = "", desc = "", narr = "";
+		Element ele;
+
+		// Only update the Strings if the elements exist
+		if ((ele = e.select("narr").first()) != null) {
+			narr = afterLabel(ele.text());
+			ele.remove();
+		}
+
+		if ((ele = e.select("desc").first()) != null) {
+			desc = afterLabel(ele.text());
+			ele.remove();
+		}
+
+		if ((ele = e.select("title").first()) != null) {
+			title = ele.text();
+			ele.remove();
+		}
+
+		if ((ele = e.select("num").first()) != null) {
+			num = afterLabel(ele.text());
+		}
+
+		return new Topic(num, title, desc, narr);
+	}
+
+	/**
+	 * Drops the label in front of a field, e.g. "Number: 401" becomes "401"
+	 */
+	private static String afterLabel(String text) {
+		return text.substring(Math.min(text.length(), text.indexOf(":") + 2));
+	}
+
+	public String getNum() {
+		return num;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getNarrative() {
+		return narrative;
+	}
+}
@@ -0,0 +1,45 @@
+package com.itec4020.websearch;
+
+/**
+ * A single <DOC> record from the collection as it was split out of a file by
+ * the TrecDocumentReader.  Only the fields found before the HTML are kept as
+ * Strings, the HTML itself is left as raw bytes so that it is only decoded
+ * once by the HTML parser.
+ */
+public class TrecDocument {
+
+	// The document number (e.g. WT01-B01-7), empty if the <DOCNO> tag is missing
+	String docno;
+
+	// The document number from the original crawl, empty if missing
+	String olddocno;
+
+	// The crawl and HTTP headers inside of the <DOCHDR> tag, empty if missing
+	String header;
+
+	// Everything after the header up to the closing </DOC> tag
+	byte[] body;
+
+	public TrecDocument(String docno, String olddocno, String header, byte[] body) {
+		this.docno = docno;
+		this.olddocno = olddocno;
+		this.header = header;
+		this.body = body;
+	}
+
+	public String getDocno() {
+		return docno;
+	}
+
+	public String getOldDocno() {
+		return olddocno;
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+}
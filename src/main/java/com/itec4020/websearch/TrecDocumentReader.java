@@ -0,0 +1,220 @@
+package com.itec4020.websearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a stream in the format of the collection files into separate
+ * <DOC> records without building a DOM for the whole file.  The stream is read
+ * in chunks and scanned for the <DOC> and </DOC> boundaries, so only the
+ * document currently being split is held in memory.
+ *
+ * A document that is missing its closing tag ends where the next <DOC> begins,
+ * or at the end of the stream.
+ */
+public class TrecDocumentReader implements Closeable {
+
+	// Tags searched for while splitting, matched without regard to case
+	private static final byte[] DOC_OPEN = ascii("<DOC>");
+	private static final byte[] DOC_CLOSE = ascii("</DOC>");
+	private static final byte[] DOCNO_OPEN = ascii("<DOCNO>");
+	private static final byte[] DOCNO_CLOSE = ascii("</DOCNO>");
+	private static final byte[] OLDNO_OPEN = ascii("<DOCOLDNO>");
+	private static final byte[] OLDNO_CLOSE = ascii("</DOCOLDNO>");
+	private static final byte[] HDR_OPEN = ascii("<DOCHDR>");
+	private static final byte[] HDR_CLOSE = ascii("</DOCHDR>");
+
+	// Number of bytes requested from the stream at a time
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// The stream the documents are read from
+	private final InputStream in;
+
+	// Holds the unprocessed bytes read from the stream, buf[0] to buf[len - 1]
+	private byte[] buf = new byte[CHUNK_SIZE * 2];
+	private int len = 0;
+
+	// Set once the stream has no more data
+	private boolean eof = false;
+
+	public TrecDocumentReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads the next document from the stream.
+	 *
+	 * @return The next document, or null once there are no documents left
+	 * @throws IOException
+	 */
+	public TrecDocument next() throws IOException {
+		// Find the start of the next document, dropping anything before it
+		int start;
+		while ((start = indexOf(DOC_OPEN, 0, len)) < 0) {
+			// Keep the last few bytes in case the tag is split between reads
+			discard(Math.max(0, len - DOC_OPEN.length));
+			if (!fill()) {
+				return null;
+			}
+		}
+		discard(start);
+
+		// Find the end of the document, which is either the closing tag or the
+		// opening tag of the next document
+		int searchFrom = DOC_OPEN.length;
+		while (true) {
+			int close = indexOf(DOC_CLOSE, searchFrom, len);
+			int open = indexOf(DOC_OPEN, searchFrom, close < 0 ? len : close);
+
+			if (open >= 0) {
+				return split(open, open);
+			} else if (close >= 0) {
+				return split(close, close + DOC_CLOSE.length);
+			}
+
+			// Only search the new data next time
+			searchFrom = Math.max(DOC_OPEN.length, len - DOC_CLOSE.length);
+			if (!fill()) {
+				return split(len, len);
+			}
+		}
+	}
+
+	/**
+	 * Creates a document out of the buffered bytes before the end position, then
+	 * removes the document from the buffer.
+	 *
+	 * @param end The position in the buffer where the document content ends
+	 * @param consumed The number of bytes to remove from the buffer
+	 * @return The document that was split out
+	 */
+	private TrecDocument split(int end, int consumed) {
+		String docno = "", olddocno = "", header = "";
+		int bodyStart = DOC_OPEN.length;
+		int[] range;
+
+		// Only update the Strings if the elements exist
+		if ((range = findElement(DOCNO_OPEN, DOCNO_CLOSE, bodyStart, end)) != null) {
+			docno = text(range);
+			bodyStart = range[1] + DOCNO_CLOSE.length;
+		}
+
+		if ((range = findElement(OLDNO_OPEN, OLDNO_CLOSE, bodyStart, end)) != null) {
+			olddocno = text(range);
+			bodyStart = range[1] + OLDNO_CLOSE.length;
+		}
+
+		// Everything after the header is the HTML for the document
+		if ((range = findElement(HDR_OPEN, HDR_CLOSE, bodyStart, end)) != null) {
+			header = text(range);
+			bodyStart = range[1] + HDR_CLOSE.length;
+		}
+
+		byte[] body = new byte[Math.max(0, end - bodyStart)];
+		System.arraycopy(buf, bodyStart, body, 0, body.length);
+
+		discard(consumed);
+
+		return new TrecDocument(docno, olddocno, header, body);
+	}
+
+	/**
+	 * Finds the content between an opening and closing tag.
+	 *
+	 * @return The start and end of the content, or null if either tag is missing
+	 */
+	private int[] findElement(byte[] open, byte[] close, int from, int to) {
+		int start = indexOf(open, from, to);
+		if (start < 0) {
+			return null;
+		}
+
+		start += open.length;
+		int end = indexOf(close, start, to);
+		if (end < 0) {
+			return null;
+		}
+
+		return new int[] { start, end };
+	}
+
+	/**
+	 * Returns the trimmed ASCII text for the given range of the buffer.
+	 */
+	private String text(int[] range) {
+		return new String(buf, range[0], range[1] - range[0], StandardCharsets.ISO_8859_1).trim();
+	}
+
+	/**
+	 * Finds the first position of the tag between from and to, ignoring case.
+	 *
+	 * @return The position of the tag, or -1 if it wasn't found
+	 */
+	private int indexOf(byte[] tag, int from, int to) {
+		int last = to - tag.length;
+
+		outer: for (int i = from; i <= last; i++) {
+			if (buf[i] != '<') {
+				continue;
+			}
+			for (int j = 1; j < tag.length; j++) {
+				if (upper(buf[i + j]) != tag[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Removes the first count bytes from the buffer.
+	 */
+	private void discard(int count) {
+		System.arraycopy(buf, count, buf, 0, len - count);
+		len -= count;
+	}
+
+	/**
+	 * Reads the next chunk from the stream into the buffer, growing the buffer if
+	 * the current document doesn't fit.
+	 *
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+
+		if (buf.length - len < CHUNK_SIZE) {
+			byte[] grown = new byte[Math.max(buf.length * 2, len + CHUNK_SIZE)];
+			System.arraycopy(buf, 0, grown, 0, len);
+			buf = grown;
+		}
+
+		int read = in.read(buf, len, buf.length - len);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+
+		len += read;
+		return true;
+	}
+
+	private static byte upper(byte b) {
+		return (b >= 'a' && b <= 'z') ? (byte) (b - ('a' - 'A')) : b;
+	}
+
+	private static byte[] ascii(String tag) {
+		return tag.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -1,12 +1,25 @@
 package com.itec4020.websearch;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -17,8 +30,50 @@ public class WebServerHandler implements HttpHandler {
 	// Directory to serve static files from
 	final String ROOT_DIRECTORY = "./public";
 	
-	// Used to call ElasticSearch functions
-	ElasticSearchHandler elastic;
+	// Used to run searches and read the stored documents
+	SearchBackend backend;
+	
+	// Resolves and caches the files under the ROOT_DIRECTORY
+	StaticFileCache staticFiles;
+	
+	// Whether the application is ready, reported at /health
+	Health health;
+	
+	// The pool requests run on, search responses are built and sent on it
+	// rather than on the thread that completed the search
+	Executor executor;
+	
+	// Number of searches allowed to be waiting on ElasticSearch at the same time,
+	// the rest are turned away with a 503.  Searches don't hold a thread while
+	// they wait, so this isn't tied to the number of threads.
+	// Set with -Dwebsearch.http.searches
+	final int MAX_SEARCHES = Integer.getInteger("websearch.http.searches", 256);
+	final Semaphore searchPermits = new Semaphore(MAX_SEARCHES);
+	
+	// Largest page of results a single request can ask for
+	static final int MAX_SEARCH_SIZE = 100;
+	
+	// Number of suggestions returned by default, and the most that can be asked for
+	static final int DEFAULT_SUGGEST_SIZE = 10;
+	static final int MAX_SUGGEST_SIZE = 50;
+	
+	// Routes requests are grouped by in the metrics
+	static final String ROUTE_SEARCH = "search";
+	static final String ROUTE_SUGGEST = "suggest";
+	static final String ROUTE_PAGE = "page";
+	static final String ROUTE_METRICS = "metrics";
+	static final String ROUTE_HEALTH = "health";
+	static final String ROUTE_STATIC = "static";
+	
+	// Time taken to respond on each route
+	private static final Map<String, Metrics.Histogram> ROUTE_TIMES = new HashMap<String, Metrics.Histogram>();
+	static {
+		for (String route : new String[] { ROUTE_SEARCH, ROUTE_SUGGEST, ROUTE_PAGE, ROUTE_METRICS, ROUTE_HEALTH,
+				ROUTE_STATIC }) {
+			ROUTE_TIMES.put(route, Metrics.histogram("websearch_http_request_seconds",
+					"Time taken to respond to HTTP requests", "route", route));
+		}
+	}
 	
 	// Content-Type (MIME) map
 	private static final Map<String,String> MIME_MAP = new HashMap<String, String>();
@@ -43,14 +98,29 @@ public class WebServerHandler implements HttpHandler {
         MIME_MAP.put("php", "text/plain");
     }
     
-    public WebServerHandler(ElasticSearchHandler esh) {
-    	elastic = esh;
+    public WebServerHandler(SearchBackend sb, Health health, Executor executor) throws IOException {
+    	backend = sb;
+    	this.health = health;
+    	this.executor = executor;
+    	staticFiles = new StaticFileCache(ROOT_DIRECTORY);
+    	
+    	Metrics.gauge("websearch_http_searches_in_flight", "Searches waiting on the search backend", new LongSupplier() {
+    		public long getAsLong() {
+    			return MAX_SEARCHES - searchPermits.availablePermits();
+    		}
+    	});
+    	Metrics.gauge("websearch_store_documents", "Documents held in the document store", new LongSupplier() {
+    		public long getAsLong() {
+    			return backend.getPages().size();
+    		}
+    	});
     }
     
     /**
      * Handles the HTTP requests
      */
 	public void handle(HttpExchange h) throws IOException {
+		long start = System.nanoTime();
 		String reqPath = h.getRequestURI().getPath();
         String method = h.getRequestMethod();
         
@@ -59,66 +129,384 @@ public class WebServerHandler implements HttpHandler {
         	reqPath = "/index.html";
         }
         
-		// Perform search if requested
-		if(reqPath.equalsIgnoreCase("/search") && method.equals("POST")) {
-			// Set the req path as the search page
-			reqPath = "/index.html";
+        String route = getRoute(reqPath, method);
+        
+        // Turn the request away if the server is too busy to get to it in time
+        if(RequestExecutor.isOverloaded()) {
+        	sendUnavailable(h);
+        	recordRequest(h, route, start);
+        	return;
+        }
+        
+		// Perform search if requested, the response is recorded once it is sent
+		if(route == ROUTE_SEARCH) {
+			sendSearchResults(h, start);
+			return;
+		}
+		
+		try {
+			if(route == ROUTE_SUGGEST) {
+				sendSuggestions(h);
+				return;
+			}
+			
+			if(route == ROUTE_METRICS) {
+				sendMetrics(h);
+				return;
+			}
 			
-			// Gather the request parameters
-			String query = h.getRequestURI().getQuery();
-			String[] params = query.split("&");
+			if(route == ROUTE_HEALTH) {
+				sendHealth(h);
+				return;
+			}
 			
-			String title = "";
-			String content = "";
-			// Set the values based on the request parameters
-			for(int i = 0; i < params.length; i++) {
-				String[] newParam = params[i].split("=");
-				if(newParam[0].equals("title")) {
-					title = newParam[1];
-				} else if (newParam[0].equals("content")) {
-					content = newParam[1];
+			// Serve documents found in searches straight out of the document store
+			if(route == ROUTE_PAGE) {
+				String docno = reqPath.substring(ElasticSearchHandler.HTML_PATH_PUBLIC.length(), reqPath.length() - ".html".length());
+				if(sendStoredDocument(h, docno)) {
+					return;
 				}
 			}
 			
-			// Perform the search
-	        String result = elastic.search(title, content);
-	        
-	        // Send the Search-Results as part of a custom header
-	        h.getResponseHeaders().set("Search-Data", result);
-		}
-		
-		// Find the file in the root directory
-		File f = new File(ROOT_DIRECTORY, reqPath);
-		
-        try {
-        	// Get the canonical path to this directory to check if a 
-        	// Path Traversal attack is happening.  If the canonical
-        	// path does not match the ROOT_DIRECTORY path then we know
-        	// and attack is being attempted.
-            File canonFile = f.getCanonicalFile();
-	        String canonPath = canonFile.getPath();
-	        if (! canonPath.startsWith(new File(ROOT_DIRECTORY).getCanonicalPath())) {
-	        	// If so exit handler
-	        	sendError(h, 404);
-	            return;
-	        }
-	        
-	        // Set the Content-Type for the response based on extension
-			String ext = getExtension(canonPath).toLowerCase();
-	        String mime = MIME_MAP.getOrDefault(ext, "application/octet-stream");
-	        h.getResponseHeaders().set("Content-Type", mime);
-	        // Output the file and close the streams
-            FileInputStream fis = new FileInputStream(canonFile);
-            h.sendResponseHeaders(200, canonFile.length());
-            OutputStream os = h.getResponseBody();
-            copyStream(fis, os);
-            os.close();
-            fis.close();
-            h.close();
-        } catch (Exception e) {
-        	sendError(h, 404);
-            return;
-        }
+			// Find the file in the root directory and send it
+			try {
+				if (!staticFiles.send(h, reqPath)) {
+					sendError(h, 404);
+				}
+			} catch (Exception e) {
+				sendError(h, 404);
+			}
+		} finally {
+			recordRequest(h, route, start);
+		}
+	}
+	
+	/**
+	 * Works out which route a request is for, grouping the requests in the
+	 * metrics.  The routes are constants, so they can be compared with ==
+	 * 
+	 * @param path The path requested
+	 * @param method The HTTP method of the request
+	 * @return The route for the request
+	 */
+	static String getRoute(String path, String method) {
+		if(path.equals("/api/search") && method.equals("GET")) {
+			return ROUTE_SEARCH;
+		}
+		if(path.equals("/api/suggest") && method.equals("GET")) {
+			return ROUTE_SUGGEST;
+		}
+		if(path.equals("/metrics") && method.equals("GET")) {
+			return ROUTE_METRICS;
+		}
+		if(path.equals("/health") && method.equals("GET")) {
+			return ROUTE_HEALTH;
+		}
+		if(path.startsWith(ElasticSearchHandler.HTML_PATH_PUBLIC) && path.endsWith(".html")) {
+			return ROUTE_PAGE;
+		}
+		return ROUTE_STATIC;
+	}
+	
+	/**
+	 * Records the status and time taken for a request once it's response has
+	 * been sent.
+	 * 
+	 * @param h The exchange that was responded to
+	 * @param route The route of the request
+	 * @param start When the request started, from System.nanoTime()
+	 */
+	private static void recordRequest(HttpExchange h, String route, long start) {
+		ROUTE_TIMES.get(route).observeSince(start);
+		Metrics.counter("websearch_http_responses_total", "HTTP responses sent", "route", route, "status",
+				Integer.toString(h.getResponseCode())).increment();
+	}
+	
+	/**
+	 * Sends the completions for what has been typed into the search box.  The
+	 * request takes the parameters prefix and size, e.g.
+	 * /api/suggest?prefix=jav&size=10
+	 * The response is { "prefix": "jav", "suggestions": [ { "text", "weight" } ] }
+	 * 
+	 * @param h The exchange to respond to
+	 * @throws IOException
+	 */
+	private void sendSuggestions(HttpExchange h) throws IOException {
+		Map<String, String> params = getQueryParameters(h);
+		
+		String prefix = params.getOrDefault("prefix", "");
+		int size = Math.min(MAX_SUGGEST_SIZE, Math.max(0, parseInt(params.get("size"), DEFAULT_SUGGEST_SIZE)));
+		
+		List<Suggester.Suggestion> suggestions = backend.getSuggester().suggest(prefix, size);
+		
+		ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+		XContentBuilder builder = XContentFactory.jsonBuilder(body);
+		builder.startObject().field("prefix", prefix).startArray("suggestions");
+		for (Suggester.Suggestion suggestion : suggestions) {
+			builder.startObject().field("text", suggestion.getText()).field("weight", suggestion.getWeight()).endObject();
+		}
+		builder.endArray().endObject();
+		builder.close();
+		
+		h.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		h.getResponseHeaders().set("Cache-Control", "max-age=60");
+		h.sendResponseHeaders(200, body.size());
+		OutputStream os = h.getResponseBody();
+		body.writeTo(os);
+		os.close();
+	}
+	
+	/**
+	 * Sends the metrics in the Prometheus text format.
+	 * 
+	 * @param h The exchange to respond to
+	 * @throws IOException
+	 */
+	private void sendMetrics(HttpExchange h) throws IOException {
+		byte[] body = Metrics.write().getBytes("UTF-8");
+		h.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		h.getResponseHeaders().set("Cache-Control", "no-cache");
+		h.sendResponseHeaders(200, body.length);
+		OutputStream os = h.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+	
+	/**
+	 * Sends whether the application is ready along with the ingest progress,
+	 * with a 200 once it is ready and a 503 until then.
+	 * 
+	 * @param h The exchange to respond to
+	 * @throws IOException
+	 */
+	private void sendHealth(HttpExchange h) throws IOException {
+		byte[] body = health.toJSON();
+		h.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		h.getResponseHeaders().set("Cache-Control", "no-cache");
+		h.sendResponseHeaders(health.isReady() ? 200 : 503, body.length);
+		OutputStream os = h.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+	
+	/**
+	 * Runs a search and streams the results back as JSON.  The request takes the
+	 * parameters title, content, from and size, e.g.
+	 * /api/search?title=java&content=coffee&from=10&size=10
+	 * Each hit comes with a snippet of the document built from it's stored text.
+	 * 
+	 * The search runs asynchronously, so the thread handling the request returns
+	 * straight away and the response is sent once ElasticSearch answers.  The
+	 * search completes on the ElasticSearch client's I/O thread, so the response
+	 * is handed back to the request pool to be built and written.  If the pool
+	 * is overloaded by then the search is turned away with a 503.
+	 * 
+	 * @param h The exchange to respond to
+	 * @param start When the request started, from System.nanoTime()
+	 * @throws IOException
+	 */
+	private void sendSearchResults(final HttpExchange h, final long start) throws IOException {
+		Map<String, String> params = getQueryParameters(h);
+		
+		final String title = params.getOrDefault("title", "");
+		final String content = params.getOrDefault("content", "");
+		final int from = Math.max(0, parseInt(params.get("from"), 0));
+		final int size = Math.min(MAX_SEARCH_SIZE, Math.max(0, parseInt(params.get("size"), ElasticSearchHandler.DEFAULT_SEARCH_SIZE)));
+		
+		// Perform the search if there is room for it
+		if(!searchPermits.tryAcquire()) {
+			sendUnavailable(h);
+			recordRequest(h, ROUTE_SEARCH, start);
+			return;
+		}
+		
+		CompletableFuture<String> search;
+		try {
+			search = backend.searchAsync(title, content, from, size);
+		} catch (RuntimeException e) {
+			searchPermits.release();
+			recordRequest(h, ROUTE_SEARCH, start);
+			throw e;
+		}
+		
+		search.whenCompleteAsync(new BiConsumer<String, Throwable>() {
+			public void accept(String response, Throwable error) {
+				searchPermits.release();
+				
+				try {
+					if(RequestExecutor.isOverloaded()) {
+						sendUnavailable(h);
+						return;
+					}
+					
+					if(error != null) {
+						// Failures come wrapped when the search was shared with another request
+						Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+						if(cause instanceof TimeoutException) {
+							sendError(h, 504);
+						} else {
+							cause.printStackTrace();
+							sendError(h, 502);
+						}
+						return;
+					}
+					
+					SearchResults results = SearchResults.parse(response);
+					Snippets.addSnippets(results, backend.getTexts(), title, content);
+					
+					// Stream the results with chunked encoding rather than building them up first
+					h.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+					h.getResponseHeaders().set("Cache-Control", "no-cache");
+					h.sendResponseHeaders(200, 0);
+					OutputStream os = h.getResponseBody();
+					results.writeJSON(os, from, size);
+					os.close();
+				} catch (IOException e) {
+					// The client went away, or the response couldn't be read
+					e.printStackTrace();
+				} finally {
+					h.close();
+					recordRequest(h, ROUTE_SEARCH, start);
+				}
+			}
+		}, executor);
+	}
+	
+	/**
+	 * Decodes the query string of the request into it's parameters.  When a
+	 * parameter is given more than once the first value is used.
+	 * 
+	 * @param h The exchange for the request
+	 * @return The parameters of the request
+	 * @throws IOException
+	 */
+	static Map<String, String> getQueryParameters(HttpExchange h) throws IOException {
+		Map<String, String> params = new HashMap<String, String>();
+		
+		String query = h.getRequestURI().getRawQuery();
+		if(query == null || query.isEmpty()) {
+			return params;
+		}
+		
+		for(String param : query.split("&")) {
+			int equals = param.indexOf('=');
+			String name = equals < 0 ? param : param.substring(0, equals);
+			String value = equals < 0 ? "" : param.substring(equals + 1);
+			
+			try {
+				params.putIfAbsent(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+			} catch (IllegalArgumentException e) {
+				// Skip parameters with broken escapes
+			}
+		}
+		
+		return params;
+	}
+	
+	/**
+	 * Parses a number from a request parameter.
+	 * 
+	 * @return The number, or the default if it is missing or not a number
+	 */
+	private static int parseInt(String value, int defaultValue) {
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Sends a document from the document store.  Documents are stored deflated,
+	 * so if the client accepts the deflate encoding the stored bytes are sent as
+	 * they are, otherwise they are inflated first.
+	 * 
+	 * @param h The exchange to respond to
+	 * @param docno The document number (e.g. WT01-B01-7)
+	 * @return False if the document isn't in the store
+	 * @throws IOException
+	 */
+	private boolean sendStoredDocument(HttpExchange h, String docno) throws IOException {
+		DocumentStore.Record record = backend.getPages().getRecord(docno);
+		if (record == null) {
+			return false;
+		}
+		
+		ByteBuffer data = record.getData();
+		if (record.isDeflated()) {
+			// The response depends on the encodings accepted, so shared caches have to keep them apart
+			h.getResponseHeaders().set("Vary", "Accept-Encoding");
+			if (acceptsEncoding(h.getRequestHeaders().getFirst("Accept-Encoding"), "deflate")) {
+				h.getResponseHeaders().set("Content-Encoding", "deflate");
+			} else {
+				data = ByteBuffer.wrap(backend.getPages().read(docno));
+			}
+		}
+		
+		h.getResponseHeaders().set("Content-Type", MIME_MAP.get("html"));
+		h.sendResponseHeaders(200, data.remaining());
+		OutputStream os = h.getResponseBody();
+		Channels.newChannel(os).write(data);
+		os.close();
+		h.close();
+		
+		return true;
+	}
+	
+	/**
+	 * Checks an Accept-Encoding header for a content coding (e.g. "gzip;q=1.0,
+	 * deflate;q=0").  A coding is accepted when it, or failing that *, is listed
+	 * with a q-value above 0.
+	 * 
+	 * @param header The Accept-Encoding header, may be null
+	 * @param coding The content coding (e.g. deflate)
+	 * @return True if the client accepts the coding
+	 */
+	static boolean acceptsEncoding(String header, String coding) {
+		if (header == null) {
+			return false;
+		}
+		
+		float wildcard = 0;
+		for (String part : header.split(",")) {
+			String[] params = part.split(";");
+			String name = params[0].trim();
+			
+			float q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=") || param.startsWith("Q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+			
+			if (name.equalsIgnoreCase(coding)) {
+				return q > 0;
+			} else if (name.equals("*")) {
+				wildcard = q;
+			}
+		}
+		
+		return wildcard > 0;
+	}
+	
+	/**
+	 * Tells the client the server is too busy and to try again shortly.
+	 * 
+	 * @param h The exchange to respond to
+	 * @throws IOException
+	 */
+	private void sendUnavailable(HttpExchange h) throws IOException {
+		h.getResponseHeaders().set("Retry-After", "1");
+		sendError(h, 503);
 	}
 	
 	/**
@@ -138,6 +526,17 @@ public class WebServerHandler implements HttpHandler {
         os.close();
     }
 	
+	/**
+	 * Returns the Content-Type for a file based on it's extension.
+	 * 
+	 * @param path The path to the file
+	 * @return The MIME type for the file
+	 */
+	static String getContentType(String path) {
+		String ext = getExtension(path).toLowerCase();
+		return MIME_MAP.getOrDefault(ext, "application/octet-stream");
+	}
+	
 	/**
 	 * Returns the extension string to be used to get the content type provided in the
 	 * response.
@@ -146,7 +545,7 @@ public class WebServerHandler implements HttpHandler {
 	 * @return The extension for the provided file path
 	 */
 	private static String getExtension(String path) {
-        int slashIndex = path.lastIndexOf('/');
+        int slashIndex = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar));
         String basename = (slashIndex < 0) ? path : path.substring(slashIndex + 1);
 
         int dotIndex = basename.lastIndexOf('.');
@@ -157,20 +556,4 @@ public class WebServerHandler implements HttpHandler {
         }
     }
 	
-	/**
-	 * Writes data from an established InputStream into the given OutputStream.  Used for
-	 * reading in files to be served to the user.
-	 * 
-	 * @param is The input stream to read from
-	 * @param os The output stream to write data into
-	 * @throws IOException
-	 */
-	private void copyStream(InputStream is, OutputStream os) throws IOException {
-        byte[] buf = new byte[4096];
-        int n;
-        while ((n = is.read(buf)) >= 0) {
-            os.write(buf, 0, n);
-        }
-    }
-	
 }
@@ -0,0 +1,106 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the near-duplicate detection done while indexing.
+ */
+public class DeduplicatorTest
+    extends TestCase
+{
+    private static final String PAGE = page( "coffee", 100 );
+
+    public DeduplicatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DeduplicatorTest.class );
+    }
+
+    /**
+     * Builds a page of the given length about the subject
+     */
+    private static String page( String subject, int sentences )
+    {
+        String[] places = { "Java", "Kenya", "Colombia", "Ethiopia", "Sumatra", "Brazil", "Yemen" };
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < sentences; i++ )
+        {
+            text.append( "Item " ).append( i ).append( " in our catalogue is a " ).append( subject )
+                .append( " from " ).append( places[i % places.length] ).append( ", shipped within " )
+                .append( i % 4 + 1 ).append( " days. " );
+        }
+        return text.toString();
+    }
+
+    /**
+     * Copies that differ in case, spacing or a word are near-duplicates
+     */
+    public void testNearDuplicates()
+    {
+        Deduplicator deduplicator = new Deduplicator();
+
+        assertNull( deduplicator.check( "WT01-B01-1", PAGE ) );
+        assertEquals( "WT01-B01-1", deduplicator.check( "WT01-B01-2", PAGE ) );
+        assertEquals( "WT01-B01-1", deduplicator.check( "WT01-B01-3", PAGE.toUpperCase().replace( " ", "  " ) ) );
+        assertEquals( "WT01-B01-1", deduplicator.check( "WT01-B01-4", PAGE.replace( "Item 50 ", "Item fifty " ) ) );
+
+        assertNull( deduplicator.check( "WT01-B01-5", page( "tea", 100 ) ) );
+        assertNull( deduplicator.check( "WT01-B01-6", "A different page about travel to the island of Java, "
+            + "where the volcanoes, temples and rice terraces draw visitors from around the world every year." ) );
+
+        assertEquals( 3, deduplicator.size() );
+        assertEquals( 3, deduplicator.duplicates.get() );
+    }
+
+    /**
+     * Short documents aren't checked, they would match each other by chance
+     */
+    public void testShortDocuments()
+    {
+        Deduplicator deduplicator = new Deduplicator();
+
+        assertEquals( 0, Deduplicator.fingerprint( "Page not found" ) );
+        assertNull( deduplicator.check( "WT01-B01-1", "Page not found" ) );
+        assertNull( deduplicator.check( "WT01-B01-2", "Page not found" ) );
+        assertEquals( 0, deduplicator.size() );
+        assertEquals( 2, deduplicator.unchecked.get() );
+    }
+
+    /**
+     * Collapsed duplicates are recorded against the document they duplicate
+     */
+    public void testDuplicatesFile() throws IOException
+    {
+        File directory = Files.createTempDirectory( "dedup" ).toFile();
+        File file = new File( directory, "duplicates.tsv" );
+        try
+        {
+            Deduplicator deduplicator = new Deduplicator( file, false );
+            deduplicator.check( "WT01-B01-1", PAGE );
+            deduplicator.check( "WT01-B01-2", PAGE );
+            deduplicator.close();
+
+            assertEquals( "WT01-B01-2\tWT01-B01-1\n", new String( Files.readAllBytes( file.toPath() ),
+                StandardCharsets.UTF_8 ) );
+        }
+        finally
+        {
+            file.delete();
+            directory.delete();
+        }
+    }
+}
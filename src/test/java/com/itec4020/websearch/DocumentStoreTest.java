@@ -0,0 +1,155 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the on-disk document store.
+ */
+public class DocumentStoreTest
+    extends TestCase
+{
+    private File directory;
+
+    public DocumentStoreTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( DocumentStoreTest.class );
+    }
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "store" ).toFile();
+    }
+
+    protected void tearDown()
+    {
+        System.clearProperty( "websearch.store.segment.bytes" );
+        for ( File file : directory.listFiles() )
+        {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Documents read back as written, the last write of a docno wins, and all of it survives a reopen
+     */
+    public void testWriteReadReopen() throws IOException
+    {
+        DocumentStore store = new DocumentStore( directory );
+        store.open();
+        store.write( "WT01-B01-1", bytes( "<html>one</html>" ) );
+        store.write( "WT01-B01-2", bytes( "<html>two</html>" ) );
+        store.write( "WT01-B01-1", bytes( "<html>one again</html>" ) );
+
+        assertEquals( 2, store.size() );
+        assertEquals( "<html>one again</html>", text( store.read( "WT01-B01-1" ) ) );
+        assertEquals( "<html>two</html>", text( store.read( "WT01-B01-2" ) ) );
+        assertNull( store.read( "WT01-B01-3" ) );
+        assertTrue( store.getRecord( "WT01-B01-2" ).isDeflated() );
+        store.close();
+
+        store = new DocumentStore( directory );
+        store.open();
+        assertEquals( 2, store.size() );
+        assertEquals( "<html>one again</html>", text( store.read( "WT01-B01-1" ) ) );
+        assertEquals( "<html>two</html>", text( store.read( "WT01-B01-2" ) ) );
+        store.close();
+    }
+
+    /**
+     * Documents written after the segment was mapped are read, and documents spread over several segments
+     */
+    public void testGrowingSegments() throws IOException
+    {
+        System.setProperty( "websearch.store.segment.bytes", "4096" );
+        DocumentStore store = new DocumentStore( directory );
+        store.open();
+
+        // Each document is read right after it is written, as searches do during an ingest
+        for ( int i = 1; i <= 200; i++ )
+        {
+            store.write( "WT01-B01-" + i, bytes( "<html>document " + i + " " + Math.random() + "</html>" ) );
+            assertTrue( text( store.read( "WT01-B01-" + i ) ).startsWith( "<html>document " + i + " " ) );
+        }
+        assertTrue( new File( directory, "segment-00001.dat" ).exists() );
+
+        for ( int i = 1; i <= 200; i++ )
+        {
+            assertTrue( text( store.read( "WT01-B01-" + i ) ).startsWith( "<html>document " + i + " " ) );
+        }
+        store.close();
+    }
+
+    /**
+     * A partial last record of index.dat and records pointing past the end of a segment are dropped on open
+     */
+    public void testCutShortFiles() throws IOException
+    {
+        DocumentStore store = new DocumentStore( directory );
+        store.open();
+        store.write( "WT01-B01-1", bytes( "<html>one</html>" ) );
+        store.write( "WT01-B01-2", bytes( "<html>two</html>" ) );
+        store.write( "WT01-B01-3", bytes( "<html>three</html>" ) );
+        long thirdLength = store.getRecord( "WT01-B01-3" ).getData().remaining();
+        store.close();
+
+        // Stopped part way through writing the last index record
+        truncate( new File( directory, "index.dat" ), 3 );
+        store = new DocumentStore( directory );
+        store.open();
+        assertEquals( 2, store.size() );
+        assertEquals( "<html>two</html>", text( store.read( "WT01-B01-2" ) ) );
+        store.close();
+
+        // Stopped before the second document made it into the segment
+        truncate( new File( directory, "segment-00000.dat" ), thirdLength + 1 );
+        store = new DocumentStore( directory );
+        store.open();
+        assertEquals( 1, store.size() );
+        assertEquals( "<html>one</html>", text( store.read( "WT01-B01-1" ) ) );
+
+        // Writing carries on after what was recovered
+        store.write( "WT01-B01-2", bytes( "<html>two</html>" ) );
+        assertEquals( "<html>two</html>", text( store.read( "WT01-B01-2" ) ) );
+        store.close();
+    }
+
+    private static void truncate( File file, long bytes ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try
+        {
+            raf.setLength( raf.length() - bytes );
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private static byte[] bytes( String text )
+    {
+        return text.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private static String text( byte[] data )
+    {
+        return new String( data, StandardCharsets.UTF_8 );
+    }
+}
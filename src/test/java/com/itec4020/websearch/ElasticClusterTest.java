@@ -0,0 +1,192 @@
+package com.itec4020.websearch;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+
+import com.itec4020.websearch.loadtest.ElasticStandIn;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the connection to the ElasticSearch cluster, against stand-in
+ * servers on local ports.
+ */
+public class ElasticClusterTest
+    extends TestCase
+{
+    public ElasticClusterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ElasticClusterTest.class );
+    }
+
+    protected void setUp()
+    {
+        // Sniffing and health checks are run by the tests themselves
+        System.setProperty( "websearch.elastic.sniff.ms", "0" );
+        System.setProperty( "websearch.elastic.health.ms", "0" );
+    }
+
+    protected void tearDown()
+    {
+        System.clearProperty( "websearch.elastic.hosts" );
+        System.clearProperty( "websearch.elastic.sniff.ms" );
+        System.clearProperty( "websearch.elastic.health.ms" );
+        System.clearProperty( "websearch.search.hedge.ms" );
+    }
+
+    private static int freePort() throws IOException
+    {
+        ServerSocket socket = new ServerSocket( 0 );
+        try
+        {
+            return socket.getLocalPort();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private static ElasticCluster connect( int... ports )
+    {
+        StringBuilder hosts = new StringBuilder();
+        for ( int port : ports )
+        {
+            hosts.append( hosts.length() > 0 ? "," : "" ).append( "http://localhost:" ).append( port );
+        }
+        System.setProperty( "websearch.elastic.hosts", hosts.toString() );
+        return new ElasticCluster();
+    }
+
+    private static Response search( ElasticCluster cluster ) throws Exception
+    {
+        Request request = new Request( "GET", "/files/documents/_search" );
+        request.setJsonEntity( "{\"size\":1}" );
+        return cluster.sendHedged( request ).get( 5, TimeUnit.SECONDS );
+    }
+
+    /**
+     * A search the first node is slow to answer is answered by the second
+     */
+    public void testHedging() throws Exception
+    {
+        System.setProperty( "websearch.search.hedge.ms", "20" );
+        int slowPort = freePort();
+        int fastPort = freePort();
+        ElasticStandIn slow = new ElasticStandIn( String.valueOf( slowPort ), 1000, 0 );
+        ElasticStandIn fast = new ElasticStandIn( String.valueOf( fastPort ), 0, 0 );
+        slow.start();
+        fast.start();
+        ElasticCluster cluster = connect( slowPort, fastPort );
+        try
+        {
+            long won = ElasticCluster.HEDGE_WON_METRIC.get();
+            for ( int i = 0; i < 4; i++ )
+            {
+                long start = System.nanoTime();
+                assertEquals( 200, search( cluster ).getStatusLine().getStatusCode() );
+                assertTrue( System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos( 500 ) );
+            }
+
+            // Half of the searches went to the slow node first
+            assertTrue( ElasticCluster.HEDGE_WON_METRIC.get() - won >= 2 );
+        }
+        finally
+        {
+            cluster.close();
+            slow.stop();
+            fast.stop();
+        }
+    }
+
+    /**
+     * A search the first node can't take is sent to the second straight away
+     */
+    public void testFailover() throws Exception
+    {
+        System.setProperty( "websearch.search.hedge.ms", "0" );
+        int livePort = freePort();
+        int deadPort = freePort();
+        ElasticStandIn live = new ElasticStandIn( String.valueOf( livePort ), 0, 0 );
+        live.start();
+        ElasticCluster cluster = connect( deadPort, livePort );
+        try
+        {
+            for ( int i = 0; i < 4; i++ )
+            {
+                assertEquals( 200, search( cluster ).getStatusLine().getStatusCode() );
+            }
+        }
+        finally
+        {
+            cluster.close();
+            live.stop();
+        }
+    }
+
+    /**
+     * Nodes that stop answering are taken out of the client until they answer again
+     */
+    public void testHealthChecks() throws Exception
+    {
+        int livePort = freePort();
+        int deadPort = freePort();
+        ElasticStandIn live = new ElasticStandIn( String.valueOf( livePort ), 0, 0 );
+        ElasticStandIn revived = new ElasticStandIn( String.valueOf( deadPort ), 0, 0 );
+        live.start();
+        ElasticCluster cluster = connect( livePort, deadPort );
+        try
+        {
+            cluster.checkNodes();
+            assertEquals( 1, cluster.getClient().getNodes().size() );
+            assertEquals( livePort, cluster.getClient().getNodes().get( 0 ).getHost().getPort() );
+
+            revived.start();
+            cluster.checkNodes();
+            assertEquals( 2, cluster.getClient().getNodes().size() );
+        }
+        finally
+        {
+            cluster.close();
+            live.stop();
+            revived.stop();
+        }
+    }
+
+    /**
+     * Nodes of the cluster that weren't configured are found by sniffing
+     */
+    public void testSniff() throws Exception
+    {
+        int seedPort = freePort();
+        int otherPort = freePort();
+        ElasticStandIn standIn = new ElasticStandIn( seedPort + "," + otherPort, 0, 0 );
+        standIn.start();
+        ElasticCluster cluster = connect( seedPort );
+        try
+        {
+            assertEquals( 1, cluster.getClient().getNodes().size() );
+            cluster.sniff();
+            assertEquals( 2, cluster.getClient().getNodes().size() );
+        }
+        finally
+        {
+            cluster.close();
+            standIn.stop();
+        }
+    }
+}
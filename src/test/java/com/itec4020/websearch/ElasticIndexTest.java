@@ -0,0 +1,82 @@
+package com.itec4020.websearch;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the index created on ElasticSearch.
+ */
+public class ElasticIndexTest
+    extends TestCase
+{
+    public ElasticIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ElasticIndexTest.class );
+    }
+
+    private static JSONObject field( JSONObject properties, String name )
+    {
+        return (JSONObject) properties.get( name );
+    }
+
+    /**
+     * The index is created for bulk loading, with content searched but not kept in _source
+     */
+    public void testBuildIndex() throws Exception
+    {
+        ElasticIndex index = new ElasticIndex( null, "/files", "documents" );
+        JSONObject body = (JSONObject) new JSONParser().parse( index.buildIndex() );
+
+        JSONObject settings = (JSONObject) body.get( "settings" );
+        assertEquals( "-1", settings.get( "refresh_interval" ) );
+        assertEquals( 0L, settings.get( "number_of_replicas" ) );
+
+        JSONObject mapping = (JSONObject) ( (JSONObject) body.get( "mappings" ) ).get( "documents" );
+        JSONArray excludes = (JSONArray) ( (JSONObject) mapping.get( "_source" ) ).get( "excludes" );
+        assertEquals( 1, excludes.size() );
+        assertEquals( "content", excludes.get( 0 ) );
+
+        JSONObject properties = (JSONObject) mapping.get( "properties" );
+        assertEquals( "text", field( properties, "title" ).get( "type" ) );
+        assertEquals( "text", field( properties, "content" ).get( "type" ) );
+        assertEquals( "keyword", field( properties, "docno" ).get( "type" ) );
+        assertEquals( "keyword", field( properties, "url" ).get( "type" ) );
+        assertEquals( Boolean.FALSE, field( properties, "url" ).get( "index" ) );
+
+        // Every field of the documents sent is mapped
+        for ( String name : new String[] { "title", "docno", "olddocno", "keywords", "content", "url" } )
+        {
+            assertNotNull( name, field( properties, name ) );
+        }
+    }
+
+    /**
+     * An index made with a different mapping, such as the dynamic one, is told apart
+     */
+    public void testMatchesMapping() throws Exception
+    {
+        ElasticIndex index = new ElasticIndex( null, "/files", "documents" );
+        JSONObject body = (JSONObject) new JSONParser().parse( index.buildIndex() );
+        assertTrue( index.matchesMapping( "{\"files\":{\"mappings\":" + body.get( "mappings" ) + "}}" ) );
+
+        String dynamic = "{\"files\":{\"mappings\":{\"documents\":{\"properties\":{"
+            + "\"title\":{\"type\":\"text\"},\"content\":{\"type\":\"text\"},"
+            + "\"keywords\":{\"type\":\"text\"},\"docno\":{\"type\":\"text\"},"
+            + "\"olddocno\":{\"type\":\"text\"},\"url\":{\"type\":\"text\"}}}}}}";
+        assertFalse( index.matchesMapping( dynamic ) );
+        assertFalse( index.matchesMapping( "{\"files\":{\"mappings\":{}}}" ) );
+    }
+}
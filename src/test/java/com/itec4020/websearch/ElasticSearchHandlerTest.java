@@ -0,0 +1,75 @@
+package com.itec4020.websearch;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for reading the responses of the topic searches.
+ */
+public class ElasticSearchHandlerTest
+    extends TestCase
+{
+    public ElasticSearchHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ElasticSearchHandlerTest.class );
+    }
+
+    /**
+     * Only the docno and score of each hit are kept, the rest of the response is skipped
+     */
+    public void testReadTopicResponse() throws IOException
+    {
+        String json = read( "{\"took\":3,\"hits\":{\"total\":2,\"max_score\":2.5,\"hits\":["
+            + "{\"_id\":\"a\",\"_score\":2.5,\"_source\":{\"docno\":\"WT01-B01-1\",\"title\":\"x\"}},"
+            + "{\"_score\":1.5,\"_source\":{\"error\":\"in a page\",\"docno\":\"WT01-B01-2\"}}]},\"status\":200}" );
+
+        SearchResults results = SearchResults.parse( json );
+        assertEquals( 2, results.getTotal() );
+        assertEquals( 2, results.getHits().size() );
+        assertEquals( "WT01-B01-1", results.getHits().get( 0 ).getDocno() );
+        assertEquals( 2.5f, results.getHits().get( 0 ).getScore() );
+        assertEquals( "WT01-B01-2", results.getHits().get( 1 ).getDocno() );
+        assertFalse( json.contains( "title" ) );
+    }
+
+    /**
+     * A failed search is told apart by the error or status at the top level of it's response
+     */
+    public void testReadFailedTopicResponse() throws IOException
+    {
+        assertNull( read( "{\"error\":{\"type\":\"search_phase_execution_exception\"},\"status\":500}" ) );
+        assertNull( read( "{\"status\":429}" ) );
+        assertNotNull( read( "{\"hits\":{\"total\":0,\"hits\":[]}}" ) );
+    }
+
+    private static String read( String response ) throws IOException
+    {
+        XContentParser parser = JsonXContent.jsonXContent.createParser( NamedXContentRegistry.EMPTY,
+            DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response );
+        try
+        {
+            parser.nextToken();
+            return ElasticSearchHandler.readTopicResponse( parser, "401" );
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+}
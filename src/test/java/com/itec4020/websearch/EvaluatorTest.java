@@ -0,0 +1,133 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the evaluation of the topic searches.
+ */
+public class EvaluatorTest
+    extends TestCase
+{
+    private static final double DELTA = 1e-4;
+
+    public EvaluatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( EvaluatorTest.class );
+    }
+
+    /**
+     * A ranking is scored against graded judgments
+     */
+    public void testScore()
+    {
+        Map<String, Integer> judgments = new HashMap<String, Integer>();
+        judgments.put( "a", 1 );
+        judgments.put( "b", 2 );
+        judgments.put( "c", 0 );
+        judgments.put( "d", 1 );
+
+        // Relevant documents at ranks 1, 3 and 7
+        List<String> ranking = Arrays.asList( "a", "x", "b", "c", "y", "z", "d" );
+        Evaluator.Scores scores = Evaluator.score( ranking, judgments, 10 );
+
+        assertEquals( ( 1.0 + 2.0 / 3 + 3.0 / 7 ) / 3, scores.getAveragePrecision(), DELTA );
+        assertEquals( 0.4, scores.getPrecisionAt5(), DELTA );
+        // The missing hits count as not relevant
+        assertEquals( 0.3, scores.getPrecisionAt10(), DELTA );
+
+        double dcg = 1 + 3 / log2( 4 ) + 1 / log2( 8 );
+        double idealDcg = 3 + 1 / log2( 3 ) + 1 / log2( 4 );
+        assertEquals( dcg / idealDcg, scores.getNdcg(), DELTA );
+
+        Evaluator.Scores empty = Evaluator.score( Collections.<String>emptyList(), judgments, 10 );
+        assertEquals( 0.0, empty.getAveragePrecision(), DELTA );
+        assertEquals( 0.0, empty.getNdcg(), DELTA );
+    }
+
+    private static double log2( double x )
+    {
+        return Math.log( x ) / Math.log( 2 );
+    }
+
+    /**
+     * Qrels lines are read by topic then docno
+     */
+    public void testReadQrels() throws IOException
+    {
+        File file = File.createTempFile( "qrels", ".txt" );
+        try
+        {
+            Files.write( file.toPath(), "401 0 WT01-B01-1 1\n401 0 WT01-B01-2 0\n\n402 0 WT02-B01-3 2\n"
+                .getBytes( StandardCharsets.UTF_8 ) );
+
+            Map<String, Map<String, Integer>> qrels = Evaluator.readQrels( file );
+            assertEquals( 2, qrels.size() );
+            assertEquals( Integer.valueOf( 1 ), qrels.get( "401" ).get( "WT01-B01-1" ) );
+            assertEquals( Integer.valueOf( 0 ), qrels.get( "401" ).get( "WT01-B01-2" ) );
+            assertEquals( Integer.valueOf( 2 ), qrels.get( "402" ).get( "WT02-B01-3" ) );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Quality drops and latency rises past the thresholds fail, measures missing from either side are skipped
+     */
+    public void testCompare()
+    {
+        Properties baseline = new Properties();
+        baseline.setProperty( "map", "0.30" );
+        baseline.setProperty( "p5", "0.40" );
+        baseline.setProperty( "latency.p50.ms", "10" );
+        baseline.setProperty( "latency.p95.ms", "10" );
+
+        Properties current = new Properties();
+        current.setProperty( "map", "0.285" );
+        current.setProperty( "p5", "0.395" );
+        current.setProperty( "ndcg", "0.1" );
+        current.setProperty( "latency.p50.ms", "12" );
+        current.setProperty( "latency.p95.ms", "20" );
+
+        List<String> failures = Evaluator.compare( baseline, current, 0.01, 0.25, 2 );
+        assertEquals( 2, failures.size() );
+        assertTrue( failures.get( 0 ).startsWith( "map" ) );
+        assertTrue( failures.get( 1 ).startsWith( "latency.p95.ms" ) );
+
+        assertEquals( 0, Evaluator.compare( baseline, baseline, 0.01, 0.25, 2 ).size() );
+    }
+
+    /**
+     * Percentiles are nearest-rank
+     */
+    public void testPercentile()
+    {
+        long[] sorted = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        assertEquals( 5, Evaluator.percentile( sorted, 50 ) );
+        assertEquals( 10, Evaluator.percentile( sorted, 95 ) );
+        assertEquals( 1, Evaluator.percentile( sorted, 0 ) );
+        assertEquals( 0, Evaluator.percentile( new long[0], 50 ) );
+    }
+}
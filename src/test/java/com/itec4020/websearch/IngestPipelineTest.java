@@ -0,0 +1,166 @@
+package com.itec4020.websearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the ingest pipeline.
+ */
+public class IngestPipelineTest
+    extends TestCase
+{
+    public IngestPipelineTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( IngestPipelineTest.class );
+    }
+
+    /**
+     * Documents are handed on by file then position whatever order they arrive in
+     */
+    public void testInOrder()
+    {
+        IngestPipeline.InOrder order = new IngestPipeline.InOrder( 3 );
+        List<String> handed = new ArrayList<String>();
+
+        // The second file arrives first, nothing is known about the first yet
+        handed.addAll( ids( order.add( document( 1, 1 ) ) ) );
+        assertTrue( handed.isEmpty() );
+
+        // The first file resumes after its first document, its documents are let
+        // through as they arrive while it is still being split
+        order.start( 0, 2 );
+        handed.addAll( ids( order.add( document( 0, 2 ) ) ) );
+        assertEquals( "0-2", join( handed ) );
+        handed.addAll( ids( order.add( document( 0, 3 ) ) ) );
+        assertEquals( "0-2 0-3", join( handed ) );
+        order.split( 0, 2, 3 );
+
+        // A document that failed to be extracted doesn't hold up the rest
+        order.split( 1, 1, 3 );
+        order.skip( document( 1, 2 ) );
+        handed.addAll( ids( order.add( document( 1, 3 ) ) ) );
+        assertEquals( "0-2 0-3 1-1 1-3", join( handed ) );
+
+        // The last file is only let through once nothing else can come
+        handed.addAll( ids( order.add( document( 2, 1 ) ) ) );
+        assertEquals( "0-2 0-3 1-1 1-3", join( handed ) );
+        handed.addAll( ids( order.drain() ) );
+        assertEquals( "0-2 0-3 1-1 1-3 2-1", join( handed ) );
+    }
+
+    /**
+     * Files split by several threads finishing out of order come out in order,
+     * and the first file is never held
+     */
+    public void testInOrderThreads() throws Exception
+    {
+        final int files = 6;
+        final int documents = 50;
+        final IngestPipeline.InOrder order = new IngestPipeline.InOrder( files );
+        final BlockingQueue<IngestDocument> dedup = new LinkedBlockingQueue<IngestDocument>();
+
+        // The later files are split first and quicker, the first file last and slowest
+        List<Thread> splitters = new ArrayList<Thread>();
+        for ( int i = files - 1; i >= 0; i-- )
+        {
+            final int index = i;
+            splitters.add( new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Thread.sleep( ( files - index ) * 5 );
+                        for ( int position = 1; position <= documents; position++ )
+                        {
+                            if ( position == 1 )
+                            {
+                                order.start( index, 1 );
+                            }
+                            dedup.put( document( index, position ) );
+                            if ( index == 0 )
+                            {
+                                Thread.sleep( 1 );
+                            }
+                        }
+                        order.split( index, 1, documents );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } ) );
+        }
+        for ( Thread splitter : splitters )
+        {
+            splitter.start();
+        }
+
+        // A single dedup worker takes the documents as they come
+        List<String> handed = new ArrayList<String>();
+        int firstFileHandedEarly = 0;
+        for ( int i = 0; i < files * documents; i++ )
+        {
+            IngestDocument doc = dedup.take();
+            List<IngestDocument> ready = order.add( doc );
+            if ( doc.fileIndex == 0 && ready.contains( doc ) )
+            {
+                firstFileHandedEarly++;
+            }
+            handed.addAll( ids( ready ) );
+        }
+        for ( Thread splitter : splitters )
+        {
+            splitter.join();
+        }
+        handed.addAll( ids( order.drain() ) );
+
+        List<String> expected = new ArrayList<String>();
+        for ( int i = 0; i < files; i++ )
+        {
+            for ( int position = 1; position <= documents; position++ )
+            {
+                expected.add( i + "-" + position );
+            }
+        }
+        assertEquals( expected, handed );
+        assertEquals( documents, firstFileHandedEarly );
+    }
+
+    private static IngestDocument document( int file, int position )
+    {
+        IngestDocument doc = new IngestDocument( file + "-" + position, null, null, position );
+        doc.fileIndex = file;
+        return doc;
+    }
+
+    private static List<String> ids( List<IngestDocument> docs )
+    {
+        List<String> ids = new ArrayList<String>();
+        for ( IngestDocument doc : docs )
+        {
+            ids.add( doc.id );
+        }
+        return ids;
+    }
+
+    private static String join( List<String> ids )
+    {
+        return String.join( " ", ids );
+    }
+}
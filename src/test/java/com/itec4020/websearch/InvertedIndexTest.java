@@ -0,0 +1,94 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the embedded inverted index.
+ */
+public class InvertedIndexTest
+    extends TestCase
+{
+    private File directory;
+
+    public InvertedIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( InvertedIndexTest.class );
+    }
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "index" ).toFile();
+    }
+
+    protected void tearDown()
+    {
+        InvertedIndex.delete( directory );
+        directory.delete();
+    }
+
+    private InvertedIndex build() throws IOException
+    {
+        InvertedIndex.Builder builder = new InvertedIndex.Builder();
+        builder.add( "WT01-B01-1", "Coffee", "A page about tea and more tea" );
+        builder.add( "WT01-B01-2", "Tea Time", "Nothing about the drink in the title" );
+        builder.add( "WT01-B01-3", "Gardening", "Coffee grounds help the garden, coffee coffee" );
+        builder.add( "WT01-B01-4", "", "Unrelated" );
+        builder.write( directory );
+        return InvertedIndex.open( directory );
+    }
+
+    /**
+     * Matches in the title outrank matches in the content
+     */
+    public void testTitleBoost() throws IOException
+    {
+        SearchResults results = SearchResults.parse( build().search( "coffee", "coffee", 0, 10 ) );
+
+        assertEquals( 2, results.getTotal() );
+        assertEquals( "WT01-B01-1", results.getHits().get( 0 ).getDocno() );
+        assertEquals( "WT01-B01-3", results.getHits().get( 1 ).getDocno() );
+        assertEquals( "/pages/WT01-B01-1.html", results.getHits().get( 0 ).getUrl() );
+        assertTrue( results.getHits().get( 0 ).getScore() > 50 * results.getHits().get( 1 ).getScore() );
+    }
+
+    /**
+     * Pages of results continue where the last one left off
+     */
+    public void testPaging() throws IOException
+    {
+        InvertedIndex index = build();
+        SearchResults all = SearchResults.parse( index.search( "TEA", "tea coffee", 0, 10 ) );
+        SearchResults second = SearchResults.parse( index.search( "tea", "tea coffee", 1, 1 ) );
+
+        assertEquals( 3, all.getTotal() );
+        assertEquals( 3, second.getTotal() );
+        assertEquals( 1, second.getHits().size() );
+        assertEquals( all.getHits().get( 1 ).getDocno(), second.getHits().get( 0 ).getDocno() );
+    }
+
+    /**
+     * An index is only opened once it has been completely written
+     */
+    public void testIncompleteIndex() throws IOException
+    {
+        assertNull( InvertedIndex.open( directory ) );
+        assertEquals( 4, build().size() );
+
+        new File( directory, "index.done" ).delete();
+        assertNull( InvertedIndex.open( directory ) );
+    }
+}
@@ -0,0 +1,80 @@
+package com.itec4020.websearch;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the metrics served at /metrics.
+ */
+public class MetricsTest
+    extends TestCase
+{
+    public MetricsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( MetricsTest.class );
+    }
+
+    /**
+     * Counters with the same name and labels are the same counter
+     */
+    public void testCounterLabels()
+    {
+        Metrics.counter( "test_requests_total", "Requests", "route", "a", "status", "200" ).increment();
+        Metrics.counter( "test_requests_total", "Requests", "route", "a", "status", "200" ).add( 2 );
+        Metrics.counter( "test_requests_total", "Requests", "route", "b\"", "status", "404" ).increment();
+
+        String text = Metrics.write();
+        assertTrue( text.contains( "# HELP test_requests_total Requests\n# TYPE test_requests_total counter\n" ) );
+        assertTrue( text.contains( "test_requests_total{route=\"a\",status=\"200\"} 3\n" ) );
+        assertTrue( text.contains( "test_requests_total{route=\"b\\\"\",status=\"404\"} 1\n" ) );
+    }
+
+    /**
+     * Histogram buckets are cumulative and the sum is in seconds
+     */
+    public void testHistogramBuckets()
+    {
+        Metrics.Histogram histogram = Metrics.histogram( "test_latency_seconds", "Latency" );
+        histogram.observeNanos( TimeUnit.MICROSECONDS.toNanos( 100 ) );
+        histogram.observeNanos( TimeUnit.MILLISECONDS.toNanos( 3 ) );
+        histogram.observeNanos( TimeUnit.SECONDS.toNanos( 60 ) );
+
+        String text = Metrics.write();
+        assertTrue( text.contains( "# TYPE test_latency_seconds histogram\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_bucket{le=\"0.0005\"} 1\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_bucket{le=\"0.0025\"} 1\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_bucket{le=\"0.005\"} 2\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_bucket{le=\"30\"} 2\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_bucket{le=\"+Inf\"} 3\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_sum 60.0031\n" ) );
+        assertTrue( text.contains( "test_latency_seconds_count 3\n" ) );
+    }
+
+    /**
+     * A name can't be reused for a different type of metric
+     */
+    public void testTypeMismatch()
+    {
+        Metrics.counter( "test_mismatch", "Mismatch" );
+        try
+        {
+            Metrics.histogram( "test_mismatch", "Mismatch" );
+            fail( "A counter was used as a histogram" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
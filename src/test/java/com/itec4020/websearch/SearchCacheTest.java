@@ -0,0 +1,136 @@
+package com.itec4020.websearch;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the search response cache.
+ */
+public class SearchCacheTest
+    extends TestCase
+{
+    public SearchCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SearchCacheTest.class );
+    }
+
+    private static Supplier<CompletableFuture<String>> loader( final AtomicInteger calls, final CompletableFuture<String> response )
+    {
+        return new Supplier<CompletableFuture<String>>()
+        {
+            public CompletableFuture<String> get()
+            {
+                calls.incrementAndGet();
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Searches differing only in case and whitespace share a cached response
+     */
+    public void testNormalizedHit()
+    {
+        SearchCache cache = new SearchCache();
+        AtomicInteger calls = new AtomicInteger();
+
+        String first = cache.get( SearchCache.key( "Java  Coffee", "", 0, 10 ),
+            loader( calls, CompletableFuture.completedFuture( "a" ) ) ).join();
+        String second = cache.get( SearchCache.key( " java coffee ", "", 0, 10 ),
+            loader( calls, CompletableFuture.completedFuture( "b" ) ) ).join();
+
+        assertEquals( "a", first );
+        assertEquals( "a", second );
+        assertEquals( 1, calls.get() );
+        assertEquals( 1, cache.getHits() );
+
+        // A different page is a different search
+        cache.get( SearchCache.key( "java coffee", "", 10, 10 ), loader( calls, CompletableFuture.completedFuture( "c" ) ) );
+        assertEquals( 2, calls.get() );
+    }
+
+    /**
+     * A search already running is shared rather than sent again, and failures aren't cached
+     */
+    public void testCoalescing()
+    {
+        SearchCache cache = new SearchCache();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> pending = new CompletableFuture<String>();
+
+        CompletableFuture<String> first = cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, pending ) );
+        CompletableFuture<String> second = cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, pending ) );
+
+        assertEquals( 1, calls.get() );
+        assertEquals( 1, cache.getCoalesced() );
+        assertFalse( second.isDone() );
+
+        pending.complete( null );
+        assertNull( first.join() );
+        assertNull( second.join() );
+        assertEquals( 0, cache.size() );
+    }
+
+    /**
+     * Invalidating drops cached responses and keeps searches started before it out of the cache
+     */
+    public void testInvalidate()
+    {
+        SearchCache cache = new SearchCache();
+        AtomicInteger calls = new AtomicInteger();
+
+        cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, CompletableFuture.completedFuture( "a" ) ) );
+        CompletableFuture<String> pending = new CompletableFuture<String>();
+        cache.get( SearchCache.key( "coffee", "", 0, 10 ), loader( calls, pending ) );
+        assertEquals( 1, cache.size() );
+
+        cache.invalidate();
+        pending.complete( "b" );
+
+        assertEquals( 0, cache.size() );
+    }
+
+    /**
+     * A search started before invalidating isn't shared with callers arriving after it
+     */
+    public void testInvalidateWhileRunning()
+    {
+        SearchCache cache = new SearchCache();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> before = new CompletableFuture<String>();
+        CompletableFuture<String> after = new CompletableFuture<String>();
+
+        CompletableFuture<String> first = cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, before ) );
+        cache.invalidate();
+        CompletableFuture<String> second = cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, after ) );
+        CompletableFuture<String> third = cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, after ) );
+
+        assertEquals( 2, calls.get() );
+        assertEquals( 1, cache.getCoalesced() );
+
+        // The old search finishing first doesn't end the new one or get cached
+        before.complete( "old" );
+        assertEquals( "old", first.join() );
+        assertFalse( second.isDone() );
+        assertEquals( 0, cache.size() );
+
+        after.complete( "new" );
+        assertEquals( "new", second.join() );
+        assertEquals( "new", third.join() );
+        assertEquals( "new", cache.get( SearchCache.key( "java", "", 0, 10 ), loader( calls, after ) ).join() );
+        assertEquals( 2, calls.get() );
+    }
+}
@@ -0,0 +1,95 @@
+package com.itec4020.websearch;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the snippets shown with the search results.
+ */
+public class SnippetsTest
+    extends TestCase
+{
+    public SnippetsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SnippetsTest.class );
+    }
+
+    private static String filler( int words )
+    {
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < words; i++ )
+        {
+            text.append( "lorem " );
+        }
+        return text.toString();
+    }
+
+    private static List<String> highlighted( Snippets.Snippet snippet )
+    {
+        String[] terms = new String[snippet.getHighlights().size()];
+        for ( int i = 0; i < terms.length; i++ )
+        {
+            int[] highlight = snippet.getHighlights().get( i );
+            terms[i] = snippet.getText().substring( highlight[0], highlight[1] );
+        }
+        return Arrays.asList( terms );
+    }
+
+    /**
+     * The snippet is where the most different terms are close together
+     */
+    public void testBestWindow()
+    {
+        String text = "Java is mentioned early. " + filler( 100 ) + "A Java Coffee recipe is here. "
+            + filler( 100 ) + "Coffee again.";
+
+        Snippets.Snippet snippet = Snippets.build( text, Arrays.asList( "java", "coffee" ) );
+        assertTrue( snippet.getText().startsWith( "\u2026" ) );
+        assertTrue( snippet.getText().endsWith( "\u2026" ) );
+        assertTrue( snippet.getText().contains( "A Java Coffee recipe is here." ) );
+        assertTrue( snippet.getText().length() <= Snippets.SNIPPET_CHARS + 2 );
+        assertEquals( Arrays.asList( "Java", "Coffee" ), highlighted( snippet ) );
+    }
+
+    /**
+     * Without any of the terms the snippet is the start of the text, cut at a word
+     */
+    public void testNoMatches()
+    {
+        String text = "First words " + filler( 100 );
+
+        Snippets.Snippet snippet = Snippets.build( text, Arrays.asList( "java" ) );
+        assertTrue( snippet.getText().startsWith( "First words lorem" ) );
+        assertTrue( snippet.getText().endsWith( "lorem\u2026" ) );
+        assertEquals( 0, snippet.getHighlights().size() );
+
+        Snippets.Snippet whole = Snippets.build( "Short text", Arrays.asList( "text" ) );
+        assertEquals( "Short text", whole.getText() );
+        assertEquals( Arrays.asList( "text" ), highlighted( whole ) );
+    }
+
+    /**
+     * Text over the limit is cut off at a word
+     */
+    public void testTruncate()
+    {
+        String text = filler( Snippets.MAX_TEXT_CHARS );
+
+        String truncated = Snippets.truncate( text );
+        assertTrue( truncated.length() <= Snippets.MAX_TEXT_CHARS );
+        assertTrue( truncated.endsWith( "lorem" ) );
+        assertEquals( "short", Snippets.truncate( "short" ) );
+    }
+}
@@ -0,0 +1,102 @@
+package com.itec4020.websearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the static file cache.
+ */
+public class StaticFileCacheTest
+    extends TestCase
+{
+    private File root;
+
+    public StaticFileCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( StaticFileCacheTest.class );
+    }
+
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory( "static" ).toFile();
+        new File( root, "js" ).mkdir();
+    }
+
+    protected void tearDown()
+    {
+        for ( File file : new File( root, "js" ).listFiles() )
+        {
+            file.delete();
+        }
+        new File( root, "js" ).delete();
+        root.delete();
+    }
+
+    /**
+     * Text files too big to hold in memory are sent from disk but still get a gzip copy
+     */
+    public void testLargeFileIsCompressed() throws IOException
+    {
+        StringBuilder script = new StringBuilder();
+        while ( script.length() < 200 * 1024 )
+        {
+            script.append( "function f() { return 1; }\n" );
+        }
+        byte[] contents = script.toString().getBytes( StandardCharsets.UTF_8 );
+        Files.write( new File( root, "js/app.js" ).toPath(), contents );
+
+        StaticFileCache.Entry entry = new StaticFileCache( root.getPath() ).get( "/js/app.js" );
+        assertNull( entry.data );
+        assertNotNull( entry.gzip );
+        assertTrue( entry.gzip.length < contents.length );
+        assertTrue( Arrays.equals( contents, gunzip( entry.gzip ) ) );
+    }
+
+    /**
+     * Spellings of the same path share one entry, paths outside the root are refused
+     */
+    public void testPaths() throws IOException
+    {
+        Files.write( new File( root, "js/small.js" ).toPath(), "var a = 1;".getBytes( StandardCharsets.UTF_8 ) );
+        StaticFileCache cache = new StaticFileCache( root.getPath() );
+
+        StaticFileCache.Entry entry = cache.get( "/js/small.js" );
+        assertNotNull( entry.data );
+        assertSame( entry, cache.get( "/js/small.js" ) );
+        assertSame( entry, cache.get( "/js/../js/small.js" ) );
+        assertNull( cache.get( "/js/missing.js" ) );
+        assertNull( cache.get( "/../" + root.getName() + "/js/small.js/../../.." ) );
+    }
+
+    private static byte[] gunzip( byte[] compressed ) throws IOException
+    {
+        GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ( ( read = in.read( buffer ) ) > 0 )
+        {
+            out.write( buffer, 0, read );
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the search box suggestions.
+ */
+public class SuggesterTest
+    extends TestCase
+{
+    public SuggesterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SuggesterTest.class );
+    }
+
+    private static Suggester build()
+    {
+        Suggester.Builder builder = new Suggester.Builder();
+        builder.add( "Java Coffee Recipes" );
+        builder.add( "java  coffee recipes" );
+        builder.add( "Java Island Travel" );
+        builder.add( "JavaScript Tutorial" );
+        builder.add( "Jazz History" );
+        builder.add( "Coffee" );
+        return builder.build();
+    }
+
+    private static List<String> texts( List<Suggester.Suggestion> suggestions )
+    {
+        List<String> texts = new ArrayList<String>();
+        for ( Suggester.Suggestion suggestion : suggestions )
+        {
+            texts.add( suggestion.getText() );
+        }
+        return texts;
+    }
+
+    /**
+     * Suggestions start with the prefix and come heaviest first, ties in order
+     */
+    public void testPrefix()
+    {
+        Suggester suggester = build();
+
+        List<Suggester.Suggestion> java = suggester.suggest( "JAV", 10 );
+        assertEquals( "java", java.get( 0 ).getText() );
+        assertEquals( 3, java.get( 0 ).getWeight() );
+        assertEquals( "java coffee recipes", java.get( 1 ).getText() );
+        assertEquals( 2, java.get( 1 ).getWeight() );
+        assertEquals( 5, java.size() );
+        assertTrue( texts( java ).contains( "javascript" ) );
+
+        // A space after a word only matches the suggestions that go on past it
+        assertEquals( 2, suggester.suggest( "java ", 10 ).size() );
+        assertEquals( 2, suggester.suggest( "jav", 2 ).size() );
+        assertEquals( 0, suggester.suggest( "jb", 10 ).size() );
+        assertEquals( 0, suggester.suggest( "  ", 10 ).size() );
+        assertEquals( "coffee", suggester.suggest( "c", 1 ).get( 0 ).getText() );
+    }
+
+    /**
+     * Saved suggestions load back the same
+     */
+    public void testWriteAndLoad() throws IOException
+    {
+        File directory = Files.createTempDirectory( "suggest" ).toFile();
+        File file = new File( directory, "suggest.dat" );
+        try
+        {
+            Suggester suggester = build();
+            suggester.write( file );
+
+            Suggester loaded = Suggester.load( file );
+            assertEquals( suggester.size(), loaded.size() );
+            assertEquals( texts( suggester.suggest( "j", 20 ) ), texts( loaded.suggest( "j", 20 ) ) );
+
+            assertEquals( 0, Suggester.load( new File( directory, "missing.dat" ) ).size() );
+        }
+        finally
+        {
+            file.delete();
+            directory.delete();
+        }
+    }
+}
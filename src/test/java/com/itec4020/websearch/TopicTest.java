@@ -0,0 +1,52 @@
+package com.itec4020.websearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for reading the topics file.
+ */
+public class TopicTest
+    extends TestCase
+{
+    public TopicTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TopicTest.class );
+    }
+
+    /**
+     * Every topic is read in order with it's labels removed
+     */
+    public void testReadTopics() throws IOException
+    {
+        File file = new File( "results/topics.txt" );
+        if ( !file.exists() )
+        {
+            return;
+        }
+
+        List<Topic> topics = Topic.readTopics( file );
+        assertEquals( 20, topics.size() );
+
+        Topic first = topics.get( 0 );
+        assertEquals( "401", first.getNum() );
+        assertEquals( "foreign minorities, Germany", first.getTitle() );
+        assertTrue( first.getDescription().startsWith( "What language and cultural differences" ) );
+        assertTrue( first.getNarrative().startsWith( "A relevant document will focus" ) );
+
+        assertEquals( "420", topics.get( 19 ).getNum() );
+    }
+}
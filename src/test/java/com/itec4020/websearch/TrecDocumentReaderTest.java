@@ -0,0 +1,105 @@
+package com.itec4020.websearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for splitting documents out of the collection files.
+ */
+public class TrecDocumentReaderTest
+    extends TestCase
+{
+    public TrecDocumentReaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TrecDocumentReaderTest.class );
+    }
+
+    private static TrecDocumentReader reader( String data )
+    {
+        return new TrecDocumentReader( new ByteArrayInputStream( data.getBytes( StandardCharsets.ISO_8859_1 ) ) );
+    }
+
+    /**
+     * Fields before the HTML are split out and the HTML is kept as the body
+     */
+    public void testSplitsFields() throws IOException
+    {
+        TrecDocumentReader r = reader( "<DOC>\n<DOCNO>WT01-B01-1</DOCNO>\n<DOCOLDNO>IA073</DOCOLDNO>\n"
+                + "<DOCHDR>\nhttp://example.com/ 1.2.3.4\n</DOCHDR>\n<html><title>A</title></html>\n</DOC>\n"
+                + "<DOC>\n<DOCNO>WT01-B01-2</DOCNO>\n<DOCHDR>\n</DOCHDR>\nplain text\n</DOC>\n" );
+
+        TrecDocument first = r.next();
+        assertEquals( "WT01-B01-1", first.getDocno() );
+        assertEquals( "IA073", first.getOldDocno() );
+        assertEquals( "http://example.com/ 1.2.3.4", first.getHeader() );
+        assertEquals( "\n<html><title>A</title></html>\n", new String( first.getBody(), StandardCharsets.ISO_8859_1 ) );
+
+        TrecDocument second = r.next();
+        assertEquals( "WT01-B01-2", second.getDocno() );
+        assertEquals( "", second.getOldDocno() );
+        assertEquals( "\nplain text\n", new String( second.getBody(), StandardCharsets.ISO_8859_1 ) );
+
+        assertNull( r.next() );
+    }
+
+    /**
+     * A document missing it's closing tag ends where the next document starts
+     */
+    public void testMissingCloseTag() throws IOException
+    {
+        TrecDocumentReader r = reader( "<DOC><DOCNO>A</DOCNO>first<DOC><DOCNO>B</DOCNO>second</doc>"
+                + "<DOC><DOCNO>C</DOCNO>third" );
+
+        assertEquals( "first", new String( r.next().getBody(), StandardCharsets.ISO_8859_1 ) );
+        assertEquals( "B", r.next().getDocno() );
+
+        TrecDocument last = r.next();
+        assertEquals( "C", last.getDocno() );
+        assertEquals( "third", new String( last.getBody(), StandardCharsets.ISO_8859_1 ) );
+
+        assertNull( r.next() );
+    }
+
+    /**
+     * Every document in a real collection file is found, in order
+     */
+    public void testCollectionFile() throws IOException
+    {
+        File file = new File( "data/WT01/B01.GZ" );
+        if ( !file.exists() )
+        {
+            return;
+        }
+
+        InputStream in = new GZIPInputStream( new FileInputStream( file ) );
+        TrecDocumentReader r = new TrecDocumentReader( in );
+
+        int count = 0;
+        TrecDocument doc;
+        while ( ( doc = r.next() ) != null )
+        {
+            count++;
+            assertEquals( "WT01-B01-" + count, doc.getDocno() );
+        }
+        r.close();
+
+        assertEquals( 296, count );
+    }
+}
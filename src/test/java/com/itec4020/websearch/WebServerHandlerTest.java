@@ -0,0 +1,42 @@
+package com.itec4020.websearch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the request handling of the web server.
+ */
+public class WebServerHandlerTest
+    extends TestCase
+{
+    public WebServerHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WebServerHandlerTest.class );
+    }
+
+    /**
+     * A coding is only accepted when listed, or covered by *, with a q-value above 0
+     */
+    public void testAcceptsEncoding()
+    {
+        assertTrue( WebServerHandler.acceptsEncoding( "gzip, deflate, br", "deflate" ) );
+        assertTrue( WebServerHandler.acceptsEncoding( "GZIP;q=0.5", "gzip" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "gzip, deflate;q=0", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "deflate ; q=0.0", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "x-deflate-ish", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "identity", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( null, "deflate" ) );
+        assertTrue( WebServerHandler.acceptsEncoding( "*", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "*;q=0", "deflate" ) );
+        assertFalse( WebServerHandler.acceptsEncoding( "*, deflate;q=0", "deflate" ) );
+    }
+}
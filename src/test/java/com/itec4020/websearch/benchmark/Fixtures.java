@@ -0,0 +1,112 @@
+package com.itec4020.websearch.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.itec4020.websearch.ElasticSearchHandler;
+import com.itec4020.websearch.TrecDocument;
+import com.itec4020.websearch.TrecDocumentReader;
+
+/**
+ * Working directories and data for the benchmarks, taken from the real
+ * collection files so the documents have the sizes and markup the ingest
+ * pipeline sees.
+ *
+ * Each benchmark works in it's own temporary directory laid out like the
+ * project directory, so nothing it writes ends up in the real document store.
+ * user.dir is pointed at it since ElasticSearchHandler builds it's paths from
+ * there, which is safe as JMH runs every benchmark in a forked JVM.
+ */
+public class Fixtures {
+
+	// Folder inside of the temporary data directory holding the fixture
+	static final String FOLDER = "BENCH";
+
+	// The collection file the fixtures are taken from
+	// Set with -Dbenchmark.fixture
+	static final String FIXTURE = System.getProperty("benchmark.fixture", "data/WT01/B01.GZ");
+
+	private final File projectDir = new File(System.getProperty("user.dir"));
+	private final String savedUserDir = System.getProperty("user.dir");
+	final File workDir;
+
+	// The copy of the fixture in the work directory, and it's decompressed form
+	final File gzFile;
+	final File textFile;
+
+	Fixtures() throws IOException {
+		File fixture = new File(FIXTURE);
+		if (!fixture.isAbsolute()) {
+			fixture = new File(projectDir, FIXTURE);
+		}
+		if (!fixture.exists()) {
+			throw new IOException("Benchmark fixture not found: " + fixture);
+		}
+
+		workDir = Files.createTempDirectory("websearch-benchmark").toFile();
+
+		File dataDir = new File(workDir, "data/" + FOLDER);
+		dataDir.mkdirs();
+		gzFile = new File(dataDir, fixture.getName());
+		Files.copy(fixture.toPath(), gzFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		System.setProperty("user.dir", workDir.getPath());
+
+		File textDir = new File(workDir, "extracted/" + FOLDER);
+		textDir.mkdirs();
+		String name = fixture.getName();
+		textFile = new File(textDir, name.substring(0, name.toUpperCase().indexOf(".GZ")) + ".txt");
+	}
+
+	/**
+	 * @return A handler working in the work directory
+	 */
+	ElasticSearchHandler createHandler() {
+		return new ElasticSearchHandler();
+	}
+
+	/**
+	 * Splits every document out of the fixture.
+	 *
+	 * @param handler Used to open the fixture
+	 * @return The documents in the fixture
+	 * @throws IOException
+	 */
+	List<TrecDocument> readDocuments(ElasticSearchHandler handler) throws IOException {
+		List<TrecDocument> docs = new ArrayList<TrecDocument>();
+		InputStream in = handler.getPipeline().openDocumentStream(gzFile);
+		TrecDocumentReader reader = new TrecDocumentReader(in);
+		try {
+			TrecDocument doc;
+			while ((doc = reader.next()) != null) {
+				docs.add(doc);
+			}
+		} finally {
+			reader.close();
+		}
+		return docs;
+	}
+
+	/**
+	 * Deletes the work directory and points user.dir back at the project.
+	 */
+	void delete() {
+		deleteRecursively(workDir);
+		System.setProperty("user.dir", savedUserDir);
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,93 @@
+package com.itec4020.websearch.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itec4020.websearch.ElasticSearchHandler;
+import com.itec4020.websearch.TrecDocument;
+
+/**
+ * Benchmarks of the ingest hot paths over one collection file:
+ * - decompressing it to disk
+ * - splitting and extracting every document in it, from the .GZ file and
+ *   from the decompressed .txt file
+ * - extracting a single document
+ *
+ * Extracted documents are written to the document store like they are while
+ * indexing, the store is cleared after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+	private Fixtures fixtures;
+	private ElasticSearchHandler handler;
+
+	// Every document in the fixture, handed to getJSONFromData in turn
+	private List<TrecDocument> docs;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		fixtures = new Fixtures();
+		handler = fixtures.createHandler();
+		docs = fixtures.readDocuments(handler);
+
+		// The .txt form of the fixture is read by getJSONsFromPathText
+		handler.getPipeline().decompressFile(fixtures.gzFile, fixtures.textFile.getParent());
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearStore() throws IOException {
+		handler.getPages().clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		handler.close();
+		fixtures.delete();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void decompressDirectory() {
+		handler.getPipeline().decompressDirectory(Fixtures.FOLDER);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<String> getJSONsFromPathGz() {
+		return handler.getJSONsFromPath(fixtures.gzFile.getPath());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<String> getJSONsFromPathText() {
+		return handler.getJSONsFromPath(fixtures.textFile.getPath());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String getJSONFromData() {
+		TrecDocument doc = docs.get(next);
+		next = (next + 1) % docs.size();
+		return handler.getJSONFromData(doc);
+	}
+}
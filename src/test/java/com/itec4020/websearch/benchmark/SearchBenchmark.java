@@ -0,0 +1,125 @@
+package com.itec4020.websearch.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.client.Request;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itec4020.websearch.ElasticSearchHandler;
+import com.itec4020.websearch.ResultsGenerator;
+import com.itec4020.websearch.Topic;
+
+/**
+ * Benchmarks of the search hot paths that don't need a cluster:
+ * - building the search request for a topic
+ * - turning a search response into the lines of the results file
+ *
+ * The search response is made of hits for the documents in the fixture, with
+ * the fields searches ask ElasticSearch for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+	// Number of hits in the search response
+	@Param({ "10", "100" })
+	public int hits;
+
+	private Fixtures fixtures;
+	private ElasticSearchHandler handler;
+
+	// The query of the first topic, or a made up one if there is no topics file
+	private String title = "foreign minorities, Germany";
+	private String description = "What language and cultural differences impede the integration "
+			+ "of foreign minorities in Germany?";
+
+	private String response;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, ParseException {
+		File topics = new File(System.getProperty("user.dir"), "results/topics.txt");
+
+		fixtures = new Fixtures();
+		handler = fixtures.createHandler();
+
+		if (topics.exists()) {
+			List<Topic> all = Topic.readTopics(topics);
+			if (!all.isEmpty()) {
+				title = all.get(0).getTitle();
+				description = all.get(0).getDescription();
+			}
+		}
+
+		response = buildResponse(handler.getJSONsFromPath(fixtures.gzFile.getPath()), hits);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		handler.close();
+		fixtures.delete();
+	}
+
+	@Benchmark
+	public Request buildSearchRequest() throws IOException {
+		return handler.buildSearchRequest(title, description, 0, hits);
+	}
+
+	@Benchmark
+	public String getOutputForTopic() {
+		return ResultsGenerator.getOutputForTopic("401", response);
+	}
+
+	/**
+	 * Builds a search response with a hit for each of the first documents.
+	 */
+	@SuppressWarnings("unchecked")
+	private static String buildResponse(List<String> jsons, int size) throws ParseException {
+		JSONParser parser = new JSONParser();
+		JSONArray hits = new JSONArray();
+
+		for (int i = 0; i < size && i < jsons.size(); i++) {
+			JSONObject doc = (JSONObject) parser.parse(jsons.get(i));
+
+			JSONObject source = new JSONObject();
+			source.put("title", doc.get("title"));
+			source.put("docno", doc.get("docno"));
+			source.put("url", doc.get("url"));
+
+			JSONObject hit = new JSONObject();
+			hit.put("_score", 20.0 / (i + 1));
+			hit.put("_source", source);
+			hits.add(hit);
+		}
+
+		JSONObject outer = new JSONObject();
+		outer.put("total", jsons.size());
+		outer.put("hits", hits);
+
+		JSONObject response = new JSONObject();
+		response.put("hits", outer);
+		return response.toJSONString();
+	}
+}
@@ -0,0 +1,366 @@
+package com.itec4020.websearch.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itec4020.websearch.ElasticIndex;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the ElasticSearch servers, answering the requests
+ * ElasticSearchHandler makes so the web and ingest tiers can be measured
+ * without a cluster.  Every response is delayed by the configured latency and
+ * errors can be injected:
+ * - HEAD /files: 200, the index always exists
+ * - _count: the number of documents sent with _bulk
+ * - _mapping: the mapping ElasticIndex creates the index with
+ * - DELETE: forgets the documents sent with _bulk
+ * - _nodes/http: each of the ports it listens on as a node
+ * - PUT: 200, acknowledged
+ * - _bulk: every document is accepted, except the share rejected with a 429
+ * - _search and _msearch: made up hits for the documents sent with _bulk, or
+ *   for made up documents if none have been sent
+ *
+ * Settings (system properties):
+ * - standin.ports: ports to listen on (9200,9201)
+ * - standin.latency.ms: delay added to every response (5)
+ * - standin.jitter.ms: random delay added on top of the latency (5)
+ * - standin.error.rate: share of requests answered with a 503 (0)
+ * - standin.reject.rate: share of _bulk documents rejected with a 429 (0)
+ */
+@SuppressWarnings("restriction")
+public class ElasticStandIn implements HttpHandler {
+
+	final String PORTS;
+	final long LATENCY_MS;
+	final long JITTER_MS;
+	final double ERROR_RATE = Double.parseDouble(System.getProperty("standin.error.rate", "0"));
+	final double REJECT_RATE = Double.parseDouble(System.getProperty("standin.reject.rate", "0"));
+
+	// Number of hits a search matches
+	final int TOTAL_HITS = 1000;
+
+	// The IDs of the documents sent with _bulk
+	private final List<String> ids = new ArrayList<String>();
+
+	private final List<HttpServer> servers = new ArrayList<HttpServer>();
+	private ExecutorService executor;
+
+	// Stats related variables for analysis
+	final AtomicLong requests = new AtomicLong();
+	final AtomicLong documents = new AtomicLong();
+	final AtomicLong rejected = new AtomicLong();
+	final AtomicLong errors = new AtomicLong();
+
+	public static void main(String[] args) throws IOException {
+		new ElasticStandIn().start();
+	}
+
+	/**
+	 * Creates a stand-in with the settings from the system properties.
+	 */
+	public ElasticStandIn() {
+		this(System.getProperty("standin.ports", "9200,9201"), Long.getLong("standin.latency.ms", 5),
+				Long.getLong("standin.jitter.ms", 5));
+	}
+
+	/**
+	 * Creates a stand-in on the given ports, taking the error and reject rates
+	 * from the system properties.
+	 *
+	 * @param ports The ports to listen on, separated by commas
+	 * @param latencyMs The delay added to every response
+	 * @param jitterMs The most random delay added on top of the latency
+	 */
+	public ElasticStandIn(String ports, long latencyMs, long jitterMs) {
+		PORTS = ports;
+		LATENCY_MS = latencyMs;
+		JITTER_MS = jitterMs;
+	}
+
+	/**
+	 * Starts listening on each of the ports.
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		// Responses are delayed by sleeping, so every request needs it's own thread
+		executor = Executors.newCachedThreadPool();
+
+		for (String port : PORTS.split(",")) {
+			HttpServer server = HttpServer.create(new InetSocketAddress("localhost", Integer.parseInt(port.trim())), 256);
+			server.createContext("/", this);
+			server.setExecutor(executor);
+			server.start();
+			servers.add(server);
+		}
+
+		System.out.println("ElasticSearch stand-in listening on " + PORTS + " (latency " + LATENCY_MS + " ms, jitter "
+				+ JITTER_MS + " ms, error rate " + ERROR_RATE + ", reject rate " + REJECT_RATE + ")");
+	}
+
+	/**
+	 * Stops listening.
+	 */
+	public void stop() {
+		for (HttpServer server : servers) {
+			server.stop(0);
+		}
+		servers.clear();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return A one line summary of the requests handled
+	 */
+	public String getStats() {
+		return "Stand-in: " + requests.get() + " requests, " + documents.get() + " documents, " + rejected.get()
+				+ " rejected, " + errors.get() + " errors";
+	}
+
+	public void handle(HttpExchange h) throws IOException {
+		try {
+			requests.incrementAndGet();
+			byte[] body = readBody(h.getRequestBody());
+			String path = h.getRequestURI().getPath();
+			String method = h.getRequestMethod();
+
+			delay();
+
+			if (ThreadLocalRandom.current().nextDouble() < ERROR_RATE) {
+				errors.incrementAndGet();
+				send(h, 503, "{\"error\":{\"type\":\"unavailable\"},\"status\":503}");
+			} else if (method.equals("HEAD")) {
+				h.sendResponseHeaders(200, -1);
+			} else if (path.equals("/_nodes/http")) {
+				send(h, 200, nodes());
+			} else if (path.endsWith("/_count")) {
+				int count;
+				synchronized (ids) {
+					count = ids.size();
+				}
+				send(h, 200, "{\"count\":" + count + "}");
+			} else if (path.endsWith("/_mapping")) {
+				send(h, 200, mapping(path));
+			} else if (method.equals("DELETE")) {
+				synchronized (ids) {
+					ids.clear();
+				}
+				send(h, 200, "{\"acknowledged\":true}");
+			} else if (path.endsWith("/_bulk")) {
+				send(h, 200, bulk(body));
+			} else if (path.endsWith("/_msearch")) {
+				send(h, 200, multiSearch(body));
+			} else if (path.endsWith("/_search")) {
+				send(h, 200, search(parse(new String(body, StandardCharsets.UTF_8))));
+			} else {
+				send(h, 200, "{\"acknowledged\":true}");
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			send(h, 500, "{\"error\":{\"type\":\"stand_in_exception\"},\"status\":500}");
+		} finally {
+			h.close();
+		}
+	}
+
+	private void delay() {
+		long ms = LATENCY_MS + (JITTER_MS > 0 ? ThreadLocalRandom.current().nextLong(JITTER_MS + 1) : 0);
+		if (ms > 0) {
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Answers a GET _mapping with the mapping the index is created with.
+	 */
+	@SuppressWarnings("unchecked")
+	private String mapping(String path) throws IOException {
+		String index = path.substring(0, path.length() - "/_mapping".length());
+		JSONObject body = parse(new ElasticIndex(null, index, "documents").buildIndex());
+
+		JSONObject mappings = new JSONObject();
+		mappings.put("mappings", body.get("mappings"));
+		JSONObject response = new JSONObject();
+		response.put(index.substring(1), mappings);
+		return response.toJSONString();
+	}
+
+	/**
+	 * Accepts the documents of a _bulk request, each action line is followed by
+	 * the document.
+	 */
+	@SuppressWarnings("unchecked")
+	private String bulk(byte[] body) {
+		String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+		JSONArray items = new JSONArray();
+		boolean failed = false;
+
+		for (int i = 0; i < lines.length; i += 2) {
+			if (lines[i].isEmpty()) {
+				continue;
+			}
+
+			JSONObject action = parse(lines[i]);
+			JSONObject meta = (JSONObject) action.get("index");
+			String id = meta == null || meta.get("_id") == null ? null : meta.get("_id").toString();
+
+			JSONObject result = new JSONObject();
+			if (ThreadLocalRandom.current().nextDouble() < REJECT_RATE) {
+				rejected.incrementAndGet();
+				failed = true;
+				JSONObject error = new JSONObject();
+				error.put("type", "es_rejected_execution_exception");
+				result.put("status", 429);
+				result.put("error", error);
+			} else {
+				documents.incrementAndGet();
+				result.put("status", 201);
+				if (id != null) {
+					synchronized (ids) {
+						ids.add(id);
+					}
+				}
+			}
+
+			JSONObject item = new JSONObject();
+			item.put("index", result);
+			items.add(item);
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("errors", failed);
+		response.put("items", items);
+		return response.toJSONString();
+	}
+
+	/**
+	 * Lists each of the ports as a node of the cluster.
+	 */
+	@SuppressWarnings("unchecked")
+	private String nodes() {
+		JSONObject nodes = new JSONObject();
+		for (String port : PORTS.split(",")) {
+			JSONObject http = new JSONObject();
+			http.put("publish_address", "127.0.0.1:" + port.trim());
+
+			JSONObject node = new JSONObject();
+			node.put("http", http);
+			nodes.put("node-" + port.trim(), node);
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("nodes", nodes);
+		return response.toJSONString();
+	}
+
+	/**
+	 * Answers each search of an _msearch request, each header line is followed
+	 * by the search.
+	 */
+	@SuppressWarnings("unchecked")
+	private String multiSearch(byte[] body) {
+		String[] lines = new String(body, StandardCharsets.UTF_8).split("\n");
+		JSONArray responses = new JSONArray();
+
+		for (int i = 1; i < lines.length; i += 2) {
+			responses.add(parse(search(parse(lines[i]))));
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("responses", responses);
+		return response.toJSONString();
+	}
+
+	/**
+	 * Makes up the hits for a search, taking the page from the request.
+	 */
+	@SuppressWarnings("unchecked")
+	private String search(JSONObject request) {
+		int from = request.get("from") == null ? 0 : ((Number) request.get("from")).intValue();
+		int size = request.get("size") == null ? 10 : ((Number) request.get("size")).intValue();
+
+		JSONArray hits = new JSONArray();
+		for (int i = from; i < Math.min(TOTAL_HITS, from + size); i++) {
+			String docno = getDocno(i);
+
+			JSONObject source = new JSONObject();
+			source.put("title", "Result " + (i + 1));
+			source.put("docno", docno);
+			source.put("url", "/pages/" + docno + ".html");
+
+			JSONObject hit = new JSONObject();
+			hit.put("_score", (float) (TOTAL_HITS - i) / TOTAL_HITS);
+			hit.put("_source", source);
+			hits.add(hit);
+		}
+
+		JSONObject outer = new JSONObject();
+		outer.put("total", TOTAL_HITS);
+		outer.put("hits", hits);
+
+		JSONObject response = new JSONObject();
+		response.put("hits", outer);
+		return response.toJSONString();
+	}
+
+	private String getDocno(int rank) {
+		synchronized (ids) {
+			if (!ids.isEmpty()) {
+				return ids.get(rank % ids.size());
+			}
+		}
+		return "WT01-B01-" + (rank + 1);
+	}
+
+	private static JSONObject parse(String json) {
+		try {
+			Object parsed = new JSONParser().parse(json);
+			return parsed instanceof JSONObject ? (JSONObject) parsed : new JSONObject();
+		} catch (ParseException e) {
+			return new JSONObject();
+		}
+	}
+
+	private static byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[16 * 1024];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static void send(HttpExchange h, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		h.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		h.sendResponseHeaders(status, bytes.length);
+		OutputStream os = h.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+}
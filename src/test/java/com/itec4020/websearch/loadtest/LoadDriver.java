@@ -0,0 +1,237 @@
+package com.itec4020.websearch.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itec4020.websearch.Topic;
+
+/**
+ * Sends requests to the web server at a fixed rate and reports the throughput
+ * and latency.  Requests are a mix of searches for the topic queries and
+ * fetches of the static files of the search page.
+ *
+ * Requests are started on a schedule whether or not earlier ones have
+ * finished, and latency is measured from when a request was scheduled to
+ * start.  A server that falls behind shows up as higher latency instead of
+ * the driver quietly slowing down to match it.
+ *
+ * Settings (system properties):
+ * - loadtest.url: the web server to test (http://localhost:8080)
+ * - loadtest.rate: requests started per second (50)
+ * - loadtest.duration.s: how long to send requests for (30)
+ * - loadtest.warmup.s: requests in the first seconds aren't counted (5)
+ * - loadtest.search.share: share of requests that are searches (0.5)
+ * - loadtest.threads: number of requests allowed in flight (64)
+ * - loadtest.topics: the topics file the searches come from (results/topics.txt)
+ */
+public class LoadDriver {
+
+	final String URL = System.getProperty("loadtest.url", "http://localhost:8080");
+	final double RATE = Double.parseDouble(System.getProperty("loadtest.rate", "50"));
+	final long DURATION_S = Long.getLong("loadtest.duration.s", 30);
+	final long WARMUP_S = Long.getLong("loadtest.warmup.s", 5);
+	final double SEARCH_SHARE = Double.parseDouble(System.getProperty("loadtest.search.share", "0.5"));
+	final int THREADS = Integer.getInteger("loadtest.threads", 64);
+	final String TOPICS = System.getProperty("loadtest.topics", "results/topics.txt");
+
+	// The files the search page loads
+	static final String[] STATIC_PATHS = { "/", "/css/bootstrap.css", "/css/websearch.css", "/js/jquery.js",
+			"/js/bootstrap.bundle.js", "/js/jquery.easing.js", "/js/websearch.js" };
+
+	public static void main(String[] args) throws Exception {
+		System.out.println(new LoadDriver().run());
+	}
+
+	/**
+	 * Sends requests for the configured duration.
+	 *
+	 * @return The report of the run
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public String run() throws IOException, InterruptedException {
+		List<String> searches = getSearchPaths();
+		final Stats searchStats = new Stats("search");
+		final Stats staticStats = new Stats("static");
+
+		ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+		long start = System.nanoTime();
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(WARMUP_S);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(DURATION_S);
+
+		System.out.println("Sending " + RATE + " requests/sec to " + URL + " for " + WARMUP_S + "s warm up and "
+				+ DURATION_S + "s measured, " + (int) (SEARCH_SHARE * 100) + "% searches");
+
+		for (long scheduled = start; scheduled < end; scheduled += interval) {
+			// Wait for the next start time
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+
+			boolean search = ThreadLocalRandom.current().nextDouble() < SEARCH_SHARE && !searches.isEmpty();
+			final String path = search ? searches.get(ThreadLocalRandom.current().nextInt(searches.size()))
+					: STATIC_PATHS[ThreadLocalRandom.current().nextInt(STATIC_PATHS.length)];
+			final Stats stats = scheduled >= measureFrom ? (search ? searchStats : staticStats) : null;
+			final long scheduledAt = scheduled;
+
+			workers.execute(new Runnable() {
+				public void run() {
+					int status = fetch(path);
+					if (stats != null) {
+						stats.record(status, System.nanoTime() - scheduledAt);
+					}
+				}
+			});
+		}
+
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+
+		return searchStats.report(DURATION_S) + "\n" + staticStats.report(DURATION_S) + "\n"
+				+ Stats.combine("total", searchStats, staticStats).report(DURATION_S);
+	}
+
+	/**
+	 * Builds a search request for each topic, title against the title and the
+	 * description against the content, the same as the topic run.
+	 */
+	List<String> getSearchPaths() throws IOException {
+		List<String> paths = new ArrayList<String>();
+		File file = new File(TOPICS);
+		if (!file.exists()) {
+			System.out.println("No topics file at " + TOPICS + ", only static files will be requested");
+			return paths;
+		}
+
+		for (Topic topic : Topic.readTopics(file)) {
+			paths.add("/api/search?title=" + URLEncoder.encode(topic.getTitle(), "UTF-8") + "&content="
+					+ URLEncoder.encode(topic.getDescription(), "UTF-8"));
+		}
+		return paths;
+	}
+
+	/**
+	 * Requests a path and reads the whole response.
+	 *
+	 * @return The status of the response, or 0 if the request failed
+	 */
+	int fetch(String path) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(URL + path).openConnection();
+			connection.setConnectTimeout(10000);
+			connection.setReadTimeout(30000);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				// Reading to the end lets the connection be reused
+				byte[] buffer = new byte[16 * 1024];
+				while (in.read(buffer) > 0) {
+				}
+				in.close();
+			}
+			return status;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Latencies and statuses for one kind of request.
+	 */
+	static class Stats {
+		final String name;
+		private long[] latencies = new long[1024];
+		private int count = 0;
+		private final Map<Integer, AtomicLong> statuses = new TreeMap<Integer, AtomicLong>();
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		synchronized void record(int status, long latencyNanos) {
+			addLatency(latencyNanos);
+			addStatus(status, 1);
+		}
+
+		private void addLatency(long latencyNanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latencyNanos;
+		}
+
+		private void addStatus(int status, long n) {
+			AtomicLong total = statuses.get(status);
+			if (total == null) {
+				statuses.put(status, total = new AtomicLong());
+			}
+			total.addAndGet(n);
+		}
+
+		static Stats combine(String name, Stats... all) {
+			Stats combined = new Stats(name);
+			for (Stats stats : all) {
+				synchronized (stats) {
+					for (int i = 0; i < stats.count; i++) {
+						combined.addLatency(stats.latencies[i]);
+					}
+					for (Map.Entry<Integer, AtomicLong> entry : stats.statuses.entrySet()) {
+						combined.addStatus(entry.getKey(), entry.getValue().get());
+					}
+				}
+			}
+			return combined;
+		}
+
+		/**
+		 * @param durationS The number of seconds the requests were sent over
+		 * @return The throughput, latency percentiles and statuses
+		 */
+		synchronized String report(long durationS) {
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+
+			long errors = 0;
+			for (Map.Entry<Integer, AtomicLong> entry : statuses.entrySet()) {
+				if (entry.getKey() == 0 || entry.getKey() >= 400) {
+					errors += entry.getValue().get();
+				}
+			}
+
+			return String.format("%-7s requests=%d errors=%d throughput=%.1f/sec p50=%.2fms p99=%.2fms "
+					+ "p999=%.2fms max=%.2fms statuses=%s", name, count, errors, (double) count / durationS,
+					percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+					count > 0 ? sorted[count - 1] / 1e6 : 0, statuses);
+		}
+
+		/**
+		 * @return The latency in milliseconds that the given share of requests came in under
+		 */
+		static double percentile(long[] sorted, double p) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(p * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.itec4020.websearch.loadtest;
+
+import com.itec4020.websearch.App;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs a load test against the application without an ElasticSearch cluster.
+ * Starts the ElasticStandIn, optionally indexes the collection into it to
+ * measure the ingest tier, starts the web server and runs the LoadDriver
+ * against it.  Run with mvn -Ploadtest verify
+ *
+ * Settings (system properties), along with those of ElasticStandIn and LoadDriver:
+ * - loadtest.standin: start the stand-in, false to test against real servers (true)
+ * - loadtest.ingest: index the collection before sending requests (false)
+ */
+@SuppressWarnings("restriction")
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		ElasticStandIn standIn = null;
+		if (Boolean.parseBoolean(System.getProperty("loadtest.standin", "true"))) {
+			standIn = new ElasticStandIn();
+			standIn.start();
+		}
+
+		App app = new App();
+		HttpServer server = null;
+
+		try {
+			if (Boolean.getBoolean("loadtest.ingest")) {
+				long start = System.currentTimeMillis();
+				app.getSearchHandler().index();
+				System.out.println("Ingest took " + (System.currentTimeMillis() - start) + " ms");
+			}
+
+			server = app.createServer();
+			server.start();
+
+			String report = new LoadDriver().run();
+
+			System.out.println();
+			System.out.println(report);
+			if (standIn != null) {
+				System.out.println(standIn.getStats());
+			}
+		} finally {
+			if (server != null) {
+				server.stop(0);
+			}
+			app.getSearchHandler().close();
+			if (standIn != null) {
+				standIn.stop();
+			}
+		}
+	}
+}